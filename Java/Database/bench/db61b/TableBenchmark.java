@@ -0,0 +1,199 @@
+package db61b;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/** JMH benchmarks for the basic Table operations: loading, bulk insertion,
+ *  single-table and two-table selects, storing, and printing.  Every
+ *  benchmark runs over a table of ROWS rows whose non-key columns each
+ *  have CARDINALITY distinct values.
+ *  @author Wenqu Wang */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TableBenchmark {
+
+    /** Number of rows in the benchmark table. */
+    @Param({"1000", "10000"})
+    public int rows;
+
+    /** Number of distinct values in each non-key column. */
+    @Param({"10", "1000"})
+    public int cardinality;
+
+    /** Build the benchmark tables, write the table to be loaded, and
+     *  silence the standard output used by print. */
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        Random random = new Random(SEED);
+        _rows = new String[rows][];
+        _table = new Table(new String[] { "Key", "A", "B", "C" });
+        for (int r = 0; r < rows; r += 1) {
+            _rows[r] = new String[] {
+                "k" + r, value(random), value(random), value(random)
+            };
+            _table.add(_rows[r]);
+        }
+        _other = new Table(new String[] { "A", "D" });
+        for (int v = 0; v < cardinality; v += 1) {
+            _other.add(new String[] { "v" + v, "d" + v });
+        }
+
+        _dir = Files.createTempDirectory("db61b-bench").toFile();
+        _loadName = new File(_dir, "load").getPath();
+        _storeName = new File(_dir, "store").getPath();
+        _table.writeTable(_loadName);
+
+        _selected = new ArrayList<>();
+        _selected.add("Key");
+        _selected.add("B");
+        _joined = new ArrayList<>();
+        _joined.add("Key");
+        _joined.add("D");
+
+        _stdout = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+    }
+
+    /** Restore the standard output and remove temporary files. */
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        System.setOut(_stdout);
+        for (File f : _dir.listFiles()) {
+            f.delete();
+        }
+        _dir.delete();
+    }
+
+    /** Table.readTable on the benchmark table, decoding every column, as
+     *  a load did before columns were decoded lazily. */
+    @Benchmark
+    public void readTable(Blackhole bh) {
+        Table table = Table.readTable(_loadName);
+        for (int c = 0; c < table.columns(); c += 1) {
+            table.materialize(c);
+        }
+        bh.consume(table);
+    }
+
+    /** Table.readTable on the benchmark table, decoding no column (when
+     *  db61b.lazyLoad is not false). */
+    @Benchmark
+    public void readTableLazily(Blackhole bh) {
+        bh.consume(Table.readTable(_loadName));
+    }
+
+    /** Bulk Table.add of every benchmark row into an empty table. */
+    @Benchmark
+    public void addRows(Blackhole bh) {
+        Table table = new Table(new String[] { "Key", "A", "B", "C" });
+        for (String[] row : _rows) {
+            table.add(row);
+        }
+        bh.consume(table);
+    }
+
+    /** Single-table select with 1 to 3 conditions. */
+    @Benchmark
+    public void select(Conditions where, Blackhole bh) {
+        bh.consume(_table.select(_selected, where._conditions));
+    }
+
+    /** Two-table select joining on the common column A. */
+    @Benchmark
+    public void join(Blackhole bh) {
+        bh.consume(_table.select(_other, _joined, null));
+    }
+
+    /** Table.writeTable of the benchmark table. */
+    @Benchmark
+    public void writeTable() {
+        _table.writeTable(_storeName);
+    }
+
+    /** Table.print of the benchmark table (to a discarded stream). */
+    @Benchmark
+    public void print() {
+        _table.print();
+    }
+
+    /** Return a random column value drawn from CARDINALITY values using
+     *  RANDOM. */
+    private String value(Random random) {
+        return "v" + random.nextInt(cardinality);
+    }
+
+    /** The where clause of the single-table select benchmark, kept in
+     *  its own state so that only that benchmark is parameterized by the
+     *  number of conditions. */
+    @State(Scope.Benchmark)
+    public static class Conditions {
+        /** Number of conditions. */
+        @Param({"1", "2", "3"})
+        public int conditions;
+
+        /** Build the first CONDITIONS conditions on the columns A, B, and C
+         *  of BENCH's table. */
+        @Setup(Level.Trial)
+        public void setUp(TableBenchmark bench) {
+            Table table = bench._table;
+            Condition[] all = {
+                new Condition(new Column("A", table), "=", "v0"),
+                new Condition(new Column("B", table), "!=", "v0"),
+                new Condition(new Column("C", table), ">=", "v1"),
+            };
+            _conditions = new ArrayList<>();
+            for (int i = 0; i < conditions; i += 1) {
+                _conditions.add(all[i]);
+            }
+        }
+
+        /** The conditions. */
+        private List<Condition> _conditions;
+    }
+
+    /** Seed for generating benchmark data. */
+    private static final long SEED = 61;
+
+    /** The rows of _table. */
+    private String[][] _rows;
+    /** The benchmark table, with columns Key, A, B, and C. */
+    private Table _table;
+    /** The table joined with _table, with columns A and D. */
+    private Table _other;
+    /** Columns selected by the single-table select. */
+    private List<String> _selected;
+    /** Columns selected by the join. */
+    private List<String> _joined;
+    /** Directory holding the loaded and stored files. */
+    private File _dir;
+    /** Names (without .db) of the loaded and stored files. */
+    private String _loadName, _storeName;
+    /** The standard output replaced during the benchmarks. */
+    private PrintStream _stdout;
+}
@@ -0,0 +1,135 @@
+package db61b;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Scanner;
+import java.util.TreeMap;
+
+/** Runs a db61b script, such as bench/workload.in, through the command
+ *  interpreter and reports, for each kind of statement (the keyword that
+ *  starts it), the number executed, the throughput, and latency
+ *  percentiles.  The script's own output is discarded.  A store
+ *  statement is timed until its table is written, rather than until its
+ *  background write starts, so that its latency is that of the write.
+ *
+ *  Usage: java db61b.WorkloadDriver SCRIPT [REPEAT]
+ *  runs SCRIPT REPEAT times (default 1) in a single session.  Tables are
+ *  loaded from the current directory, as usual.
+ *  @author Wenqu Wang */
+public class WorkloadDriver {
+
+    /** Percentiles reported for each kind of statement. */
+    static final double[] PERCENTILES = { 50, 90, 99 };
+
+    /** Run the script described by ARGS (see the class comment). */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1 || args.length > 2) {
+            System.err.println("Usage: java db61b.WorkloadDriver "
+                               + "SCRIPT [REPEAT]");
+            System.exit(1);
+        }
+        String script = new String(Files.readAllBytes(Paths.get(args[0])));
+        int repeat = args.length > 1 ? Integer.parseInt(args[1]) : 1;
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < repeat; i += 1) {
+            text.append(script).append("\n");
+        }
+
+        PrintStream report = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        CommandInterpreter interpreter =
+            new CommandInterpreter(new Scanner(text.toString()), null);
+        Map<String, Latencies> stats = new TreeMap<>();
+        long start = System.nanoTime();
+        while (true) {
+            String kind = interpreter.peekStatement();
+            Latencies latencies = stats.get(kind);
+            if (latencies == null) {
+                latencies = new Latencies();
+                stats.put(kind, latencies);
+            }
+            long t0 = System.nanoTime();
+            try {
+                if (!interpreter.statement()) {
+                    break;
+                }
+                if (kind.equals("store")) {
+                    Storer.finish(System.out, false);
+                }
+            } catch (DBException e) {
+                latencies._errors += 1;
+                interpreter.skipCommand();
+            }
+            latencies.add(System.nanoTime() - t0);
+        }
+        Storer.finish(System.out, false);
+        long elapsed = System.nanoTime() - start;
+        System.setOut(report);
+        stats.remove("*EOF*");
+
+        report.printf("%-8s %8s %6s %10s %10s", "stmt", "count", "errors",
+                      "total ms", "stmts/s");
+        for (double p : PERCENTILES) {
+            report.printf(" %9s", String.format("p%.0f ms", p));
+        }
+        report.printf(" %9s%n", "max ms");
+        long total = 0;
+        for (Map.Entry<String, Latencies> entry : stats.entrySet()) {
+            Latencies lat = entry.getValue();
+            total += lat._count;
+            report.printf("%-8s %8d %6d %10.1f %10.1f", entry.getKey(),
+                          lat._count, lat._errors, lat._total / 1e6,
+                          lat._count / (lat._total / 1e9));
+            for (double p : PERCENTILES) {
+                report.printf(" %9.3f", lat.percentile(p) / 1e6);
+            }
+            report.printf(" %9.3f%n", lat.percentile(100) / 1e6);
+        }
+        report.printf("%d statements in %.1f ms (%.1f statements/s)%n",
+                      total, elapsed / 1e6, total / (elapsed / 1e9));
+    }
+
+    /** The latencies, in nanoseconds, of one kind of statement. */
+    private static class Latencies {
+        /** Record a statement that took NANOS nanoseconds. */
+        void add(long nanos) {
+            if (_count == _nanos.length) {
+                _nanos = Arrays.copyOf(_nanos, 2 * _count);
+            }
+            _nanos[_count] = nanos;
+            _count += 1;
+            _total += nanos;
+            _sorted = false;
+        }
+
+        /** Return the Pth percentile latency (0 < P <= 100), using the
+         *  nearest-rank method. */
+        long percentile(double p) {
+            if (_count == 0) {
+                return 0;
+            }
+            if (!_sorted) {
+                Arrays.sort(_nanos, 0, _count);
+                _sorted = true;
+            }
+            int rank = (int) Math.ceil(p / 100 * _count);
+            return _nanos[Math.max(0, rank - 1)];
+        }
+
+        /** Recorded latencies (the first _count entries). */
+        private long[] _nanos = new long[16];
+        /** Number of statements recorded. */
+        private int _count;
+        /** Number of those statements that failed. */
+        private int _errors;
+        /** Sum of the latencies. */
+        private long _total;
+        /** True iff the first _count entries of _nanos are sorted. */
+        private boolean _sorted;
+    }
+}
@@ -0,0 +1,249 @@
+package db61b;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+/** Writes synthetic students.db, enrolled.db, and schedule.db files, with
+ *  the same columns as the sample tables in testing, at a chosen scale.
+ *  Majors, departments, and surnames follow Zipfian distributions, and
+ *  course enrollment is skewed toward a few popular courses.  Every SID in
+ *  enrolled.db is in students.db and every CCN in enrolled.db is in
+ *  schedule.db.  Rows are written as they are generated, so memory use
+ *  does not grow with the scale.
+ *
+ *  Usage: java db61b.WorkloadGenerator STUDENTS [DIR [SEED]]
+ *  where STUDENTS (from 1000 up to 100000000; a k or m suffix multiplies
+ *  by 10^3 or 10^6) is the number of students.  Each student takes
+ *  ENROLLMENTS courses on average, and there is one course per
+ *  STUDENTS_PER_COURSE students.
+ *  @author Wenqu Wang */
+public class WorkloadGenerator {
+
+    /** Average number of enrolled rows per student. */
+    static final int ENROLLMENTS = 4;
+    /** Number of students per scheduled course (at least MIN_COURSES
+     *  courses are always generated). */
+    static final int STUDENTS_PER_COURSE = 20;
+    /** Minimum number of courses. */
+    static final int MIN_COURSES = 50;
+    /** First SID and first CCN. */
+    static final long FIRST_SID = 1000000, FIRST_CCN = 10000;
+
+    /** Generate the tables described by ARGS (see the class comment). */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1 || args.length > 3) {
+            System.err.println("Usage: java db61b.WorkloadGenerator "
+                               + "STUDENTS [DIR [SEED]]");
+            System.exit(1);
+        }
+        long students = parseScale(args[0]);
+        File dir = new File(args.length > 1 ? args[1] : ".");
+        long seed = args.length > 2 ? Long.parseLong(args[2]) : 61;
+        dir.mkdirs();
+        new WorkloadGenerator(students, seed).write(dir);
+    }
+
+    /** Return the number denoted by SCALE, such as "1000", "10k", or
+     *  "100m". */
+    static long parseScale(String scale) {
+        String s = scale.toLowerCase();
+        long factor = 1;
+        if (s.endsWith("k")) {
+            factor = 1000;
+        } else if (s.endsWith("m")) {
+            factor = 1000000;
+        }
+        if (factor != 1) {
+            s = s.substring(0, s.length() - 1);
+        }
+        return Long.parseLong(s) * factor;
+    }
+
+    /** A generator of STUDENTS students, using random seed SEED. */
+    WorkloadGenerator(long students, long seed) {
+        _students = students;
+        _courses = Math.max(MIN_COURSES, students / STUDENTS_PER_COURSE);
+        _random = new Random(seed);
+        _majors = new Zipf(MAJORS.length, 1.0);
+        _depts = new Zipf(DEPTS.length, 1.0);
+        _surnames = new Zipf(SURNAMES.length, 0.8);
+        _enrollment = new Zipf((int) Math.min(_courses, Integer.MAX_VALUE),
+                               1.1);
+    }
+
+    /** Write the three tables into DIR. */
+    void write(File dir) throws IOException {
+        writeSchedule(new File(dir, "schedule.db"));
+        writeStudents(new File(dir, "students.db"));
+        writeEnrolled(new File(dir, "enrolled.db"));
+    }
+
+    /** Write the schedule table to FILE. */
+    private void writeSchedule(File file) throws IOException {
+        try (BufferedWriter out = new BufferedWriter(new FileWriter(file))) {
+            out.write("CCN,Num,Dept,Time,Room,Sem,Year\n");
+            for (long c = 0; c < _courses; c += 1) {
+                out.write(Long.toString(FIRST_CCN + c));
+                out.write(',');
+                out.write(pick(NUMS));
+                out.write(',');
+                out.write(DEPTS[_depts.next(_random)]);
+                out.write(',');
+                out.write(pick(TIMES));
+                out.write(',');
+                out.write(pick(ROOMS));
+                out.write(',');
+                out.write(_random.nextBoolean() ? "F" : "S");
+                out.write(',');
+                out.write(Integer.toString(2000 + _random.nextInt(20)));
+                out.write('\n');
+            }
+        }
+    }
+
+    /** Write the students table to FILE. */
+    private void writeStudents(File file) throws IOException {
+        try (BufferedWriter out = new BufferedWriter(new FileWriter(file))) {
+            out.write("SID,Lastname,Firstname,SemEnter,YearEnter,Major\n");
+            for (long s = 0; s < _students; s += 1) {
+                out.write(Long.toString(FIRST_SID + s));
+                out.write(',');
+                out.write(SURNAMES[_surnames.next(_random)]);
+                out.write(',');
+                out.write(pick(FIRSTNAMES));
+                out.write(',');
+                out.write(_random.nextBoolean() ? "F" : "S");
+                out.write(',');
+                out.write(Integer.toString(2000 + _random.nextInt(20)));
+                out.write(',');
+                out.write(MAJORS[_majors.next(_random)]);
+                out.write('\n');
+            }
+        }
+    }
+
+    /** Write the enrolled table to FILE.  Each student takes between 1 and
+     *  2 * ENROLLMENTS - 1 distinct courses, drawn from the skewed course
+     *  distribution. */
+    private void writeEnrolled(File file) throws IOException {
+        long[] taken = new long[2 * ENROLLMENTS];
+        try (BufferedWriter out = new BufferedWriter(new FileWriter(file))) {
+            out.write("SID,CCN,Grade\n");
+            for (long s = 0; s < _students; s += 1) {
+                int n = 1 + _random.nextInt(2 * ENROLLMENTS - 1);
+                n = (int) Math.min(n, _courses);
+                for (int i = 0; i < n; i += 1) {
+                    long ccn;
+                    do {
+                        ccn = FIRST_CCN + _enrollment.next(_random);
+                    } while (contains(taken, i, ccn));
+                    taken[i] = ccn;
+                    out.write(Long.toString(FIRST_SID + s));
+                    out.write(',');
+                    out.write(Long.toString(ccn));
+                    out.write(',');
+                    out.write(pick(GRADES));
+                    out.write('\n');
+                }
+            }
+        }
+    }
+
+    /** Return true iff X is among the first N elements of A. */
+    private static boolean contains(long[] a, int n, long x) {
+        for (int i = 0; i < n; i += 1) {
+            if (a[i] == x) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Return a uniformly chosen element of CHOICES. */
+    private String pick(String[] choices) {
+        return choices[_random.nextInt(choices.length)];
+    }
+
+    /** A sampler of the integers 0 .. N-1 in which i has probability
+     *  proportional to 1 / (i + 1)^S. */
+    static class Zipf {
+        /** A sampler over N values with exponent S. */
+        Zipf(int n, double s) {
+            _cdf = new double[n];
+            double total = 0;
+            for (int i = 0; i < n; i += 1) {
+                total += 1.0 / Math.pow(i + 1, s);
+                _cdf[i] = total;
+            }
+            for (int i = 0; i < n; i += 1) {
+                _cdf[i] /= total;
+            }
+        }
+
+        /** Return a sample drawn using RANDOM. */
+        int next(Random random) {
+            int k = Arrays.binarySearch(_cdf, random.nextDouble());
+            k = k < 0 ? -k - 1 : k;
+            return Math.min(k, _cdf.length - 1);
+        }
+
+        /** Cumulative distribution function. */
+        private final double[] _cdf;
+    }
+
+    /** Majors, most popular first. */
+    static final String[] MAJORS = {
+        "EECS", "LSUnd", "Math", "Econ", "Bio", "CS", "Physics", "Chem",
+        "Psych", "History", "English", "PoliSci", "Stat", "ME", "CE",
+        "Arch", "Music", "Philo", "Anthro", "Geog",
+    };
+    /** Departments offering courses, most courses first. */
+    static final String[] DEPTS = {
+        "EECS", "Math", "English", "Physics", "Chem", "Econ", "Bio",
+        "Stat", "History", "Music",
+    };
+    /** Surnames, most common first. */
+    static final String[] SURNAMES = {
+        "Chan", "Wang", "Smith", "Nguyen", "Garcia", "Kim", "Lee", "Brown",
+        "Lopez", "Patel", "Knowles", "Armstrong", "Xavier", "Jones", "Li",
+        "Miller", "Davis", "Wilson", "Moore", "Taylor", "Anderson", "Thomas",
+        "Jackson", "White", "Harris", "Martin", "Thompson", "Young", "King",
+        "Wright",
+    };
+    /** First names. */
+    static final String[] FIRSTNAMES = {
+        "Jason", "Valerie", "Jonathan", "Thomas", "Shana", "Yangfan", "Maria",
+        "Wei", "Priya", "Omar", "Grace", "Lucas", "Aiko", "Sofia", "Ethan",
+    };
+    /** Course numbers. */
+    static final String[] NUMS = {
+        "1A", "1B", "54", "61A", "61B", "61C", "70", "100", "110", "170",
+    };
+    /** Class times. */
+    static final String[] TIMES = {
+        "9-10MWF", "10-11MWF", "11-12MWF", "1-2MWF", "2-3MWF",
+        "930-11TuTh", "230-5TuTh",
+    };
+    /** Rooms. */
+    static final String[] ROOMS = {
+        "1 Pimentel", "155 Dwinelle", "2050 VLSB", "2301 Tolman",
+        "130 Wheeler", "10 Evans",
+    };
+    /** Grades, with common grades repeated. */
+    static final String[] GRADES = {
+        "A", "A", "A-", "A-", "B+", "B+", "B", "B", "B-", "C+", "C", "P",
+    };
+
+    /** Number of students. */
+    private final long _students;
+    /** Number of courses. */
+    private final long _courses;
+    /** Source of randomness. */
+    private final Random _random;
+    /** Samplers for majors, departments, surnames, and enrolled courses. */
+    private final Zipf _majors, _depts, _surnames, _enrollment;
+}
@@ -0,0 +1,108 @@
+package db61b;
+
+import static db61b.Utils.*;
+
+/** Represents a single aggregate function call, such as count(*) or
+ *  max(Grade), in the column list of a 'select' clause.  Sum takes the
+ *  numeric values of its argument, and min and max compare numbers as
+ *  numbers, too, and other values as strings.  The approximate
+ *  aggregates approx_count and approx_count_distinct trade exactness for
+ *  speed: the first scales the count of a sampled table up to an estimate
+ *  for the whole table, with a 95% error bound, and the second estimates
+ *  the number of distinct values with a HyperLogLog sketch.
+ *  @author Wenqu Wang */
+class Aggregate {
+
+    /** Names of the supported aggregate functions. */
+    static final String
+        COUNT = "count", SUM = "sum", MIN = "min", MAX = "max",
+        APPROX_COUNT = "approx_count",
+        APPROX_COUNT_DISTINCT = "approx_count_distinct";
+
+    /** An aggregate applying FUNCTION to the column named ARGUMENT, or to
+     *  whole rows if ARGUMENT is null (as in count(*)). */
+    Aggregate(String function, String argument) {
+        switch (function) {
+        case COUNT: case APPROX_COUNT:
+            break;
+        case SUM: case MIN: case MAX: case APPROX_COUNT_DISTINCT:
+            if (argument == null) {
+                throw error("%s requires a column argument", function);
+            }
+            break;
+        default:
+            throw error("unknown aggregate function: %s", function);
+        }
+        _function = function;
+        _argument = argument;
+    }
+
+    /** Return true iff NAME designates an aggregate function. */
+    static boolean isFunction(String name) {
+        return name.equals(COUNT) || name.equals(SUM)
+            || name.equals(MIN) || name.equals(MAX)
+            || name.equals(APPROX_COUNT)
+            || name.equals(APPROX_COUNT_DISTINCT);
+    }
+
+    /** Compare VALUE0 with VALUE1 in the order of the values of
+     *  aggregates, in which a value that starts with a number (such as
+     *  "12" or "12 +/- 3") comes before any that does not and is compared
+     *  with other such values by that number, while other values and
+     *  values with equal numbers are compared as strings. */
+    static int compare(String value0, String value1) {
+        double x0 = leadingNumber(value0), x1 = leadingNumber(value1);
+        boolean numeric0 = !Double.isNaN(x0), numeric1 = !Double.isNaN(x1);
+        if (numeric0 != numeric1) {
+            return numeric0 ? -1 : 1;
+        }
+        int c = numeric0 ? Double.compare(x0, x1) : 0;
+        return c != 0 ? c : value0.compareTo(value1);
+    }
+
+    /** Return the decimal number with which VALUE starts, ending at the
+     *  first blank, or NaN if there is none. */
+    private static double leadingNumber(String value) {
+        int end = value.indexOf(' ');
+        end = end < 0 ? value.length() : end;
+        if (end == 0) {
+            return Double.NaN;
+        }
+        for (int i = 0; i < end; i += 1) {
+            if ("0123456789+-.eE".indexOf(value.charAt(i)) < 0) {
+                return Double.NaN;
+            }
+        }
+        try {
+            double x = Double.parseDouble(value.substring(0, end));
+            return Double.isInfinite(x) ? Double.NaN : x;
+        } catch (NumberFormatException excp) {
+            return Double.NaN;
+        }
+    }
+
+    /** Return the title of the column that holds my values in a result
+     *  table: the function name, followed by '_' and the argument column,
+     *  if there is one. */
+    String getName() {
+        if (_argument == null) {
+            return _function;
+        }
+        return _function + "_" + _argument;
+    }
+
+    /** Return my function name. */
+    String getFunction() {
+        return _function;
+    }
+
+    /** Return the name of my argument column, or null for count(*). */
+    String getArgument() {
+        return _argument;
+    }
+
+    /** The aggregate function. */
+    private final String _function;
+    /** The argument column name, or null. */
+    private final String _argument;
+}
@@ -0,0 +1,493 @@
+package db61b;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static db61b.Utils.*;
+
+/** A grouping operator that evaluates Aggregates over the rows of one or
+ *  two tables.  Groups live in an open-addressing (linear probing) hash
+ *  table keyed on the values of the grouping columns; each aggregate keeps
+ *  its running value in a primitive array indexed by group number, so
+ *  accumulating a row allocates nothing unless it starts a new group.
+ *
+ *  When the input is already ordered on the grouping columns, the hash
+ *  table is bypassed entirely (streaming mode): a row either extends the
+ *  most recent group or starts a new one.  Large single-table scans are
+ *  split into partitions that are aggregated in parallel into partial
+ *  Aggregations, which are then merged.
+ *  @author Wenqu Wang */
+class Aggregation {
+
+    /** Minimum number of rows for which a single-table scan is split into
+     *  partitions that are aggregated in parallel. */
+    static final int PARALLEL_THRESHOLD = 1 << 16;
+    /** Number of rows in each partition of a parallel scan. */
+    static final int PARTITION_SIZE = 1 << 14;
+
+    /** Return a table whose columns are TITLES, formed by grouping the rows
+     *  of TABLE that satisfy CONDITIONS on the columns named GROUPBY and
+     *  evaluating AGGREGATES over each group.  Each title must be either
+     *  in GROUPBY or the name of one of AGGREGATES. */
+    static Table aggregate(Table table, List<String> titles,
+                           List<String> groupBy, List<Aggregate> aggregates,
+                           List<Condition> conditions) {
+        long start = System.nanoTime();
+        Aggregation result =
+            new Aggregation(groupBy, aggregates, titles, table);
+        int n = table.size();
+        List<Condition> residual = new ArrayList<>();
+        Bitmap rows = table.filter(conditions, 0, residual);
+        Stats.count("rows.scanned", rows == null ? n : rows.cardinality());
+        if (rows != null && residual.isEmpty() && result.countsOnly()) {
+            result.accumulateCount(rows.cardinality());
+            Explain.note("aggregate: count taken from index");
+        } else if (!groupBy.isEmpty() && result.sortedOn(table)) {
+            result._streaming = true;
+            result.accumulate(table, rows, residual, 0, n);
+            Explain.note("aggregate: streaming over sorted rows");
+        } else if (n < PARALLEL_THRESHOLD) {
+            result.accumulate(table, rows, residual, 0, n);
+            Explain.note("aggregate: hash");
+        } else {
+            int parts = (n + PARTITION_SIZE - 1) / PARTITION_SIZE;
+            List<Aggregation> partials =
+                IntStream.range(0, parts).parallel()
+                .mapToObj(p -> {
+                    Aggregation part = new Aggregation(result);
+                    part.accumulate(table, rows, residual,
+                                    p * PARTITION_SIZE,
+                                    Math.min(n, (p + 1) * PARTITION_SIZE));
+                    return part;
+                })
+                .collect(Collectors.toList());
+            for (Aggregation part : partials) {
+                result.merge(part);
+            }
+            Stats.count("aggregate.partitions", parts);
+            Explain.note("aggregate: parallel hash over %d partitions",
+                         parts);
+        }
+        if (result._streaming) {
+            Stats.count("aggregate.streaming", 1);
+        }
+        Table groups = result.toTable();
+        Stats.count("rows.emitted", groups.size());
+        Stats.time("op.aggregate", start);
+        Explain.note("aggregate: %d groups", groups.size());
+        return groups;
+    }
+
+    /** As for aggregate(TABLE, TITLES, GROUPBY, AGGREGATES, CONDITIONS),
+     *  but grouping the pairs of rows from TABLE1 and TABLE2 that match on
+     *  all columns with identical names and satisfy CONDITIONS. */
+    static Table aggregate(Table table1, Table table2, List<String> titles,
+                           List<String> groupBy, List<Aggregate> aggregates,
+                           List<Condition> conditions) {
+        long start = System.nanoTime();
+        Aggregation result =
+            new Aggregation(groupBy, aggregates, titles, table1, table2);
+        table1.scan(table2, conditions, rows -> {
+            result.accumulate(rows);
+            return true;
+        });
+        Explain.note("aggregate: hash");
+        Table groups = result.toTable();
+        Stats.count("rows.emitted", groups.size());
+        Stats.time("op.aggregate", start);
+        Explain.note("aggregate: %d groups", groups.size());
+        return groups;
+    }
+
+    /** An empty Aggregation in hash mode over TABLES, grouping on the
+     *  columns named GROUPBY and computing AGGREGATES, whose result table
+     *  will have the columns TITLES. */
+    private Aggregation(List<String> groupBy, List<Aggregate> aggregates,
+                        List<String> titles, Table... tables) {
+        _titles = titles;
+        _keys = new Column[groupBy.size()];
+        for (int i = 0; i < _keys.length; i += 1) {
+            _keys[i] = new Column(groupBy.get(i), tables);
+        }
+        _functions = new String[aggregates.size()];
+        _args = new Column[_functions.length];
+        for (int a = 0; a < _functions.length; a += 1) {
+            Aggregate agg = aggregates.get(a);
+            _functions[a] = agg.getFunction();
+            if (agg.getArgument() != null) {
+                _args[a] = new Column(agg.getArgument(), tables);
+            }
+        }
+        double fraction = 1.0;
+        for (Table table : tables) {
+            fraction *= table.sampleFraction();
+        }
+        _fraction = fraction;
+        _layout = new int[titles.size()];
+        for (int i = 0; i < _layout.length; i += 1) {
+            String title = titles.get(i);
+            int k = groupBy.indexOf(title);
+            if (k >= 0) {
+                _layout[i] = k;
+                continue;
+            }
+            _layout[i] = -1;
+            for (int a = 0; a < _functions.length; a += 1) {
+                if (aggregates.get(a).getName().equals(title)) {
+                    _layout[i] = -a - 2;
+                }
+            }
+            if (_layout[i] == -1) {
+                throw error("column %s must appear in group by", title);
+            }
+        }
+        allocate(INITIAL_GROUPS);
+    }
+
+    /** An empty Aggregation in hash mode with the same grouping columns,
+     *  aggregates, and result layout as MODEL. */
+    private Aggregation(Aggregation model) {
+        _titles = model._titles;
+        _keys = model._keys;
+        _functions = model._functions;
+        _args = model._args;
+        _layout = model._layout;
+        _fraction = model._fraction;
+        allocate(INITIAL_GROUPS);
+    }
+
+    /** Set up empty group storage with room for CAPACITY groups. */
+    private void allocate(int capacity) {
+        _groupKeys = new String[capacity][];
+        _hashes = new int[capacity];
+        _counts = new long[capacity];
+        _sums = new double[_functions.length][capacity];
+        _extremes = new String[_functions.length][capacity];
+        _sketches = new HyperLogLog[_functions.length][capacity];
+        _slots = new int[2 * capacity];
+        _numGroups = 0;
+    }
+
+    /** Return true iff the rows of TABLE are ordered on my grouping
+     *  columns. */
+    private boolean sortedOn(Table table) {
+        for (int row = 1; row < table.size(); row += 1) {
+            for (Column key : _keys) {
+                int c = key.get(row - 1).compareTo(key.get(row));
+                if (c > 0) {
+                    return false;
+                } else if (c < 0) {
+                    break;
+                }
+            }
+        }
+        return true;
+    }
+
+    /** Accumulate the rows R of TABLE with LO <= R < HI that are in ROWS
+     *  (or any such rows, if ROWS is null) and satisfy CONDITIONS. */
+    private void accumulate(Table table, Bitmap rows,
+                            List<Condition> conditions, int lo, int hi) {
+        for (int row = table.nextRow(rows, lo); row >= 0 && row < hi;
+             row = table.nextRow(rows, row + 1)) {
+            if (Condition.test(conditions, _cursor.at(row))) {
+                accumulate(_cursor);
+            }
+        }
+    }
+
+    /** Return true iff there is no grouping and every aggregate is a
+     *  count(*) or approx_count(*), so that the result depends only on the
+     *  number of qualifying rows. */
+    private boolean countsOnly() {
+        if (_keys.length != 0) {
+            return false;
+        }
+        for (int a = 0; a < _functions.length; a += 1) {
+            if (!(_functions[a].equals(Aggregate.COUNT)
+                  || _functions[a].equals(Aggregate.APPROX_COUNT))
+                || _args[a] != null) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Accumulate N rows into the single group of an Aggregation for
+     *  which countsOnly() is true. */
+    private void accumulateCount(int n) {
+        if (n > 0) {
+            accumulate(_cursor.at(0));
+            _counts[0] += n - 1;
+        }
+    }
+
+    /** Add the row formed from the rows at which ROWS stands (one per
+     *  table) to the appropriate group. */
+    private void accumulate(Cursor rows) {
+        int g;
+        if (_streaming) {
+            g = _numGroups - 1;
+            if (g < 0 || !keyEquals(g, null, rows)) {
+                g = newGroup(keyOf(rows), 0);
+            }
+        } else {
+            int hash = 0;
+            for (Column key : _keys) {
+                hash = 31 * hash + key.get(rows).hashCode();
+            }
+            g = find(hash, null, rows);
+        }
+        _counts[g] += 1;
+        for (int a = 0; a < _functions.length; a += 1) {
+            switch (_functions[a]) {
+            case Aggregate.SUM:
+                _sums[a][g] += number(_args[a].get(rows));
+                break;
+            case Aggregate.MIN: case Aggregate.MAX:
+                combine(a, g, _args[a].get(rows));
+                break;
+            case Aggregate.APPROX_COUNT_DISTINCT:
+                if (_sketches[a][g] == null) {
+                    _sketches[a][g] = new HyperLogLog();
+                }
+                _sketches[a][g].add(_args[a].get(rows));
+                break;
+            default:
+                break;
+            }
+        }
+    }
+
+    /** Fold the groups of the partial aggregation OTHER into mine. */
+    private void merge(Aggregation other) {
+        for (int h = 0; h < other._numGroups; h += 1) {
+            int g = find(other._hashes[h], other._groupKeys[h], null);
+            _counts[g] += other._counts[h];
+            for (int a = 0; a < _functions.length; a += 1) {
+                _sums[a][g] += other._sums[a][h];
+                if (other._extremes[a][h] != null) {
+                    combine(a, g, other._extremes[a][h]);
+                }
+                if (other._sketches[a][h] != null) {
+                    if (_sketches[a][g] == null) {
+                        _sketches[a][g] = new HyperLogLog();
+                    }
+                    _sketches[a][g].merge(other._sketches[a][h]);
+                }
+            }
+        }
+    }
+
+    /** Update the min or max accumulator of aggregate A in group G with
+     *  VALUE, in the order of Aggregate.compare, so that numbers compare
+     *  as numbers, as they do in sum. */
+    private void combine(int a, int g, String value) {
+        String best = _extremes[a][g];
+        if (best == null) {
+            _extremes[a][g] = value;
+        } else {
+            int c = Aggregate.compare(value, best);
+            if (_functions[a].equals(Aggregate.MIN) ? c < 0 : c > 0) {
+                _extremes[a][g] = value;
+            }
+        }
+    }
+
+    /** Return the number of the group whose grouping values hash to HASH
+     *  and are given either by KEY or, if KEY is null, by my grouping
+     *  columns applied to the rows at which ROWS stands, creating the
+     *  group if necessary. */
+    private int find(int hash, String[] key, Cursor rows) {
+        int mask = _slots.length - 1;
+        int s = spread(hash) & mask;
+        while (_slots[s] != 0) {
+            int g = _slots[s] - 1;
+            if (_hashes[g] == hash && keyEquals(g, key, rows)) {
+                return g;
+            }
+            s = (s + 1) & mask;
+        }
+        int g = newGroup(key == null ? keyOf(rows) : key, hash);
+        if (_slots.length != 2 * _groupKeys.length) {
+            rehash();
+        } else {
+            _slots[s] = g + 1;
+        }
+        return g;
+    }
+
+    /** Return true iff group G has grouping values KEY or, if KEY is null,
+     *  the values of my grouping columns in the rows at which ROWS
+     *  stands. */
+    private boolean keyEquals(int g, String[] key, Cursor rows) {
+        String[] groupKey = _groupKeys[g];
+        for (int i = 0; i < groupKey.length; i += 1) {
+            String v = key == null ? _keys[i].get(rows) : key[i];
+            if (!groupKey[i].equals(v)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Return the values of my grouping columns in the rows at which
+     *  ROWS stands. */
+    private String[] keyOf(Cursor rows) {
+        String[] key = new String[_keys.length];
+        for (int i = 0; i < key.length; i += 1) {
+            key[i] = _keys[i].get(rows);
+        }
+        return key;
+    }
+
+    /** Append a new, empty group with grouping values KEY, whose hash is
+     *  HASH, growing my arrays as needed.  Return its number. */
+    private int newGroup(String[] key, int hash) {
+        if (_numGroups == _groupKeys.length) {
+            int capacity = 2 * _groupKeys.length;
+            _groupKeys = Arrays.copyOf(_groupKeys, capacity);
+            _hashes = Arrays.copyOf(_hashes, capacity);
+            _counts = Arrays.copyOf(_counts, capacity);
+            for (int a = 0; a < _functions.length; a += 1) {
+                _sums[a] = Arrays.copyOf(_sums[a], capacity);
+                _extremes[a] = Arrays.copyOf(_extremes[a], capacity);
+                _sketches[a] = Arrays.copyOf(_sketches[a], capacity);
+            }
+        }
+        _groupKeys[_numGroups] = key;
+        _hashes[_numGroups] = hash;
+        _numGroups += 1;
+        return _numGroups - 1;
+    }
+
+    /** Rebuild _slots to match the current group capacity. */
+    private void rehash() {
+        _slots = new int[2 * _groupKeys.length];
+        int mask = _slots.length - 1;
+        for (int g = 0; g < _numGroups; g += 1) {
+            int s = spread(_hashes[g]) & mask;
+            while (_slots[s] != 0) {
+                s = (s + 1) & mask;
+            }
+            _slots[s] = g + 1;
+        }
+    }
+
+    /** Return the table of my results, one row per group. */
+    private Table toTable() {
+        if (_numGroups == 0 && _keys.length == 0) {
+            newGroup(new String[0], 0);
+        }
+        Table result = new Table(_titles);
+        String[] row = new String[_layout.length];
+        for (int g = 0; g < _numGroups; g += 1) {
+            for (int i = 0; i < _layout.length; i += 1) {
+                int k = _layout[i];
+                row[i] = k >= 0 ? _groupKeys[g][k] : value(-k - 2, g);
+            }
+            result.add(row);
+        }
+        return result;
+    }
+
+    /** Return the value of aggregate A for group G. */
+    private String value(int a, int g) {
+        switch (_functions[a]) {
+        case Aggregate.COUNT:
+            return Long.toString(_counts[g]);
+        case Aggregate.SUM:
+            return format(_sums[a][g]);
+        case Aggregate.APPROX_COUNT:
+            return estimate(_counts[g]);
+        case Aggregate.APPROX_COUNT_DISTINCT:
+            return _sketches[a][g] == null ? "0"
+                : Long.toString(_sketches[a][g].estimate());
+        default:
+            return _extremes[a][g] == null ? "" : _extremes[a][g];
+        }
+    }
+
+    /** Return the estimated number of qualifying rows in the full tables
+     *  given that COUNT of them were found in my sample of a fraction
+     *  _fraction of them, as "ESTIMATE +/- BOUND".  Treating rows as
+     *  sampled independently, the count is binomial, and BOUND is 1.96
+     *  standard deviations of the estimate, for 95% confidence; rows
+     *  sampled in blocks are not independent, so the bound is somewhat
+     *  narrow when qualifying rows cluster in blocks. */
+    private String estimate(long count) {
+        if (_fraction == 0) {
+            return "0 +/- 0";
+        }
+        double bound =
+            1.96 * Math.sqrt(count * (1 - _fraction)) / _fraction;
+        return String.format("%d +/- %d", Math.round(count / _fraction),
+                             Math.round(bound));
+    }
+
+    /** Return the numeric value of VALUE, which must be a number. */
+    private static double number(String value) {
+        try {
+            return Double.parseDouble(value);
+        } catch (NumberFormatException excp) {
+            throw error("non-numeric value in sum: %s", value);
+        }
+    }
+
+    /** Return X formatted without a fractional part if it is integral. */
+    private static String format(double x) {
+        if (x == Math.rint(x) && Math.abs(x) < 1e15) {
+            return Long.toString((long) x);
+        }
+        return Double.toString(x);
+    }
+
+    /** Return HASH with its high bits mixed into its low bits. */
+    private static int spread(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+
+    /** Initial group capacity (a power of 2). */
+    private static final int INITIAL_GROUPS = 16;
+
+    /** Titles of the result columns. */
+    private final List<String> _titles;
+    /** Grouping columns. */
+    private final Column[] _keys;
+    /** Function of each aggregate. */
+    private final String[] _functions;
+    /** Argument column of each aggregate (null for count(*)). */
+    private final Column[] _args;
+    /** For each result column, the index of its grouping column if
+     *  >= 0, otherwise -A-2 for aggregate number A. */
+    private final int[] _layout;
+    /** The fraction of the rows of the full tables that my tables hold:
+     *  the product of their sample fractions. */
+    private final double _fraction;
+    /** True iff rows arrive ordered on the grouping columns. */
+    private boolean _streaming;
+    /** Stands at the row being accumulated when I scan a table myself. */
+    private final Cursor _cursor = new Cursor(1);
+
+    /** Open-addressing table of group numbers plus one (0 if empty). */
+    private int[] _slots;
+    /** Grouping values of each group. */
+    private String[][] _groupKeys;
+    /** Hash of the grouping values of each group. */
+    private int[] _hashes;
+    /** Number of rows in each group. */
+    private long[] _counts;
+    /** Running sum of each aggregate in each group. */
+    private double[][] _sums;
+    /** Running min or max of each aggregate in each group. */
+    private String[][] _extremes;
+    /** The sketch of the distinct values of the argument of
+     *  approx_count_distinct aggregate a in group g is _sketches[a][g]
+     *  (null if the group has no rows yet). */
+    private HyperLogLog[][] _sketches;
+    /** Number of groups. */
+    private int _numGroups;
+}
@@ -0,0 +1,366 @@
+package db61b;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Scanner;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/** Runs scripts of statements without prompting, executing statements
+ *  that do not depend on one another at the same time.  Each statement
+ *  is read as a whole and analyzed for the names it reads and writes:
+ *  tables and, for load, store, and copy, files.  It then waits for the
+ *  earlier statements that write what it reads, or read or write what
+ *  it writes, and no others.  A statement's reads are taken to be all of
+ *  its identifiers, which may include column names that are never
+ *  tables, so that the analysis errs only on the side of waiting.
+ *  Writing a table also writes the materialized views defined on it.
+ *  Statements whose effects are not so easily bounded (open, checkpoint,
+ *  stats, and anything unrecognized) run alone, after everything before
+ *  them and before everything after.  Each statement's output is
+ *  collected separately and printed in script order, so the output is
+ *  the same as if the statements ran one at a time.
+ *  @author Wenqu Wang */
+class Batch {
+
+    /** Number of statements run at once. */
+    static final int THREADS =
+        Integer.getInteger("db61b.batchThreads",
+                           Runtime.getRuntime().availableProcessors());
+
+    /** Run the statements of SCRIPTS, one after the other, against an
+     *  empty database, printing their results on OUT, until a quit or
+     *  exit statement or the end of the last script. */
+    static void run(List<Scanner> scripts, PrintStream out) {
+        new Batch(out).runScripts(scripts);
+    }
+
+    /** A Batch printing on OUT. */
+    private Batch(PrintStream out) {
+        _out = out;
+    }
+
+    /** Run SCRIPTS. */
+    private void runScripts(List<Scanner> scripts) {
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS, r -> {
+            Thread thread = new Thread(r, "db61b-batch");
+            thread.setDaemon(true);
+            return thread;
+        });
+        ArrayDeque<Step> pending = new ArrayDeque<>();
+        try {
+            boolean quit = false;
+            for (Scanner script : scripts) {
+                Tokenizer input = new Tokenizer(script, null);
+                while (!quit) {
+                    Step step = read(input);
+                    if (step._tokens.isEmpty() && step._error == null) {
+                        break;
+                    }
+                    schedule(step, pool);
+                    pending.add(step);
+                    quit = step._quit;
+                    while (!pending.isEmpty()
+                           && pending.peek()._future.isDone()) {
+                        print(pending.poll());
+                    }
+                }
+            }
+            while (!pending.isEmpty()) {
+                print(pending.poll());
+            }
+            Compactor.finish();
+            Storer.finish(_out, false);
+        } finally {
+            pool.shutdown();
+            _out.flush();
+        }
+    }
+
+    /** Read the next statement from INPUT, through its semicolon, and
+     *  return it as a Step, which is empty at the end of INPUT. */
+    private Step read(Tokenizer input) {
+        List<String> tokens = new ArrayList<>();
+        String error = null;
+        while (true) {
+            try {
+                String token = input.next();
+                if (token.equals("*EOF*")) {
+                    break;
+                }
+                tokens.add(token);
+                if (token.equals(";")) {
+                    break;
+                }
+            } catch (DBException excp) {
+                if (error == null) {
+                    error = excp.getMessage();
+                }
+            }
+        }
+        Step step = new Step(tokens, error);
+        analyze(step);
+        return step;
+    }
+
+    /** Fill in the reads and writes of STEP, or mark it as one to run
+     *  alone. */
+    private void analyze(Step step) {
+        List<String> tokens = step._tokens;
+        for (String token : tokens) {
+            if (Tokenizer.IDENTIFIER.matcher(token).matches()) {
+                step._reads.add(token);
+            }
+        }
+        String kind = token(tokens, 0);
+        switch (kind == null ? "" : kind) {
+        case "load":
+            write(step, token(tokens, 1));
+            read(step, file(token(tokens, 1), ".db"));
+            break;
+        case "store":
+            write(step, file(token(tokens, 1), ".db"));
+            break;
+        case "copy":
+            write(step, token(tokens, 1));
+            read(step, file(token(tokens, 3), ""));
+            break;
+        case "insert": case "delete":
+            write(step, token(tokens, 2));
+            break;
+        case "update":
+            write(step, token(tokens, 1));
+            break;
+        case "alter":
+            write(step, token(tokens, 2));
+            break;
+        case "create":
+            switch (String.valueOf(token(tokens, 1))) {
+            case "table":
+                write(step, token(tokens, 2));
+                break;
+            case "index":
+                write(step, token(tokens, 3));
+                break;
+            case "materialized":
+                String view = token(tokens, 3);
+                write(step, view);
+                int from = tokens.indexOf("from");
+                for (int i = from + 1; from > 0 && i < tokens.size();
+                     i += 1) {
+                    _views.computeIfAbsent(tokens.get(i),
+                                           k -> new HashSet<>()).add(view);
+                }
+                break;
+            default:
+                step._alone = true;
+                break;
+            }
+            break;
+        case "select": case "explain": case "print":
+            break;
+        case "quit": case "exit":
+            step._quit = true;
+            step._alone = true;
+            break;
+        default:
+            step._alone = true;
+            break;
+        }
+        List<String> written = new ArrayList<>(step._writes);
+        for (int i = 0; i < written.size(); i += 1) {
+            for (String view : _views.getOrDefault(written.get(i),
+                                                   Set.of())) {
+                if (step._writes.add(view)) {
+                    written.add(view);
+                }
+            }
+        }
+        step._reads.addAll(step._writes);
+    }
+
+    /** Record that STEP writes NAME, or that it must run alone if NAME is
+     *  null because the statement is too short to name anything. */
+    private static void write(Step step, String name) {
+        if (name == null) {
+            step._alone = true;
+        } else {
+            step._writes.add(name);
+        }
+    }
+
+    /** Record that STEP reads NAME, or that it must run alone if NAME is
+     *  null. */
+    private static void read(Step step, String name) {
+        if (name == null) {
+            step._alone = true;
+        } else {
+            step._reads.add(name);
+        }
+    }
+
+    /** Return the name by which the analysis knows the file named by
+     *  TOKEN (a name or a literal) followed by SUFFIX, or null if TOKEN
+     *  is null.  A file name always contains a character that a table
+     *  name cannot, so the two cannot be confused. */
+    private static String file(String token, String suffix) {
+        if (token == null) {
+            return null;
+        }
+        return "file:" + token.replace("'", "") + suffix;
+    }
+
+    /** Return TOKENS[K], or null if there are not that many tokens. */
+    private static String token(List<String> tokens, int k) {
+        return k < tokens.size() ? tokens.get(k) : null;
+    }
+
+    /** Start STEP on POOL once the earlier steps it depends on are
+     *  done. */
+    private void schedule(Step step, ExecutorService pool) {
+        List<CompletableFuture<?>> before = new ArrayList<>();
+        if (_barrier != null) {
+            before.add(_barrier);
+        }
+        if (step._alone) {
+            before.addAll(_sinceBarrier);
+        } else {
+            for (String name : step._reads) {
+                if (_writer.containsKey(name)) {
+                    before.add(_writer.get(name));
+                }
+            }
+            for (String name : step._writes) {
+                before.addAll(_readers.getOrDefault(name, List.of()));
+            }
+        }
+        step._future =
+            CompletableFuture.allOf(
+                before.toArray(new CompletableFuture<?>[0]))
+            .handleAsync((ignored, excp) -> {
+                    step.run();
+                    return null;
+                }, pool);
+        Stats.count("batch.statements", 1);
+        Stats.count("batch.dependencies", before.size());
+        if (step._alone) {
+            _barrier = step._future;
+            _sinceBarrier.clear();
+            _writer.clear();
+            _readers.clear();
+            return;
+        }
+        _sinceBarrier.add(step._future);
+        for (String name : step._writes) {
+            _writer.put(name, step._future);
+            _readers.remove(name);
+        }
+        for (String name : step._reads) {
+            if (!step._writes.contains(name)) {
+                _readers.computeIfAbsent(name, k -> new ArrayList<>())
+                    .add(step._future);
+            }
+        }
+    }
+
+    /** Wait for STEP to finish and print its output. */
+    private void print(Step step) {
+        try {
+            step._future.join();
+        } catch (CompletionException excp) {
+            if (excp.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) excp.getCause();
+            }
+            if (excp.getCause() instanceof Error) {
+                throw (Error) excp.getCause();
+            }
+            throw excp;
+        }
+        _out.print(step._output.toString());
+    }
+
+    /** One statement of a script. */
+    private class Step {
+
+        /** The statement whose tokens are TOKENS, which includes the
+         *  lexical error ERROR, if not null. */
+        Step(List<String> tokens, String error) {
+            _tokens = tokens;
+            _error = error;
+        }
+
+        /** Execute me, collecting my output. */
+        void run() {
+            PrintStream out = new PrintStream(_output);
+            if (_error != null) {
+                out.printf("Error: %s%n", _error);
+            } else {
+                if (_alone) {
+                    Compactor.install();
+                } else {
+                    List<Table> tables = new ArrayList<>();
+                    for (String name : _writes) {
+                        if (_database.get(name) != null) {
+                            tables.add(_database.get(name));
+                        }
+                    }
+                    Compactor.install(tables);
+                }
+                CommandInterpreter interpreter =
+                    new CommandInterpreter(new Scanner(String.join(" ",
+                                                                   _tokens)),
+                                           null, _database, out, false);
+                try {
+                    interpreter.statement();
+                } catch (DBException excp) {
+                    out.printf("Error: %s%n", excp.getMessage());
+                }
+            }
+            out.flush();
+        }
+
+        /** My tokens. */
+        private final List<String> _tokens;
+        /** The lexical error in my tokens, or null. */
+        private final String _error;
+        /** The names I read and write. */
+        private final Set<String> _reads = new HashSet<>(),
+            _writes = new HashSet<>();
+        /** True iff I must run with no other statement. */
+        private boolean _alone;
+        /** True iff I end the script. */
+        private boolean _quit;
+        /** My output. */
+        private final ByteArrayOutputStream _output =
+            new ByteArrayOutputStream();
+        /** Completes when I have run. */
+        private CompletableFuture<?> _future;
+    }
+
+    /** Where output goes. */
+    private final PrintStream _out;
+    /** The database. */
+    private final Database _database = new Database();
+    /** The materialized views defined on each table. */
+    private final Map<String, Set<String>> _views = new HashMap<>();
+    /** The last statement to run alone, or null. */
+    private CompletableFuture<?> _barrier;
+    /** The statements scheduled since _barrier. */
+    private final List<CompletableFuture<?>> _sinceBarrier =
+        new ArrayList<>();
+    /** The last statement since _barrier to write each name. */
+    private final Map<String, CompletableFuture<?>> _writer =
+        new HashMap<>();
+    /** The statements since the last write of each name that read it. */
+    private final Map<String, List<CompletableFuture<?>>> _readers =
+        new HashMap<>();
+}
@@ -0,0 +1,530 @@
+package db61b;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/** A compressed set of non-negative ints (row numbers), organized in the
+ *  manner of a Roaring bitmap: the set is split into chunks of 2^16
+ *  consecutive values, keyed by their high 16 bits, and each non-empty
+ *  chunk is stored in whichever container is smaller: a sorted array of
+ *  low 16-bit values when it has at most ARRAY_MAX members, or a plain
+ *  2^16-bit bitset otherwise.  Intersection, union, and difference work
+ *  chunk by chunk without expanding the sets.
+ *  @author Wenqu Wang */
+class Bitmap {
+
+    /** Largest number of members of a chunk stored as an array. */
+    static final int ARRAY_MAX = 4096;
+
+    /** An empty Bitmap. */
+    Bitmap() {
+        this(4);
+    }
+
+    /** An empty Bitmap with room for CAPACITY chunks. */
+    private Bitmap(int capacity) {
+        _keys = new char[Math.max(1, capacity)];
+        _chunks = new Container[_keys.length];
+    }
+
+    /** Return a Bitmap containing 0 .. N-1. */
+    static Bitmap range(int n) {
+        Bitmap result = new Bitmap((n >>> 16) + 1);
+        for (int key = 0; (long) key << 16 < n; key += 1) {
+            int count = Math.min(1 << 16, n - (key << 16));
+            BitsetContainer chunk = new BitsetContainer();
+            for (int w = 0; w < count >>> 6; w += 1) {
+                chunk._words[w] = -1L;
+            }
+            if ((count & 63) != 0) {
+                chunk._words[count >>> 6] = (1L << (count & 63)) - 1;
+            }
+            chunk._cardinality = count;
+            result.append((char) key, chunk.normalize());
+        }
+        return result;
+    }
+
+    /** Add ROW to me.  Adding rows in increasing order is fastest. */
+    void add(int row) {
+        char key = (char) (row >>> 16);
+        int i;
+        if (_size > 0 && _keys[_size - 1] == key) {
+            i = _size - 1;
+        } else {
+            i = find(key);
+            if (i < 0) {
+                i = -i - 1;
+                insert(i, key, new ArrayContainer());
+            }
+        }
+        _chunks[i] = _chunks[i].add((char) row);
+    }
+
+    /** Return true iff ROW is in me. */
+    boolean contains(int row) {
+        int i = find((char) (row >>> 16));
+        return i >= 0 && _chunks[i].contains((char) row);
+    }
+
+    /** Return the number of members of me. */
+    int cardinality() {
+        int n = 0;
+        for (int i = 0; i < _size; i += 1) {
+            n += _chunks[i].cardinality();
+        }
+        return n;
+    }
+
+    /** Return my smallest member that is >= FROM, or -1 if there is
+     *  none. */
+    int next(int from) {
+        if (from < 0) {
+            from = 0;
+        }
+        int i = find((char) (from >>> 16));
+        if (i >= 0) {
+            int low = _chunks[i].next(from & 0xffff);
+            if (low >= 0) {
+                return (_keys[i] << 16) | low;
+            }
+            i += 1;
+        } else {
+            i = -i - 1;
+        }
+        if (i < _size) {
+            return (_keys[i] << 16) | _chunks[i].next(0);
+        }
+        return -1;
+    }
+
+    /** Return the intersection of A and B. */
+    static Bitmap and(Bitmap a, Bitmap b) {
+        Bitmap result = new Bitmap(Math.min(a._size, b._size));
+        int i = 0, j = 0;
+        while (i < a._size && j < b._size) {
+            if (a._keys[i] < b._keys[j]) {
+                i += 1;
+            } else if (a._keys[i] > b._keys[j]) {
+                j += 1;
+            } else {
+                Container c = a._chunks[i].and(b._chunks[j]);
+                if (c.cardinality() > 0) {
+                    result.append(a._keys[i], c);
+                }
+                i += 1;
+                j += 1;
+            }
+        }
+        return result;
+    }
+
+    /** Return the union of A and B. */
+    static Bitmap or(Bitmap a, Bitmap b) {
+        Bitmap result = new Bitmap(a._size + b._size);
+        int i = 0, j = 0;
+        while (i < a._size || j < b._size) {
+            if (j == b._size || (i < a._size && a._keys[i] < b._keys[j])) {
+                result.append(a._keys[i], a._chunks[i]);
+                i += 1;
+            } else if (i == a._size || a._keys[i] > b._keys[j]) {
+                result.append(b._keys[j], b._chunks[j]);
+                j += 1;
+            } else {
+                result.append(a._keys[i], a._chunks[i].or(b._chunks[j]));
+                i += 1;
+                j += 1;
+            }
+        }
+        return result;
+    }
+
+    /** Return the members of A that are not in B. */
+    static Bitmap andNot(Bitmap a, Bitmap b) {
+        Bitmap result = new Bitmap(a._size);
+        int j = 0;
+        for (int i = 0; i < a._size; i += 1) {
+            while (j < b._size && b._keys[j] < a._keys[i]) {
+                j += 1;
+            }
+            Container c = a._chunks[i];
+            if (j < b._size && b._keys[j] == a._keys[i]) {
+                c = c.andNot(b._chunks[j]);
+            }
+            if (c.cardinality() > 0) {
+                result.append(a._keys[i], c);
+            }
+        }
+        return result;
+    }
+
+    /** Write me to OUT in a form that read can restore. */
+    void write(DataOutputStream out) throws IOException {
+        out.writeInt(_size);
+        for (int i = 0; i < _size; i += 1) {
+            out.writeChar(_keys[i]);
+            if (_chunks[i] instanceof ArrayContainer) {
+                ArrayContainer chunk = (ArrayContainer) _chunks[i];
+                out.writeBoolean(false);
+                out.writeInt(chunk._size);
+                for (int k = 0; k < chunk._size; k += 1) {
+                    out.writeChar(chunk._values[k]);
+                }
+            } else {
+                BitsetContainer chunk = (BitsetContainer) _chunks[i];
+                out.writeBoolean(true);
+                out.writeInt(chunk._cardinality);
+                for (long word : chunk._words) {
+                    out.writeLong(word);
+                }
+            }
+        }
+    }
+
+    /** Return the Bitmap written by write at the position of IN, leaving
+     *  IN positioned just after it. */
+    static Bitmap read(ByteBuffer in) {
+        int n = in.getInt();
+        Bitmap result = new Bitmap(n);
+        for (int i = 0; i < n; i += 1) {
+            char key = in.getChar();
+            boolean bitset = in.get() != 0;
+            int size = in.getInt();
+            Container chunk;
+            if (!bitset) {
+                ArrayContainer array = new ArrayContainer(size);
+                in.asCharBuffer().get(array._values, 0, size);
+                in.position(in.position() + 2 * size);
+                array._size = size;
+                chunk = array;
+            } else {
+                BitsetContainer bits = new BitsetContainer();
+                in.asLongBuffer().get(bits._words);
+                in.position(in.position() + 8 * BitsetContainer.WORDS);
+                bits._cardinality = size;
+                chunk = bits;
+            }
+            result.insert(i, key, chunk);
+        }
+        return result;
+    }
+
+    /** Return the index of the chunk with high bits KEY, or -(k+1) if
+     *  there is none and it would be inserted at k. */
+    private int find(char key) {
+        return Arrays.binarySearch(_keys, 0, _size, key);
+    }
+
+    /** Insert CHUNK with high bits KEY at index I. */
+    private void insert(int i, char key, Container chunk) {
+        if (_size == _keys.length) {
+            _keys = Arrays.copyOf(_keys, 2 * _size);
+            _chunks = Arrays.copyOf(_chunks, 2 * _size);
+        }
+        System.arraycopy(_keys, i, _keys, i + 1, _size - i);
+        System.arraycopy(_chunks, i, _chunks, i + 1, _size - i);
+        _keys[i] = key;
+        _chunks[i] = chunk;
+        _size += 1;
+    }
+
+    /** Append CHUNK with high bits KEY, which exceeds all my keys.  CHUNK
+     *  may be shared with other Bitmaps, since Containers are copied
+     *  before being modified by add. */
+    private void append(char key, Container chunk) {
+        insert(_size, key, chunk);
+        chunk._shared = true;
+    }
+
+    /** The members of one chunk of a Bitmap: a set of values in
+     *  0 .. 2^16-1. */
+    private abstract static class Container {
+        /** Return a container holding my members and V, which is either
+         *  me, modified, or a new container. */
+        abstract Container add(char v);
+
+        /** Return true iff V is a member. */
+        abstract boolean contains(char v);
+
+        /** Return my number of members. */
+        abstract int cardinality();
+
+        /** Return my smallest member that is >= FROM, or -1. */
+        abstract int next(int from);
+
+        /** Return my intersection with OTHER. */
+        abstract Container and(Container other);
+
+        /** Return my union with OTHER. */
+        abstract Container or(Container other);
+
+        /** Return my members that are not in OTHER. */
+        abstract Container andNot(Container other);
+
+        /** Return an equivalent BitsetContainer. */
+        abstract BitsetContainer toBitset();
+
+        /** True iff I may be referenced by more than one Bitmap, and so
+         *  must be copied before modification. */
+        protected boolean _shared;
+    }
+
+    /** A container holding its members in a sorted array. */
+    private static class ArrayContainer extends Container {
+        /** An empty container with room for CAPACITY values. */
+        ArrayContainer(int capacity) {
+            _values = new char[Math.max(4, capacity)];
+        }
+
+        /** An empty container. */
+        ArrayContainer() {
+            this(4);
+        }
+
+        @Override
+        Container add(char v) {
+            int i;
+            if (_size > 0 && _values[_size - 1] < v) {
+                i = _size;
+            } else {
+                i = Arrays.binarySearch(_values, 0, _size, v);
+                if (i >= 0) {
+                    return this;
+                }
+                i = -i - 1;
+            }
+            if (_size == ARRAY_MAX) {
+                return toBitset().add(v);
+            }
+            ArrayContainer target = this;
+            if (_shared) {
+                target = new ArrayContainer(_size + 1);
+                System.arraycopy(_values, 0, target._values, 0, _size);
+                target._size = _size;
+            }
+            if (target._size == target._values.length) {
+                target._values = Arrays.copyOf(target._values,
+                                               2 * target._size);
+            }
+            System.arraycopy(target._values, i, target._values, i + 1,
+                             target._size - i);
+            target._values[i] = v;
+            target._size += 1;
+            return target;
+        }
+
+        @Override
+        boolean contains(char v) {
+            return Arrays.binarySearch(_values, 0, _size, v) >= 0;
+        }
+
+        @Override
+        int cardinality() {
+            return _size;
+        }
+
+        @Override
+        int next(int from) {
+            int i = Arrays.binarySearch(_values, 0, _size, (char) from);
+            if (i < 0) {
+                i = -i - 1;
+            }
+            return i < _size ? _values[i] : -1;
+        }
+
+        @Override
+        Container and(Container other) {
+            ArrayContainer result = new ArrayContainer(_size);
+            for (int i = 0; i < _size; i += 1) {
+                if (other.contains(_values[i])) {
+                    result._values[result._size] = _values[i];
+                    result._size += 1;
+                }
+            }
+            return result;
+        }
+
+        @Override
+        Container or(Container other) {
+            if (!(other instanceof ArrayContainer)
+                || _size + other.cardinality() > ARRAY_MAX) {
+                return toBitset().or(other);
+            }
+            ArrayContainer that = (ArrayContainer) other;
+            ArrayContainer result = new ArrayContainer(_size + that._size);
+            int i = 0, j = 0, k = 0;
+            while (i < _size || j < that._size) {
+                char v;
+                if (j == that._size
+                    || (i < _size && _values[i] < that._values[j])) {
+                    v = _values[i];
+                    i += 1;
+                } else if (i == _size || _values[i] > that._values[j]) {
+                    v = that._values[j];
+                    j += 1;
+                } else {
+                    v = _values[i];
+                    i += 1;
+                    j += 1;
+                }
+                result._values[k] = v;
+                k += 1;
+            }
+            result._size = k;
+            return result;
+        }
+
+        @Override
+        Container andNot(Container other) {
+            ArrayContainer result = new ArrayContainer(_size);
+            for (int i = 0; i < _size; i += 1) {
+                if (!other.contains(_values[i])) {
+                    result._values[result._size] = _values[i];
+                    result._size += 1;
+                }
+            }
+            return result;
+        }
+
+        @Override
+        BitsetContainer toBitset() {
+            BitsetContainer result = new BitsetContainer();
+            for (int i = 0; i < _size; i += 1) {
+                result._words[_values[i] >>> 6] |= 1L << _values[i];
+            }
+            result._cardinality = _size;
+            return result;
+        }
+
+        /** My members, in _values[0 .. _size-1]. */
+        private char[] _values;
+        /** My number of members. */
+        private int _size;
+    }
+
+    /** A container holding its members as a bitset of 2^16 bits. */
+    private static class BitsetContainer extends Container {
+        @Override
+        Container add(char v) {
+            long bit = 1L << v;
+            if ((_words[v >>> 6] & bit) != 0) {
+                return this;
+            }
+            BitsetContainer target = this;
+            if (_shared) {
+                target = new BitsetContainer();
+                System.arraycopy(_words, 0, target._words, 0, WORDS);
+                target._cardinality = _cardinality;
+            }
+            target._words[v >>> 6] |= bit;
+            target._cardinality += 1;
+            return target;
+        }
+
+        @Override
+        boolean contains(char v) {
+            return (_words[v >>> 6] & (1L << v)) != 0;
+        }
+
+        @Override
+        int cardinality() {
+            return _cardinality;
+        }
+
+        @Override
+        int next(int from) {
+            int w = from >>> 6;
+            if (w >= WORDS) {
+                return -1;
+            }
+            long word = _words[w] & (-1L << from);
+            while (word == 0) {
+                w += 1;
+                if (w == WORDS) {
+                    return -1;
+                }
+                word = _words[w];
+            }
+            return (w << 6) + Long.numberOfTrailingZeros(word);
+        }
+
+        @Override
+        Container and(Container other) {
+            if (other instanceof ArrayContainer) {
+                return other.and(this);
+            }
+            BitsetContainer that = (BitsetContainer) other;
+            BitsetContainer result = new BitsetContainer();
+            for (int w = 0; w < WORDS; w += 1) {
+                result._words[w] = _words[w] & that._words[w];
+            }
+            return result.count().normalize();
+        }
+
+        @Override
+        Container or(Container other) {
+            BitsetContainer that = other.toBitset();
+            BitsetContainer result = new BitsetContainer();
+            for (int w = 0; w < WORDS; w += 1) {
+                result._words[w] = _words[w] | that._words[w];
+            }
+            return result.count();
+        }
+
+        @Override
+        Container andNot(Container other) {
+            BitsetContainer that = other.toBitset();
+            BitsetContainer result = new BitsetContainer();
+            for (int w = 0; w < WORDS; w += 1) {
+                result._words[w] = _words[w] & ~that._words[w];
+            }
+            return result.count().normalize();
+        }
+
+        @Override
+        BitsetContainer toBitset() {
+            return this;
+        }
+
+        /** Recompute my cardinality from my words, returning me. */
+        BitsetContainer count() {
+            int n = 0;
+            for (long word : _words) {
+                n += Long.bitCount(word);
+            }
+            _cardinality = n;
+            return this;
+        }
+
+        /** Return me, or an equivalent ArrayContainer if I am small
+         *  enough. */
+        Container normalize() {
+            if (_cardinality > ARRAY_MAX) {
+                return this;
+            }
+            ArrayContainer result = new ArrayContainer(_cardinality);
+            for (int v = next(0); v >= 0; v = next(v + 1)) {
+                result._values[result._size] = (char) v;
+                result._size += 1;
+            }
+            return result;
+        }
+
+        /** Number of 64-bit words in a bitset. */
+        static final int WORDS = (1 << 16) / 64;
+
+        /** My bits. */
+        private final long[] _words = new long[WORDS];
+        /** My number of members. */
+        private int _cardinality;
+    }
+
+    /** High 16 bits of each chunk, in increasing order. */
+    private char[] _keys;
+    /** The chunks, corresponding to _keys. */
+    private Container[] _chunks;
+    /** Number of chunks. */
+    private int _size;
+}
@@ -0,0 +1,262 @@
+package db61b;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/** A bitmap index on one column of a Table: for each distinct value of
+ *  the column, the Bitmap of the rows holding that value.  Values are kept
+ *  in a sorted dictionary, so that a range condition on a literal, or a
+ *  like pattern with a literal prefix, becomes the union of the bitmaps
+ *  of a contiguous run of values.  Intended for
+ *  columns with few distinct values, such as Major or Grade.  An index
+ *  may also include the values of other columns, kept with each row's
+ *  entry in the order of the bitmap's rows, so that a select using only
+ *  the indexed and included columns can be answered from the index alone.
+ *  @author Wenqu Wang */
+class BitmapIndex {
+
+    /** An index on column number COLUMN of TABLE that includes the
+     *  columns numbered INCLUDE, built from its current rows. */
+    BitmapIndex(Table table, int column, int[] include) {
+        this(column, include);
+        String[] values = new String[table.columns()];
+        for (int row = 0; row < table.size(); row += 1) {
+            for (int c = 0; c < values.length; c += 1) {
+                values[c] = table.get(row, c);
+            }
+            add(values, row);
+        }
+    }
+
+    /** An empty index on column number COLUMN that includes the columns
+     *  numbered INCLUDE. */
+    private BitmapIndex(int column, int[] include) {
+        _column = column;
+        _include = include;
+    }
+
+    /** Write me to OUT in a form that read can restore. */
+    void write(DataOutputStream out) throws IOException {
+        out.writeInt(_column);
+        out.writeInt(_include.length);
+        for (int c : _include) {
+            out.writeInt(c);
+        }
+        out.writeInt(_values.size());
+        for (Map.Entry<String, Bitmap> entry : _values.entrySet()) {
+            Checkpoint.writeString(out, entry.getKey());
+            entry.getValue().write(out);
+            for (String[] values : included(entry.getKey())) {
+                for (String value : values) {
+                    Checkpoint.writeString(out, value);
+                }
+            }
+        }
+    }
+
+    /** Return the index written by write at the position of IN, leaving
+     *  IN positioned just after it. */
+    static BitmapIndex read(ByteBuffer in) {
+        int column = in.getInt();
+        int[] include = new int[in.getInt()];
+        for (int i = 0; i < include.length; i += 1) {
+            include[i] = in.getInt();
+        }
+        BitmapIndex result = new BitmapIndex(column, include);
+        for (int n = in.getInt(); n > 0; n -= 1) {
+            String value = Checkpoint.readString(in);
+            Bitmap rows = Bitmap.read(in);
+            result._values.put(value, rows);
+            if (include.length > 0) {
+                List<String[]> included = new ArrayList<>();
+                for (int r = rows.cardinality(); r > 0; r -= 1) {
+                    String[] values = new String[include.length];
+                    for (int i = 0; i < include.length; i += 1) {
+                        values[i] = Checkpoint.readString(in);
+                    }
+                    included.add(values);
+                }
+                result._included.put(value, included);
+            }
+        }
+        return result;
+    }
+
+    /** Return the number of the indexed column. */
+    int column() {
+        return _column;
+    }
+
+    /** Return the numbers of the included columns. */
+    int[] include() {
+        return _include;
+    }
+
+    /** Return true iff column number COLUMN is the indexed column or an
+     *  included column. */
+    boolean covers(int column) {
+        if (column == _column) {
+            return true;
+        }
+        for (int c : _include) {
+            if (c == column) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Record that row number ROW, which follows all rows added so far,
+     *  holds VALUES[c] in each column c. */
+    void add(String[] values, int row) {
+        String value = values[_column];
+        Bitmap rows = _values.get(value);
+        if (rows == null) {
+            rows = new Bitmap();
+            _values.put(value, rows);
+        }
+        rows.add(row);
+        if (_include.length > 0) {
+            List<String[]> included = _included.get(value);
+            if (included == null) {
+                included = new ArrayList<>();
+                _included.put(value, included);
+            }
+            String[] entry = new String[_include.length];
+            for (int i = 0; i < entry.length; i += 1) {
+                entry[i] = values[_include[i]];
+            }
+            included.add(entry);
+        }
+    }
+
+    /** Return the values of the indexed column, in order. */
+    Collection<String> values() {
+        return _values.keySet();
+    }
+
+    /** Return, in order, the values V of the indexed column for which
+     *  V RELATION VALUE, where RELATION is one of "=", "!=", "<", ">",
+     *  "<=", ">=", or "like". */
+    Collection<String> values(String relation, String value) {
+        switch (relation) {
+        case "=":
+            return _values.containsKey(value)
+                ? Collections.singletonList(value)
+                : Collections.emptyList();
+        case "!=":
+            List<String> result =
+                new ArrayList<>(_values.headMap(value, false).keySet());
+            result.addAll(_values.tailMap(value, false).keySet());
+            return result;
+        case "<":
+            return _values.headMap(value, false).keySet();
+        case "<=":
+            return _values.headMap(value, true).keySet();
+        case ">":
+            return _values.tailMap(value, false).keySet();
+        case ">=":
+            return _values.tailMap(value, true).keySet();
+        case "like":
+            return like(value);
+        default:
+            throw new Error("Unknown relation");
+        }
+    }
+
+    /** Return, in order, the values of the indexed column that match
+     *  PATTERN, found among those that begin with its literal prefix. */
+    private Collection<String> like(String pattern) {
+        String prefix = Condition.prefix(pattern);
+        String end = Condition.successor(prefix);
+        Collection<String> range = end == null
+            ? _values.tailMap(prefix, true).keySet()
+            : _values.subMap(prefix, true, end, false).keySet();
+        if (pattern.equals(prefix + "%")) {
+            return range;
+        }
+        List<String> result = new ArrayList<>();
+        for (String value : range) {
+            if (Condition.like(value, pattern)) {
+                result.add(value);
+            }
+        }
+        return result;
+    }
+
+    /** Return the rows holding VALUE. */
+    Bitmap rows(String value) {
+        Bitmap rows = _values.get(value);
+        return rows == null ? new Bitmap() : rows;
+    }
+
+    /** Return the values of the included columns, in the order of
+     *  include(), in each row holding VALUE, in increasing order of row
+     *  number. */
+    List<String[]> included(String value) {
+        List<String[]> included = _included.get(value);
+        return included == null ? Collections.emptyList() : included;
+    }
+
+    /** Return the number of distinct values in the indexed column. */
+    int distinctValues() {
+        return _values.size();
+    }
+
+    /** Return the rows whose value V satisfies V RELATION VALUE, where
+     *  RELATION is one of "=", "!=", "<", ">", "<=", ">=", or "like". */
+    Bitmap lookup(String relation, String value) {
+        switch (relation) {
+        case "=":
+            Bitmap rows = _values.get(value);
+            return rows == null ? new Bitmap() : rows;
+        case "!=":
+            return Bitmap.or(union(_values.headMap(value, false).values()),
+                             union(_values.tailMap(value, false).values()));
+        case "<":
+            return union(_values.headMap(value, false).values());
+        case "<=":
+            return union(_values.headMap(value, true).values());
+        case ">":
+            return union(_values.tailMap(value, false).values());
+        case ">=":
+            return union(_values.tailMap(value, true).values());
+        case "like":
+            Bitmap result = new Bitmap();
+            for (String match : like(value)) {
+                result = Bitmap.or(result, _values.get(match));
+            }
+            return result;
+        default:
+            throw new Error("Unknown relation");
+        }
+    }
+
+    /** Return the union of BITMAPS. */
+    private static Bitmap union(Collection<Bitmap> bitmaps) {
+        Bitmap result = new Bitmap();
+        for (Bitmap rows : bitmaps) {
+            result = Bitmap.or(result, rows);
+        }
+        return result;
+    }
+
+    /** Number of the indexed column. */
+    private final int _column;
+    /** Numbers of the included columns. */
+    private final int[] _include;
+    /** The values of the included columns in each row holding each value
+     *  of the indexed column, if there are included columns. */
+    private final HashMap<String, List<String[]>> _included =
+        new HashMap<>();
+    /** The rows holding each value of the column. */
+    private final TreeMap<String, Bitmap> _values = new TreeMap<>();
+}
@@ -0,0 +1,85 @@
+package db61b;
+
+/** A Bloom filter over 64-bit key hashes: a set that may report false
+ *  positives but never false negatives.  It is sized when created from
+ *  the expected number of keys and the desired false-positive rate, and
+ *  uses double hashing to derive its probe positions, so that adding or
+ *  testing a key costs one hash mix and a few word operations.
+ *  @author Wenqu Wang */
+class BloomFilter {
+
+    /** A filter able to hold about KEYS keys (at least 1) with a
+     *  false-positive rate of about FPP (0 < FPP < 1). */
+    BloomFilter(int keys, double fpp) {
+        double n = Math.max(1, keys);
+        long bits = (long) Math.ceil(-n * Math.log(fpp) / LN2_SQUARED);
+        bits = Math.max(64, Math.min(MAX_BITS, bits));
+        _words = new long[(int) ((bits + 63) >>> 6)];
+        _bits = (long) _words.length << 6;
+        _hashes = (int) Math.max(1, Math.min(MAX_HASHES,
+                                             Math.round(-Math.log(fpp)
+                                                        / LN2)));
+    }
+
+    /** Add the key whose hash is HASH. */
+    void add(long hash) {
+        long h = mix(hash);
+        long h1 = h, h2 = (h >>> 32) | 1;
+        for (int i = 0; i < _hashes; i += 1) {
+            long bit = Long.remainderUnsigned(h1, _bits);
+            _words[(int) (bit >>> 6)] |= 1L << bit;
+            h1 += h2;
+        }
+    }
+
+    /** Return false if the key whose hash is HASH was certainly never
+     *  added; true if it may have been. */
+    boolean mightContain(long hash) {
+        long h = mix(hash);
+        long h1 = h, h2 = (h >>> 32) | 1;
+        for (int i = 0; i < _hashes; i += 1) {
+            long bit = Long.remainderUnsigned(h1, _bits);
+            if ((_words[(int) (bit >>> 6)] & (1L << bit)) == 0) {
+                return false;
+            }
+            h1 += h2;
+        }
+        return true;
+    }
+
+    /** Return the number of bits in this filter. */
+    long bits() {
+        return _bits;
+    }
+
+    /** Return the number of probes per key. */
+    int hashes() {
+        return _hashes;
+    }
+
+    /** Return H with its bits thoroughly mixed (the finalizer of
+     *  MurmurHash3), so that nearby hashes probe unrelated bits. */
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    /** ln 2 and its square. */
+    private static final double
+        LN2 = Math.log(2),
+        LN2_SQUARED = LN2 * LN2;
+    /** Bounds on the size of a filter and on its number of probes. */
+    private static final long MAX_BITS = 1L << 34;
+    private static final int MAX_HASHES = 16;
+
+    /** The bits of the filter. */
+    private final long[] _words;
+    /** Number of bits (64 * _words.length). */
+    private final long _bits;
+    /** Number of probes per key. */
+    private final int _hashes;
+}
@@ -0,0 +1,445 @@
+package db61b;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static db61b.Utils.*;
+
+/** Saves and restores a whole Database as one binary image, NAME.img,
+ *  so that a session can start without re-reading and re-parsing each
+ *  .db file.  Each column is stored dictionary-encoded: its distinct
+ *  values once, then one code per row, one, two, or four bytes wide
+ *  according to the size of the dictionary.  Bitmap indexes are stored
+ *  container by container, followed by the table's zone maps and
+ *  partitions.  Restoring maps the image into memory and rebuilds no
+ *  index, zone map, or partition.  Nor does it decode any column: each
+ *  table reads its columns from the mapped image as an ImageTable, and
+ *  decodes a column, looking each of its codes up in its dictionary,
+ *  only when the column is first used.  The rows of a materialized view
+ *  are saved like those of any table, followed by its definition, from
+ *  which restoring sets the view up again so that it is maintained as
+ *  its base tables change.  A view whose base tables have since been
+ *  replaced in the database no longer changes, and is restored as an
+ *  ordinary table.
+ *  @author Wenqu Wang */
+class Checkpoint {
+
+    /** First word of an image, and the version of its format. */
+    static final int MAGIC = 0x64623631, VERSION = 7;
+
+    /** Write all tables of DB, with their indexes, to NAME.img,
+     *  replacing any previous image atomically. */
+    static void write(Database db, String name) {
+        long start = System.nanoTime();
+        File file = new File(name + ".img");
+        File temp = new File(name + ".img.tmp");
+        try (DataOutputStream out = new DataOutputStream(
+                 new BufferedOutputStream(new FileOutputStream(temp),
+                                          1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(db.names().size());
+            for (String table : db.names()) {
+                writeString(out, table);
+                writeTable(out, live(db.get(table)));
+            }
+            writeViews(out, db);
+        } catch (IOException excp) {
+            temp.delete();
+            throw error("trouble writing to %s", file);
+        }
+        try {
+            Files.move(temp.toPath(), file.toPath(),
+                       StandardCopyOption.REPLACE_EXISTING,
+                       StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException excp) {
+            temp.delete();
+            throw error("could not replace %s", file);
+        }
+        Stats.count("checkpoint.bytes", file.length());
+        Stats.time("op.checkpoint", start);
+    }
+
+    /** Replace the tables of DB with those in the image NAME.img. */
+    static void read(Database db, String name) {
+        long start = System.nanoTime();
+        File file = new File(name + ".img");
+        if (!file.isFile()) {
+            throw error("could not find %s", file);
+        }
+        try (FileChannel channel =
+             FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw error("%s is too large to map", file);
+            }
+            MappedByteBuffer in =
+                channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (in.getInt() != MAGIC || in.getInt() != VERSION) {
+                throw error("%s is not a db61b image", file);
+            }
+            Map<String, Table> tables = new HashMap<>();
+            for (int n = in.getInt(); n > 0; n -= 1) {
+                String table = readString(in);
+                tables.put(table, readTable(in, file.getName()));
+            }
+            readViews(in, tables, file);
+            db.clear();
+            for (Map.Entry<String, Table> entry : tables.entrySet()) {
+                db.put(entry.getKey(), entry.getValue());
+            }
+            Stats.count("open.bytes", channel.size());
+        } catch (IOException excp) {
+            throw error("problem reading from %s", file);
+        } catch (BufferUnderflowException | IndexOutOfBoundsException
+                 | IllegalArgumentException
+                 | NegativeArraySizeException excp) {
+            throw error("%s is damaged", file);
+        }
+        Stats.time("op.open", start);
+    }
+
+    /** Write STR to OUT as its length in bytes followed by its UTF-8
+     *  encoding. */
+    static void writeString(DataOutputStream out, String str)
+        throws IOException {
+        byte[] bytes = str.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /** Return the string written by writeString at the position of IN,
+     *  leaving IN positioned just after it. */
+    static String readString(ByteBuffer in) {
+        byte[] bytes = new byte[in.getInt()];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /** Return TABLE if it has no deleted rows, and otherwise a copy of
+     *  its live rows, indexed on the same columns. */
+    private static Table live(Table table) {
+        if (table.liveRows() == table.size()) {
+            return table;
+        }
+        String[] titles = new String[table.columns()];
+        String[][] columns = new String[titles.length][table.liveRows()];
+        for (int c = 0; c < titles.length; c += 1) {
+            titles[c] = table.getTitle(c);
+            int i = 0;
+            for (int r = table.nextRow(null, 0); r >= 0;
+                 r = table.nextRow(null, r + 1)) {
+                columns[c][i] = table.get(r, c);
+                i += 1;
+            }
+        }
+        Table result = new Table(titles);
+        result.setOffHeap(table.isOffHeap());
+        result.setCracking(table.isCracking());
+        result.append(columns);
+        result.setZones(null);
+        if (table.partitionColumn() >= 0) {
+            result.partition(titles[table.partitionColumn()],
+                             table.getPartitions().length);
+        }
+        for (int c = 0; c < titles.length; c += 1) {
+            BitmapIndex index = table.getIndex(c);
+            if (index != null) {
+                String[] include = new String[index.include().length];
+                for (int i = 0; i < include.length; i += 1) {
+                    include[i] = titles[index.include()[i]];
+                }
+                result.createIndex(titles[c], include);
+            }
+        }
+        return result;
+    }
+
+    /** Write TABLE, which has no deleted rows, to OUT. */
+    private static void writeTable(DataOutputStream out, Table table)
+        throws IOException {
+        int rows = table.size();
+        out.writeInt(table.columns());
+        for (int c = 0; c < table.columns(); c += 1) {
+            writeString(out, table.getTitle(c));
+        }
+        out.writeBoolean(table.isOrdered());
+        out.writeBoolean(table.isOffHeap());
+        out.writeBoolean(table.isCracking());
+        out.writeInt(rows);
+        for (int c = 0; c < table.columns(); c += 1) {
+            Map<String, Integer> dictionary = new HashMap<>();
+            int[] codes = new int[rows];
+            for (int r = 0; r < rows; r += 1) {
+                String value = table.get(r, c);
+                Integer code = dictionary.get(value);
+                if (code == null) {
+                    code = dictionary.size();
+                    dictionary.put(value, code);
+                }
+                codes[r] = code;
+            }
+            String[] values = new String[dictionary.size()];
+            for (Map.Entry<String, Integer> entry : dictionary.entrySet()) {
+                values[entry.getValue()] = entry.getKey();
+            }
+            out.writeInt(values.length);
+            for (String value : values) {
+                writeString(out, value);
+            }
+            int width = width(values.length);
+            for (int code : codes) {
+                if (width == 1) {
+                    out.writeByte(code);
+                } else if (width == 2) {
+                    out.writeShort(code);
+                } else {
+                    out.writeInt(code);
+                }
+            }
+        }
+        int indexes = 0;
+        for (int c = 0; c < table.columns(); c += 1) {
+            if (table.getIndex(c) != null) {
+                indexes += 1;
+            }
+        }
+        out.writeInt(indexes);
+        for (int c = 0; c < table.columns(); c += 1) {
+            if (table.getIndex(c) != null) {
+                table.getIndex(c).write(out);
+            }
+        }
+        table.getZones().write(out);
+        out.writeInt(table.partitionColumn());
+        if (table.partitionColumn() >= 0) {
+            out.writeInt(table.getPartitions().length);
+            for (Bitmap partition : table.getPartitions()) {
+                partition.write(out);
+            }
+        }
+    }
+
+    /** Return the table written by writeTable at the position of IN,
+     *  an image in the file named NAME, leaving IN positioned just after
+     *  it.  The table's columns stay in the image until used. */
+    private static Table readTable(ByteBuffer in, String name) {
+        String[] titles = new String[in.getInt()];
+        for (int c = 0; c < titles.length; c += 1) {
+            titles[c] = readString(in);
+        }
+        boolean ordered = in.get() != 0;
+        boolean offHeap = in.get() != 0;
+        boolean cracking = in.get() != 0;
+        int rows = in.getInt();
+        int[] starts = new int[titles.length];
+        for (int c = 0; c < titles.length; c += 1) {
+            starts[c] = in.position();
+            int values = in.getInt();
+            for (int v = 0; v < values; v += 1) {
+                int length = in.getInt();
+                in.position(in.position() + length);
+            }
+            in.position(in.position() + rows * width(values));
+        }
+        Table table = Table.fromFile(
+            new ImageTable(name, in.duplicate(), titles, rows, starts),
+            offHeap);
+        table.setOrdered(ordered);
+        table.setCracking(cracking);
+        for (int n = in.getInt(); n > 0; n -= 1) {
+            table.setIndex(BitmapIndex.read(in));
+        }
+        table.setZones(ZoneMap.read(in));
+        int column = in.getInt();
+        if (column >= 0) {
+            Bitmap[] partitions = new Bitmap[in.getInt()];
+            for (int p = 0; p < partitions.length; p += 1) {
+                partitions[p] = Bitmap.read(in);
+            }
+            table.setPartitions(column, partitions);
+        }
+        return table;
+    }
+
+    /** Write to OUT the definitions of the materialized views of DB
+     *  whose tables and base tables are all in DB, each as the names of
+     *  its table and base tables (the second empty unless it is a join)
+     *  and its conditions. */
+    private static void writeViews(DataOutputStream out, Database db)
+        throws IOException {
+        Map<Table, String> names = new IdentityHashMap<>();
+        for (String name : db.names()) {
+            names.put(db.get(name), name);
+        }
+        Set<View> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+        List<View> views = new ArrayList<>();
+        for (String name : db.names()) {
+            for (View view : db.get(name).getViews()) {
+                if (seen.add(view) && names.containsKey(view.table())
+                    && names.containsKey(view.base1())
+                    && (view.base2() == null
+                        || names.containsKey(view.base2()))) {
+                    views.add(view);
+                }
+            }
+        }
+        out.writeInt(views.size());
+        for (View view : views) {
+            writeString(out, names.get(view.table()));
+            writeString(out, names.get(view.base1()));
+            writeString(out, view.base2() == null ? ""
+                        : names.get(view.base2()));
+            out.writeInt(view.conditions().size());
+            for (Condition cond : view.conditions()) {
+                writeString(out, cond.getColumn().getName());
+                writeString(out, cond.getRelation());
+                out.writeBoolean(cond.getLiteral() != null);
+                writeString(out, cond.getLiteral() != null ? cond.getLiteral()
+                            : cond.getColumn2().getName());
+            }
+        }
+    }
+
+    /** Set up again the materialized views written by writeViews at the
+     *  position of IN, in the image FILE, whose tables and base tables are
+     *  among TABLES, indexed by name. */
+    private static void readViews(ByteBuffer in, Map<String, Table> tables,
+                                  File file) {
+        for (int n = in.getInt(); n > 0; n -= 1) {
+            Table result = tables.get(readString(in));
+            Table base1 = tables.get(readString(in));
+            String name2 = readString(in);
+            Table[] bases = name2.isEmpty() ? new Table[] { base1 }
+                : new Table[] { base1, tables.get(name2) };
+            if (result == null || Arrays.asList(bases).contains(null)) {
+                throw error("%s is damaged", file);
+            }
+            List<Condition> conditions = new ArrayList<>();
+            for (int k = in.getInt(); k > 0; k -= 1) {
+                Column column = new Column(readString(in), bases);
+                String relation = readString(in);
+                if (in.get() != 0) {
+                    conditions.add(
+                        new Condition(column, relation, readString(in)));
+                } else {
+                    conditions.add(
+                        new Condition(column, relation,
+                                      new Column(readString(in), bases)));
+                }
+            }
+            new View(result, base1, bases.length == 1 ? null : bases[1],
+                     conditions);
+            Stats.count("open.views", 1);
+        }
+    }
+
+    /** A table in an image, whose columns are decoded from the mapped
+     *  image one at a time, as they are needed. */
+    private static class ImageTable implements TableFile {
+
+        /** The table whose column titles are TITLES and which has ROWS
+         *  rows, in IMAGE, the mapped image in the file named NAME, in
+         *  which column number C starts at position STARTS[C]. */
+        ImageTable(String name, ByteBuffer image, String[] titles,
+                   int rows, int[] starts) {
+            _name = name;
+            _image = image;
+            _titles = titles;
+            _rows = rows;
+            _starts = starts;
+        }
+
+        @Override
+        public String[] titles() {
+            return _titles;
+        }
+
+        @Override
+        public int rows() {
+            return _rows;
+        }
+
+        @Override
+        public long length() {
+            return _image.limit();
+        }
+
+        @Override
+        public void decode(int column, ColumnValues values) {
+            long start = System.nanoTime();
+            ByteBuffer in = _image.duplicate();
+            try {
+                in.position(_starts[column]);
+                String[] dictionary = new String[in.getInt()];
+                for (int v = 0; v < dictionary.length; v += 1) {
+                    dictionary[v] = readString(in);
+                }
+                switch (width(dictionary.length)) {
+                case 1:
+                    for (int r = 0; r < _rows; r += 1) {
+                        values.add(dictionary[in.get() & 0xff]);
+                    }
+                    break;
+                case 2:
+                    for (int r = 0; r < _rows; r += 1) {
+                        values.add(dictionary[in.getShort() & 0xffff]);
+                    }
+                    break;
+                default:
+                    for (int r = 0; r < _rows; r += 1) {
+                        values.add(dictionary[in.getInt()]);
+                    }
+                    break;
+                }
+            } catch (BufferUnderflowException | IndexOutOfBoundsException
+                     | IllegalArgumentException
+                     | NegativeArraySizeException excp) {
+                throw error("%s is damaged", _name);
+            }
+            Stats.count("open.columns", 1);
+            Stats.time("op.decode", start);
+        }
+
+        /** The name of the image file. */
+        private final String _name;
+        /** The mapped image. */
+        private final ByteBuffer _image;
+        /** My column titles. */
+        private final String[] _titles;
+        /** Number of rows. */
+        private final int _rows;
+        /** The position in _image at which each column starts. */
+        private final int[] _starts;
+    }
+
+    /** Return the number of bytes in each code of a dictionary of N
+     *  values. */
+    private static int width(int n) {
+        if (n <= 1 << 8) {
+            return 1;
+        } else if (n <= 1 << 16) {
+            return 2;
+        } else {
+            return 4;
+        }
+    }
+}
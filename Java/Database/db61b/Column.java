@@ -6,13 +6,14 @@ import static db61b.Utils.*;
  *  in a list of rows.  A Column is created from a sequence [t1,...tn]
  *  of Tables and a name, c, which must be the name of a column in one of
  *  the ti.  Assume that tk is the first of the Tables containing a column
- *  named c.  The resulting Column object can extract (method getFrom)
- *  from a sequence of n rows, one for each table, the value of
- *  of the column named c.
+ *  named c.  The resulting Column object can extract (method get)
+ *  from a Cursor over the n tables, which stands at one row of each, the
+ *  value of the column named c.
  *  @author Wenqu Wang
 */
 class Column {
-    /** Selects column named NAME from a row of one of the given TABLES. */
+    /** Selects column named NAME from a row of one of the given TABLES,
+     *  decoding it from its file if its table was loaded lazily. */
     Column(String name, Table... tables) {
         _tableIndex = 0;
         _name = name;
@@ -20,6 +21,7 @@ class Column {
             _column = table.findColumn(name);
             if (_column != -1) {
                 _table = table;
+                table.materialize(_column);
                 return;
             }
             _tableIndex += 1;
@@ -32,12 +34,33 @@ class Column {
         return _name;
     }
 
-    /** Assuming that for each k, ROWS[k] is the index of a row from my
-     *  kth table, return the value of my column from the appropriate
-     *  row.  It is assumed that all columns with the same name have
-     *  the same value. */
-    String getFrom(Integer... rows) {
-        return _table.get(rows[_tableIndex], _column);
+    /** Return the table containing my column. */
+    Table getTable() {
+        return _table;
+    }
+
+    /** Return the position of my table in the sequence of tables from
+     *  which I was created. */
+    int getTableIndex() {
+        return _tableIndex;
+    }
+
+    /** Return the number of my column in my table. */
+    int getColumnIndex() {
+        return _column;
+    }
+
+    /** Return the value of my column in the row of my table at which
+     *  ROWS stands, where ROWS is a cursor over the sequence of tables
+     *  from which I was created.  It is assumed that all columns with the
+     *  same name have the same value. */
+    String get(Cursor rows) {
+        return _table.get(rows.row(_tableIndex), _column);
+    }
+
+    /** Return the value of my column in row number ROW of my table. */
+    String get(int row) {
+        return _table.get(row, _column);
     }
 
     /** Column name denoted by THIS. */
@@ -0,0 +1,29 @@
+package db61b;
+
+/** The values of one column of a Table, in row order.  Values are only
+ *  ever appended.  A table keeps its columns either on the heap, as
+ *  lists of Strings, or off the heap, as OffHeapValues.
+ *  @author Wenqu Wang */
+interface ColumnValues {
+
+    /** Return the value in row number ROW. */
+    String get(int row);
+
+    /** Append VALUE as the value of the next row.  Returns true. */
+    boolean add(String value);
+
+    /** Make room for a total of CAPACITY rows, so that adding rows up to
+     *  that number does not need to grow my storage. */
+    void reserve(int capacity);
+
+    /** Return the number of rows. */
+    int size();
+
+    /** Return an estimate of the number of heap bytes occupied by my
+     *  first ROWS values, where I have at least ROWS values.  Values may
+     *  be added meanwhile. */
+    long memory(int rows);
+
+    /** Return the number of bytes I occupy outside the heap. */
+    long offHeapMemory();
+}
@@ -5,7 +5,9 @@ package db61b;
 import java.io.PrintStream;
 
 import java.util.ArrayList;
+import java.util.List;
 import java.util.Scanner;
+import java.util.concurrent.ThreadLocalRandom;
 
 import static db61b.Utils.*;
 
@@ -117,53 +119,248 @@ class CommandInterpreter {
     /** A new CommandInterpreter executing commands read from INP, writing
      *  prompts on PROMPTER, if it is non-null. */
     CommandInterpreter(Scanner inp, PrintStream prompter) {
+        this(inp, prompter, new Database(), System.out, true);
+    }
+
+    /** A new CommandInterpreter executing commands read from INP against
+     *  DATABASE, writing prompts on PROMPTER, if it is non-null, and
+     *  results on OUTPUT.  If INSTALL, each statement first installs the
+     *  compactions that have finished; otherwise, that is left to the
+     *  caller, which knows which tables no other statement is using. */
+    CommandInterpreter(Scanner inp, PrintStream prompter, Database database,
+                       PrintStream output, boolean install) {
         _input = new Tokenizer(inp, prompter);
-        _database = new Database();
+        _database = database;
+        _out = output;
+        _install = install;
+        Stats.watch(_database);
+    }
+
+    /** Return the keyword that begins the next statement, without
+     *  consuming it ("*EOF*" at the end of input). */
+    String peekStatement() {
+        return _input.peek();
     }
 
     /** Parse and execute one statement from the token stream.  Return true
-     *  iff the command is something other than quit or exit. */
+     *  iff the command is something other than quit or exit.  The time
+     *  taken is recorded in the histogram statement.<keyword>, and
+     *  failures in the counter errors.<keyword>. */
     boolean statement() {
-        switch (_input.peek()) {
-        case "create":
-            createStatement();
-            break;
-        case "load":
-            loadStatement();
-            break;
-        case "exit": case "quit":
-            exitStatement();
-            return false;
-        case "*EOF*":
-            return false;
-        case "insert":
-            insertStatement();
-            break;
-        case "print":
-            printStatement();
-            break;
-        case "select":
-            selectStatement();
-            break;
-        case "store":
-            storeStatement();
-            break;
-        default:
-            throw error("unrecognizable command");
+        String kind = _input.peek();
+        long start = System.nanoTime();
+        if (_install) {
+            Compactor.install();
+        }
+        try {
+            switch (kind) {
+            case "alter":
+                alterStatement();
+                break;
+            case "checkpoint":
+                checkpointStatement();
+                break;
+            case "copy":
+                copyStatement();
+                break;
+            case "create":
+                createStatement();
+                break;
+            case "delete":
+                deleteStatement();
+                break;
+            case "explain":
+                explainStatement();
+                break;
+            case "load":
+                loadStatement();
+                break;
+            case "open":
+                openStatement();
+                break;
+            case "exit": case "quit":
+                exitStatement();
+                return false;
+            case "*EOF*":
+                return false;
+            case "insert":
+                insertStatement();
+                break;
+            case "print":
+                printStatement();
+                break;
+            case "select":
+                selectStatement();
+                break;
+            case "stats":
+                statsStatement();
+                break;
+            case "store":
+                storeStatement();
+                break;
+            case "update":
+                updateStatement();
+                break;
+            case "wait":
+                waitStatement();
+                break;
+            default:
+                kind = "unknown";
+                throw error("unrecognizable command");
+            }
+        } catch (DBException excp) {
+            Stats.count("errors." + kind, 1);
+            throw excp;
+        } finally {
+            if (!kind.equals("*EOF*")) {
+                Stats.time("statement." + kind, start);
+            }
         }
         return true;
     }
 
+    /** Parse and execute an explain statement from the token stream:
+     *      explain <select clause> ;
+     *  runs the select clause and prints, instead of its result, the
+     *  steps taken to compute it. */
+    void explainStatement() {
+        _input.next("explain");
+        List<String> plan;
+        Table table;
+        Explain.begin();
+        try {
+            table = queryClause();
+        } finally {
+            plan = Explain.end();
+        }
+        _input.next(";");
+        _out.println("Plan:");
+        for (String step : plan) {
+            _out.printf("  %s%n", step);
+        }
+        _out.printf("  result: %d rows%n", table.size());
+    }
+
     /** Parse and execute a create statement from the token stream. */
     void createStatement() {
         _input.next("create");
+        if (_input.nextIs("index")) {
+            indexDefinition();
+            return;
+        }
+        if (_input.nextIs("materialized")) {
+            viewDefinition();
+            return;
+        }
         _input.next("table");
         String name = name();
         Table table = tableDefinition();
+        if (_input.nextIs("partition")) {
+            partitionClause(table);
+        }
+        if (_input.nextIf("stored")) {
+            _input.next("off");
+            _input.next("heap");
+            table.setOffHeap(true);
+        }
         _database.put(name, table);
         _input.next(";");
     }
 
+    /** Parse a partition clause,
+     *      partition by hash ( <column name> ) into <number>
+     *  from the token stream, and partition TABLE accordingly. */
+    void partitionClause(Table table) {
+        _input.next("partition");
+        _input.next("by");
+        _input.next("hash");
+        _input.next("(");
+        String column = columnName();
+        _input.next(")");
+        _input.next("into");
+        String number = _input.next(Tokenizer.NUMBER);
+        int n;
+        try {
+            n = Integer.parseInt(number);
+        } catch (NumberFormatException excp) {
+            throw error("invalid number of partitions: %s", number);
+        }
+        table.partition(column, n);
+    }
+
+    /** Parse and execute the remainder of a create materialized view
+     *  statement,
+     *      create materialized view <table name> as
+     *          select <column name>+, from <table name> [, <table name>]
+     *          [ <condition clause> ] ;
+     *  from the token stream.  Only selections and joins can be
+     *  maintained incrementally, so the select clause may not aggregate,
+     *  group, order, or limit its rows. */
+    void viewDefinition() {
+        _input.next("materialized");
+        _input.next("view");
+        String name = name();
+        _input.next("as");
+        _input.next("select");
+        ArrayList<String> colNames = new ArrayList<>();
+        colNames.add(columnName());
+        while (_input.nextIf(",")) {
+            colNames.add(columnName());
+        }
+        if (_input.nextIs("(")) {
+            throw error("materialized views cannot aggregate");
+        }
+        _input.next("from");
+        Table table = tableName();
+        Table table2 = null;
+        if (_input.nextIf(",")) {
+            table2 = tableName();
+        }
+        ArrayList<Condition> conditions = new ArrayList<>();
+        if (_input.nextIs("where")) {
+            if (table2 == null) {
+                conditions = conditionClause(table);
+            } else {
+                conditions = conditionClause(table, table2);
+            }
+        }
+        if (_input.nextIs("group") || _input.nextIs("order")
+            || _input.nextIs("limit")) {
+            throw error("materialized views cannot group, order, or limit");
+        }
+        _input.next(";");
+        View view = new View(colNames, table, table2, conditions);
+        _database.put(name, view.table());
+    }
+
+    /** Parse and execute the remainder of a create index statement,
+     *      create index on <table name> ( <column name> )
+     *          [ include ( <column name>+, ) ] [ using bitmap ] ;
+     *  from the token stream. */
+    void indexDefinition() {
+        _input.next("index");
+        _input.next("on");
+        Table table = tableName();
+        _input.next("(");
+        String column = columnName();
+        _input.next(")");
+        ArrayList<String> include = new ArrayList<>();
+        if (_input.nextIf("include")) {
+            _input.next("(");
+            include.add(columnName());
+            while (_input.nextIf(",")) {
+                include.add(columnName());
+            }
+            _input.next(")");
+        }
+        if (_input.nextIf("using")) {
+            _input.next("bitmap");
+        }
+        _input.next(";");
+        table.createIndex(column,
+                          include.toArray(new String[include.size()]));
+    }
+
     /** Parse and execute an exit or quit statement. Actually does nothing
      *  except check syntax, since statement() handles the actual exiting. */
     void exitStatement() {
@@ -201,23 +398,166 @@ class CommandInterpreter {
         _input.next(";");
     }
 
+    /** Parse and execute a delete statement from the token stream:
+     *      delete from <table name> [ <condition clause> ] ; */
+    void deleteStatement() {
+        _input.next("delete");
+        _input.next("from");
+        Table table = tableName();
+        ArrayList<Condition> conditions = new ArrayList<>();
+        if (_input.nextIs("where")) {
+            conditions = conditionClause(table);
+        }
+        _input.next(";");
+        table.delete(conditions);
+    }
+
+    /** Parse and execute an update statement from the token stream:
+     *      update <table name> set <column name> = <literal>
+     *          [, <column name> = <literal>]* [ <condition clause> ] ; */
+    void updateStatement() {
+        _input.next("update");
+        Table table = tableName();
+        _input.next("set");
+        ArrayList<Integer> columns = new ArrayList<>();
+        ArrayList<String> values = new ArrayList<>();
+        setItem(table, columns, values);
+        while (_input.nextIf(",")) {
+            setItem(table, columns, values);
+        }
+        ArrayList<Condition> conditions = new ArrayList<>();
+        if (_input.nextIs("where")) {
+            conditions = conditionClause(table);
+        }
+        _input.next(";");
+        int[] cols = new int[columns.size()];
+        for (int i = 0; i < cols.length; i += 1) {
+            cols[i] = columns.get(i);
+        }
+        table.update(cols, values.toArray(new String[values.size()]),
+                     conditions);
+    }
+
+    /** Parse an assignment <column name> = <literal> to a column of
+     *  TABLE from the token stream, adding the column's number to COLUMNS
+     *  and the literal to VALUES. */
+    void setItem(Table table, List<Integer> columns, List<String> values) {
+        String name = columnName();
+        int k = table.findColumn(name);
+        if (k == -1) {
+            throw error("unknown column: %s", name);
+        }
+        columns.add(k);
+        _input.next("=");
+        values.add(literal());
+    }
+
+    /** Parse and execute a checkpoint statement from the token stream:
+     *      checkpoint to <name> ;
+     *  which saves every table in the database to the image NAME.img. */
+    void checkpointStatement() {
+        _input.next("checkpoint");
+        _input.next("to");
+        String name = name();
+        _input.next(";");
+        Checkpoint.write(_database, name);
+        _out.printf("Saved %s.img%n", name);
+    }
+
+    /** Parse and execute a copy statement from the token stream:
+     *      copy <table name> from <literal> [ with header ] ;
+     *  which adds the rows of the comma-separated file named by the
+     *  literal to the table.  Only the statement itself passes through
+     *  the tokenizer; the file is read directly. */
+    void copyStatement() {
+        _input.next("copy");
+        Table table = tableName();
+        _input.next("from");
+        String fileName = literal();
+        boolean header = _input.nextIf("with");
+        if (header) {
+            _input.next("header");
+        }
+        int rows = table.copy(fileName, header);
+        _out.printf("Copied %d rows from %s%n", rows, fileName);
+        _input.next(";");
+    }
+
+    /** Parse and execute an open statement from the token stream:
+     *      open <name> ;
+     *  which replaces the database with the tables in NAME.img. */
+    void openStatement() {
+        _input.next("open");
+        String name = name();
+        _input.next(";");
+        Checkpoint.read(_database, name);
+        _out.printf("Opened %s.img%n", name);
+    }
+
     /** Parse and execute a load statement from the token stream. */
     void loadStatement() {
         _input.next("load");
         String name = _input.peek();
         _database.loadTable(name());
-        System.out.printf("Loaded %s.db%n", name);
+        _out.printf("Loaded %s.db%n", name);
         _input.next(";");
     }
 
-    /** Parse and execute a store statement from the token stream. */
+    /** Parse and execute a store statement from the token stream:
+     *      store <table name> [ packed | compressed ] ;
+     *  The table's current rows are written to the file in the
+     *  background (see Storer), as text unless packed or compressed is
+     *  given (see PackedFile). */
     void storeStatement() {
         _input.next("store");
         String name = _input.peek();
         Table table = tableName();
-        table.writeTable(name);
-        System.out.printf("Stored %s.db%n", name);
+        String format = "text";
+        if (_input.nextIf("packed")) {
+            format = "packed";
+        } else if (_input.nextIf("compressed")) {
+            format = "compressed";
+        }
         _input.next(";");
+        Storer.start(name, table.snapshot(), format);
+        _out.printf("Storing %s.db%n", name);
+    }
+
+    /** Parse and execute a wait statement from the token stream:
+     *      wait store ;
+     *  which waits for the stores started so far to finish, and reports
+     *  how each one ended. */
+    void waitStatement() {
+        _input.next("wait");
+        _input.next("store");
+        _input.next(";");
+        Storer.finish(_out, true);
+    }
+
+    /** Parse and execute an alter statement from the token stream:
+     *      alter table <table name> set cracking ( on | off ) ;
+     *  which turns the adaptive indexing of the table's columns by the
+     *  conditions that use them (see Cracker) on or off. */
+    void alterStatement() {
+        _input.next("alter");
+        _input.next("table");
+        Table table = tableName();
+        _input.next("set");
+        _input.next("cracking");
+        boolean cracking = _input.nextIf("on");
+        if (!cracking) {
+            _input.next("off");
+        }
+        _input.next(";");
+        table.setCracking(cracking);
+    }
+
+    /** Parse and execute a stats statement, which prints the runtime
+     *  statistics gathered by Stats. */
+    void statsStatement() {
+        _input.next("stats");
+        _input.next(";");
+        Stats.print(_out);
     }
 
     /** Parse and execute a print statement from the token stream. */
@@ -225,17 +565,17 @@ class CommandInterpreter {
         _input.next("print");
         String name = _input.peek();
         Table table = tableName();
-        System.out.printf("Contents of %s:%n", name);
-        table.print();
+        _out.printf("Contents of %s:%n", name);
+        table.print(_out);
         _input.next(";");
     }
 
     /** Parse and execute a select statement from the token stream. */
     void selectStatement() {
-        Table table = selectClause();
-        System.out.println("Search results:");
+        Table table = queryClause();
+        _out.println("Search results:");
         _input.next(";");
-        table.print();
+        table.print(_out);
 
     }
 
@@ -258,41 +598,150 @@ class CommandInterpreter {
         } else {
             _input.next("as");
 
-            table = selectClause();
+            table = queryClause();
+        }
+        return table;
+    }
+
+    /** Parse and execute a query clause,
+     *      <select clause> [ { union | intersect | except }
+     *                        <select clause> ]*
+     *  from the token stream, returning the resulting table.  The set
+     *  operations apply from left to right, each to whole select clauses,
+     *  including any order by and limit clauses. */
+    Table queryClause() {
+        Table table = selectClause();
+        while (_input.nextIs("union") || _input.nextIs("intersect")
+               || _input.nextIs("except")) {
+            String operation = _input.next();
+            table = SetOperation.apply(operation, table, selectClause());
         }
         return table;
     }
 
     /** Parse and execute a select clause from the token stream, returning the
-     *  resulting table. */
+     *  resulting table.  A select clause whose column list contains
+     *  aggregates, or that has a group by clause, yields one row per
+     *  group.  An order by clause yields a table that prints in the
+     *  requested order, and a limit clause ends the scan as soon as enough
+     *  rows are found, where the order allows.  The rows of every table
+     *  are distinct, so the keyword distinct may follow select, but
+     *  changes nothing.  A table in the from clause may be followed by a
+     *  tablesample clause, so that only a sample of it is read. */
     Table selectClause() {
         _input.next("select");
+        _input.nextIf("distinct");
         ArrayList<String> colNames = new ArrayList<>();
-        ArrayList<Condition> conditions = new ArrayList<>();
-        Table result = null;
-        colNames.add(columnName());
+        ArrayList<Aggregate> aggregates = new ArrayList<>();
+        selectItem(colNames, aggregates);
         while (_input.nextIf(",")) {
-            colNames.add(columnName());
+            selectItem(colNames, aggregates);
         }
         _input.next("from");
-        Table table = tableName();
-        if (_input.nextIs(";")) {
-            result = table.select(colNames, conditions);
-        }
+        Table table = sampledTableName();
+        Table table2 = null;
         if (_input.nextIf(",")) {
-            Table table2 = tableName();
-            if (_input.nextIs("where")) {
+            table2 = sampledTableName();
+        }
+        ArrayList<Condition> conditions = new ArrayList<>();
+        if (_input.nextIs("where")) {
+            if (table2 == null) {
+                conditions = conditionClause(table);
+            } else {
                 conditions = conditionClause(table, table2);
-                result = table.select(table2, colNames, conditions);
+            }
+        }
+        ArrayList<String> groupBy = new ArrayList<>();
+        if (_input.nextIf("group")) {
+            _input.next("by");
+            groupBy.add(columnName());
+            while (_input.nextIf(",")) {
+                groupBy.add(columnName());
+            }
+        }
+        ArrayList<String> orderBy = new ArrayList<>();
+        ArrayList<Boolean> descending = new ArrayList<>();
+        if (_input.nextIf("order")) {
+            _input.next("by");
+            orderItem(orderBy, descending);
+            while (_input.nextIf(",")) {
+                orderItem(orderBy, descending);
+            }
+        }
+        int limit = -1;
+        if (_input.nextIf("limit")) {
+            String number = _input.next(Tokenizer.NUMBER);
+            try {
+                limit = Integer.parseInt(number);
+            } catch (NumberFormatException excp) {
+                throw error("invalid limit: %s", number);
+            }
+        }
+
+        Table result;
+        if (aggregates.isEmpty() && groupBy.isEmpty()) {
+            int scanLimit = orderBy.isEmpty() ? limit : -1;
+            if (table2 == null) {
+                result = table.select(colNames, conditions, scanLimit);
             } else {
-                result = table.select(table2, colNames, conditions);
+                result = table.select(table2, colNames, conditions,
+                                      scanLimit);
             }
+            if (orderBy.isEmpty()) {
+                return result;
+            }
+        } else if (table2 == null) {
+            result = Aggregation.aggregate(table, colNames, groupBy,
+                                           aggregates, conditions);
+        } else {
+            result = Aggregation.aggregate(table, table2, colNames, groupBy,
+                                           aggregates, conditions);
         }
-        if (_input.nextIs("where")) {
-            conditions = conditionClause(table);
-            result = table.select(colNames, conditions);
+        boolean[] desc = new boolean[descending.size()];
+        boolean[] numeric = new boolean[desc.length];
+        for (int i = 0; i < desc.length; i += 1) {
+            desc[i] = descending.get(i);
+            for (Aggregate agg : aggregates) {
+                if (agg.getName().equals(orderBy.get(i))) {
+                    numeric[i] = true;
+                }
+            }
+        }
+        return Sorter.sort(result, orderBy, desc, numeric, limit);
+    }
+
+    /** Parse one item of an order by clause: a column name optionally
+     *  followed by asc or desc.  Add the name to COLUMNS and whether it is
+     *  descending to DESCENDING. */
+    void orderItem(ArrayList<String> columns, ArrayList<Boolean> descending) {
+        columns.add(columnName());
+        if (_input.nextIf("desc")) {
+            descending.add(true);
+        } else {
+            _input.nextIf("asc");
+            descending.add(false);
+        }
+    }
+
+    /** Parse one item of the column list of a select clause: either a
+     *  column name or an aggregate such as count(*) or sum(Units).  Add
+     *  the title of its result column to TITLES and, for an aggregate,
+     *  add it to AGGREGATES. */
+    void selectItem(ArrayList<String> titles,
+                    ArrayList<Aggregate> aggregates) {
+        String name = columnName();
+        if (Aggregate.isFunction(name) && _input.nextIf("(")) {
+            String argument = null;
+            if (!_input.nextIf("*")) {
+                argument = columnName();
+            }
+            _input.next(")");
+            Aggregate agg = new Aggregate(name, argument);
+            aggregates.add(agg);
+            titles.add(agg.getName());
+        } else {
+            titles.add(name);
         }
-        return result;
     }
 
     /** Parse and return a valid name (identifier) from the token stream. */
@@ -318,6 +767,38 @@ class CommandInterpreter {
         return table;
     }
 
+    /** Parse a table name, optionally followed by a sampling clause,
+     *      tablesample ( <percent> percent ) [ repeatable ( <seed> ) ],
+     *  and return the Table it designates or, if there is a sampling
+     *  clause, a sample of about that percentage of its rows.  Without a
+     *  repeatable seed, each sample is different. */
+    Table sampledTableName() {
+        Table table = tableName();
+        if (!_input.nextIf("tablesample")) {
+            return table;
+        }
+        _input.next("(");
+        String percent = _input.next(Tokenizer.DECIMAL);
+        _input.next("percent");
+        _input.next(")");
+        double fraction = Double.parseDouble(percent) / 100;
+        if (fraction > 1) {
+            throw error("cannot sample more than 100 percent");
+        }
+        long seed = ThreadLocalRandom.current().nextLong();
+        if (_input.nextIf("repeatable")) {
+            _input.next("(");
+            String number = _input.next(Tokenizer.NUMBER);
+            try {
+                seed = Long.parseLong(number);
+            } catch (NumberFormatException excp) {
+                throw error("invalid seed: %s", number);
+            }
+            _input.next(")");
+        }
+        return table.sample(fraction, seed);
+    }
+
     /** Parse a literal and return the string it represents (i.e., without
      *  single quotes). */
     String literal() {
@@ -372,4 +853,8 @@ class CommandInterpreter {
     private Tokenizer _input;
     /** Database containing all tables. */
     private Database _database;
+    /** Where results are printed. */
+    private final PrintStream _out;
+    /** True iff I install finished compactions before each statement. */
+    private final boolean _install;
 }
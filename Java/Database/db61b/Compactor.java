@@ -0,0 +1,78 @@
+package db61b;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/** Runs Table compactions on a background thread.  A compaction is
+ *  built while statements continue to use the table, and is installed
+ *  by install(), which the command interpreter calls before each
+ *  statement, when no table is being read.  In batch mode, where other
+ *  statements may be running, a statement instead installs only the
+ *  compactions of the tables it alone may use.
+ *  @author Wenqu Wang */
+class Compactor {
+
+    /** Start building COMPACTION in the background. */
+    static void start(Table.Compaction compaction) {
+        PENDING.add(EXECUTOR.submit(() -> {
+            try {
+                compaction.run();
+            } finally {
+                DONE.add(compaction);
+            }
+        }));
+    }
+
+    /** Install every compaction that has finished building. */
+    static void install() {
+        Table.Compaction compaction;
+        while ((compaction = DONE.poll()) != null) {
+            compaction.install();
+        }
+        PENDING.removeIf(Future::isDone);
+    }
+
+    /** Install every compaction that has finished building of one of
+     *  TABLES, which no other statement may be using. */
+    static void install(Collection<Table> tables) {
+        for (Table.Compaction compaction : DONE) {
+            if (tables.contains(compaction.table())
+                && DONE.remove(compaction)) {
+                compaction.install();
+            }
+        }
+    }
+
+    /** Wait for every compaction started so far to finish building, and
+     *  install them all. */
+    static void finish() {
+        for (Future<?> task : new ArrayList<>(PENDING)) {
+            try {
+                task.get();
+            } catch (InterruptedException | ExecutionException excp) {
+                /* The table is left uncompacted. */
+            }
+        }
+        install();
+    }
+
+    /** Compactions started and not yet found to be done.  Concurrent,
+     *  since statements run in parallel in batch mode. */
+    private static final ConcurrentLinkedQueue<Future<?>> PENDING =
+        new ConcurrentLinkedQueue<>();
+    /** Compactions that are ready to be installed. */
+    private static final ConcurrentLinkedQueue<Table.Compaction> DONE =
+        new ConcurrentLinkedQueue<>();
+    /** The thread that builds compactions. */
+    private static final ExecutorService EXECUTOR =
+        Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "db61b-compactor");
+            thread.setDaemon(true);
+            return thread;
+        });
+}
@@ -9,7 +9,7 @@ class Condition {
 
     /** A Condition representing COL1 RELATION COL2, where COL1 and COL2
      *  are column designators. and RELATION is one of the
-     *  strings "<", ">", "<=", ">=", "=", or "!=". */
+     *  strings "<", ">", "<=", ">=", "=", "!=", or "like". */
     Condition(Column col1, String relation, Column col2) {
         _col1 = col1;
         _col2 = col2;
@@ -19,48 +19,124 @@ class Condition {
     /** A Condition representing COL1 RELATION 'VAL2', where COL1 is
      *  a column designator, VAL2 is a literal value (without the
      *  quotes), and RELATION is one of the strings "<", ">", "<=",
-     *  ">=", "=", or "!=".
+     *  ">=", "=", "!=", or "like".
      */
     Condition(Column col1, String relation, String val2) {
         this(col1, relation, (Column) null);
         _val2 = val2;
     }
 
-    /** Assuming that ROWS are row indices in the respective tables
-     *  from which my columns are selected, returns the result of
-     *  performing the test I denote. */
-    boolean test(Integer... rows) {
-        if (_val2 == null) {
-            switch (_relation) {
-            case("=") : return _col1.getFrom(rows).compareTo(
-                    _col2.getFrom(rows)) == 0;
-            case("!=") : return _col1.getFrom(rows).compareTo(
-                    _col2.getFrom(rows)) != 0;
-            case("<") : return _col1.getFrom(rows).compareTo(
-                    _col2.getFrom(rows)) < 0;
-            case(">") : return _col1.getFrom(rows).compareTo(
-                    _col2.getFrom(rows)) > 0;
-            case("<=") : return _col1.getFrom(rows).compareTo(
-                    _col2.getFrom(rows)) <= 0;
-            case(">=") : return _col1.getFrom(rows).compareTo(
-                    _col2.getFrom(rows)) >= 0;
-            default: throw  new Error("Unknown command");
-            }
-        } else {
-            switch (_relation) {
-            case("=") : return _col1.getFrom(rows).compareTo(_val2) == 0;
-            case("!=") : return _col1.getFrom(rows).compareTo(_val2) != 0;
-            case("<") : return _col1.getFrom(rows).compareTo(_val2) < 0;
-            case(">") : return _col1.getFrom(rows).compareTo(_val2) > 0;
-            case("<=") : return _col1.getFrom(rows).compareTo(_val2) <= 0;
-            case(">=") : return _col1.getFrom(rows).compareTo(_val2) >= 0;
-            default: throw  new Error("Unknown command");
+    /** Assuming that ROWS is a cursor over the tables from which my
+     *  columns are selected, returns the result of performing the test I
+     *  denote on the rows at which it stands. */
+    boolean test(Cursor rows) {
+        return holds(_col1.get(rows),
+                     _val2 == null ? _col2.get(rows) : _val2);
+    }
+
+    /** Return true iff VALUE1 RELATION VALUE2, where VALUE1 and VALUE2
+     *  are the values of my operands. */
+    boolean holds(String value1, String value2) {
+        switch (_relation) {
+        case("=") : return value1.compareTo(value2) == 0;
+        case("!=") : return value1.compareTo(value2) != 0;
+        case("<") : return value1.compareTo(value2) < 0;
+        case(">") : return value1.compareTo(value2) > 0;
+        case("<=") : return value1.compareTo(value2) <= 0;
+        case(">=") : return value1.compareTo(value2) >= 0;
+        case("like") : return like(value1, value2);
+        default: throw  new Error("Unknown command");
+        }
+    }
+
+    /** Return true iff VALUE matches PATTERN, in which % matches any
+     *  sequence of characters, _ matches any one character, and every
+     *  other character matches itself. */
+    static boolean like(String value, String pattern) {
+        int v = 0, p = 0;
+        int star = -1, mark = 0;
+        while (v < value.length()) {
+            if (p < pattern.length() && (pattern.charAt(p) == '_'
+                                         || pattern.charAt(p)
+                                            == value.charAt(v))) {
+                v += 1;
+                p += 1;
+            } else if (p < pattern.length() && pattern.charAt(p) == '%') {
+                star = p;
+                mark = v;
+                p += 1;
+            } else if (star >= 0) {
+                p = star + 1;
+                mark += 1;
+                v = mark;
+            } else {
+                return false;
             }
         }
+        while (p < pattern.length() && pattern.charAt(p) == '%') {
+            p += 1;
+        }
+        return p == pattern.length();
+    }
+
+    /** Return the characters of PATTERN (as for like) before its first
+     *  % or _, with which every value it matches begins. */
+    static String prefix(String pattern) {
+        int end = 0;
+        while (end < pattern.length() && pattern.charAt(end) != '%'
+               && pattern.charAt(end) != '_') {
+            end += 1;
+        }
+        return pattern.substring(0, end);
+    }
+
+    /** Return the least string that is greater than every string that
+     *  begins with PREFIX, or null if there is none. */
+    static String successor(String prefix) {
+        int end = prefix.length();
+        while (end > 0 && prefix.charAt(end - 1) == Character.MAX_VALUE) {
+            end -= 1;
+        }
+        if (end == 0) {
+            return null;
+        }
+        return prefix.substring(0, end - 1)
+            + (char) (prefix.charAt(end - 1) + 1);
+    }
+
+    /** Return my first operand. */
+    Column getColumn() {
+        return _col1;
+    }
+
+    /** Return my second operand if it is a column, and otherwise null. */
+    Column getColumn2() {
+        return _col2;
+    }
+
+    /** Return my relation. */
+    String getRelation() {
+        return _relation;
+    }
+
+    /** Return my second operand if it is a literal, and otherwise null. */
+    String getLiteral() {
+        return _val2;
+    }
+
+    /** Return a bit mask in which bit K is set iff one of my operands is
+     *  a column of the Kth table from which my columns are selected. */
+    int tables() {
+        int mask = 1 << _col1.getTableIndex();
+        if (_col2 != null) {
+            mask |= 1 << _col2.getTableIndex();
+        }
+        return mask;
     }
 
-    /** Return true iff ROWS satisfies all CONDITIONS. */
-    static boolean test(List<Condition> conditions, Integer... rows) {
+    /** Return true iff the rows at which ROWS stands satisfy all
+     *  CONDITIONS. */
+    static boolean test(List<Condition> conditions, Cursor rows) {
         for (Condition cond : conditions) {
             if (!cond.test(rows)) {
                 return false;
@@ -0,0 +1,199 @@
+package db61b;
+
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+
+/** An adaptive index on one column of a Table, built up as a side effect
+ *  of the queries that use it ("database cracking").  It keeps a copy of
+ *  the column's values, each with its row number, in an array that
+ *  starts out in row order.  Each lookup of a range of values cracks the
+ *  array at the range's bounds: it partitions just the piece of the
+ *  array containing each bound so that the values below the bound come
+ *  first, and remembers where the bound fell.  The rows in the range are
+ *  then a contiguous stretch of the array.  The first lookup examines the
+ *  whole column, like a scan; later ones examine only the pieces their
+ *  bounds fall in, which shrink as lookups accumulate, so that a
+ *  repeated or nearby query costs little more than an index lookup while
+ *  columns no query constrains are never reorganized.  Every bound is a
+ *  string B standing for "less than B"; "at most B" is "less than B
+ *  followed by the character 0", the least string greater than B.
+ *  Rows added to the table after the array was built are checked
+ *  individually until there are enough of them to be worth merging into
+ *  their pieces, which keeps every crack.  Deleted rows remain until the
+ *  table is compacted, when the table starts a new Cracker.
+ *  @author Wenqu Wang */
+class Cracker {
+
+    /** An adaptive index on column number COLUMN of TABLE. */
+    Cracker(Table table, int column) {
+        _table = table;
+        _column = column;
+        merge();
+    }
+
+    /** Return the range of values V that satisfy V RELATION LITERAL, where
+     *  RELATION is one of "=", "<", ">", "<=", ">=", or "like", as an
+     *  array {LO, HI} of bounds such that LO <= V < HI, where a null
+     *  bound is no bound.  For like, the range is that of the values with
+     *  LITERAL's prefix, which includes every value that matches it.
+     *  Return null for any other relation. */
+    static String[] range(String relation, String literal) {
+        switch (relation) {
+        case "=":
+            return new String[] { literal, literal + '\0' };
+        case "<":
+            return new String[] { null, literal };
+        case "<=":
+            return new String[] { null, literal + '\0' };
+        case ">":
+            return new String[] { literal + '\0', null };
+        case ">=":
+            return new String[] { literal, null };
+        case "like":
+            String prefix = Condition.prefix(literal);
+            return new String[] { prefix, Condition.successor(prefix) };
+        default:
+            return null;
+        }
+    }
+
+    /** Return the rows whose values V satisfy LO <= V < HI, where a null
+     *  bound is no bound, cracking the column at the bounds.  The result
+     *  includes deleted rows. */
+    synchronized Bitmap lookup(String lo, String hi) {
+        Bitmap result = new Bitmap();
+        if (lo != null && hi != null && lo.compareTo(hi) >= 0) {
+            return result;
+        }
+        if (_table.size() - _size > Math.max(MERGE_MIN, _size / 8)) {
+            merge();
+        }
+        _examined = 0;
+        int start = lo == null ? 0 : crack(lo);
+        int end = hi == null ? _size : crack(hi);
+        int[] rows = Arrays.copyOfRange(_rows, start, end);
+        Arrays.sort(rows);
+        for (int row : rows) {
+            result.add(row);
+        }
+        for (int row = _size; row < _table.size(); row += 1) {
+            String value = _table.get(row, _column);
+            if ((lo == null || value.compareTo(lo) >= 0)
+                && (hi == null || value.compareTo(hi) < 0)) {
+                result.add(row);
+            }
+        }
+        _lookups += 1;
+        Stats.count("crack.lookups", 1);
+        Stats.count("crack.examined", _examined);
+        return result;
+    }
+
+    /** Return the position in my array before which every value is less
+     *  than BOUND and from which every value is not, partitioning the
+     *  piece that BOUND falls in if it has not been cracked at BOUND. */
+    private int crack(String bound) {
+        Integer known = _cracks.get(bound);
+        if (known != null) {
+            return known;
+        }
+        Map.Entry<String, Integer> below = _cracks.lowerEntry(bound);
+        Map.Entry<String, Integer> above = _cracks.higherEntry(bound);
+        int i = below == null ? 0 : below.getValue();
+        int j = (above == null ? _size : above.getValue()) - 1;
+        _examined += j - i + 1;
+        while (i <= j) {
+            if (_values[i].compareTo(bound) < 0) {
+                i += 1;
+            } else {
+                String value = _values[i];
+                _values[i] = _values[j];
+                _values[j] = value;
+                int row = _rows[i];
+                _rows[i] = _rows[j];
+                _rows[j] = row;
+                j -= 1;
+            }
+        }
+        _cracks.put(bound, i);
+        return i;
+    }
+
+    /** Add the rows of my table that are not yet in my array to the ends
+     *  of the pieces they belong in, moving the later pieces along. */
+    private void merge() {
+        int n = _table.size();
+        String[] bounds = _cracks.keySet().toArray(new String[0]);
+        int[] added = new int[bounds.length + 1];
+        int[] pieces = new int[n - _size];
+        for (int row = _size; row < n; row += 1) {
+            int p = Arrays.binarySearch(bounds, _table.get(row, _column));
+            p = p >= 0 ? p + 1 : -p - 1;
+            pieces[row - _size] = p;
+            added[p] += 1;
+        }
+        int[] ends = new int[bounds.length + 1];
+        for (int p = 0; p < bounds.length; p += 1) {
+            ends[p] = _cracks.get(bounds[p]);
+        }
+        ends[bounds.length] = _size;
+        String[] values = new String[n];
+        int[] rows = new int[n];
+        int[] next = new int[bounds.length + 1];
+        int from = 0, to = 0;
+        for (int p = 0; p <= bounds.length; p += 1) {
+            int length = ends[p] - from;
+            System.arraycopy(_values, from, values, to, length);
+            System.arraycopy(_rows, from, rows, to, length);
+            next[p] = to + length;
+            from = ends[p];
+            to += length + added[p];
+            if (p < bounds.length) {
+                _cracks.put(bounds[p], to);
+            }
+        }
+        for (int row = _size; row < n; row += 1) {
+            int p = pieces[row - _size];
+            values[next[p]] = _table.get(row, _column);
+            rows[next[p]] = row;
+            next[p] += 1;
+        }
+        Stats.count("crack.merged", n - _size);
+        _values = values;
+        _rows = rows;
+        _size = n;
+    }
+
+    /** Return the number of pieces into which my array is cracked. */
+    synchronized int pieces() {
+        return _cracks.size() + 1;
+    }
+
+    /** Print a line describing my progress on OUT, naming me NAME. */
+    synchronized void print(PrintStream out, String name) {
+        out.printf("  %-24s %10d %8d %8d %12d%n", name, _size, pieces(),
+                   _lookups, _examined);
+    }
+
+    /** Number of added rows always worth checking individually rather
+     *  than merging. */
+    private static final int MERGE_MIN = 1024;
+
+    /** The table and column I index. */
+    private final Table _table;
+    private final int _column;
+    /** The values in my array and their row numbers. */
+    private String[] _values = new String[0];
+    private int[] _rows = new int[0];
+    /** Number of rows in my array: the table's first _size rows. */
+    private int _size;
+    /** The position of each bound at which the array has been
+     *  cracked. */
+    private final TreeMap<String, Integer> _cracks = new TreeMap<>();
+    /** Number of lookups. */
+    private long _lookups;
+    /** Number of entries examined by the last lookup. */
+    private long _examined;
+}
@@ -0,0 +1,45 @@
+package db61b;
+
+/** A position in a scan of one or more tables: one row number for each
+ *  table, in the order in which the tables were given to the Columns
+ *  that read from it.  The operator driving a scan keeps a single Cursor,
+ *  moves it from one combination of rows to the next, and hands it to
+ *  the Columns and Conditions it evaluates, so that examining a value
+ *  neither boxes a row number nor allocates an array of them.  A Cursor
+ *  belongs to one scan and is not shared between threads.
+ *  @author Wenqu Wang */
+class Cursor {
+
+    /** A cursor over TABLES tables, at row 0 of each. */
+    Cursor(int tables) {
+        _rows = new int[tables];
+    }
+
+    /** Move to row ROW of my first table, and return me. */
+    Cursor at(int row) {
+        _rows[0] = row;
+        return this;
+    }
+
+    /** Move to row ROW1 of my first table and ROW2 of my second, and
+     *  return me. */
+    Cursor at(int row1, int row2) {
+        _rows[0] = row1;
+        _rows[1] = row2;
+        return this;
+    }
+
+    /** Move to row ROW of my Kth table, and return me. */
+    Cursor set(int k, int row) {
+        _rows[k] = row;
+        return this;
+    }
+
+    /** Return my row of my Kth table. */
+    int row(int k) {
+        return _rows[k];
+    }
+
+    /** My row of each table. */
+    private final int[] _rows;
+}
@@ -1,14 +1,17 @@
 
 package db61b;
 
-import java.util.HashMap;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
 /** A collection of Tables, indexed by name.
  *  @author Wenqu Wang */
 class Database {
 
     /** An empty database. */
     public Database() {
-        tables =  new HashMap<>();
+        tables =  new ConcurrentHashMap<>();
     }
 
     /** Return the Table whose name is NAME stored in this database, or null
@@ -30,7 +33,17 @@ class Database {
         Table t1 = Table.readTable(name);
         put(name, t1);
     }
-    /** Tables in the database. */
-    private HashMap<String, Table> tables;
+    /** Remove all tables from this database. */
+    public void clear() {
+        tables.clear();
+    }
+    /** Return the names of all tables in this database, in sorted
+     *  order. */
+    public Set<String> names() {
+        return new TreeSet<>(tables.keySet());
+    }
+    /** Tables in the database.  Concurrent, since the statistics
+     *  MXBean reads it from other threads. */
+    private ConcurrentHashMap<String, Table> tables;
 
 }
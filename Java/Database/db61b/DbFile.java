@@ -0,0 +1,228 @@
+package db61b;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+import static db61b.Utils.*;
+
+/** A .db file mapped into memory, from which the values of one column at
+ *  a time can be decoded.  Opening one reads the header and makes one
+ *  pass over the bytes of the rest, recording where each row starts and
+ *  dropping rows equal to earlier ones, without creating any Strings.
+ *  The rows are checked to have as many values as the header has
+ *  titles, counted as String.split counts them, so that a table loaded
+ *  from me has exactly the rows it would have if each line were split
+ *  and added.  The file must not change while I am in use.
+ *  @author Wenqu Wang */
+class DbFile implements TableFile {
+
+    /** The file NAME, which must be no larger than MAX_BYTES. */
+    DbFile(String name) {
+        try (RandomAccessFile file = new RandomAccessFile(name, "r")) {
+            if (file.length() > MAX_BYTES) {
+                throw error("%s is too large to map", name);
+            }
+            _bytes = file.getChannel().map(FileChannel.MapMode.READ_ONLY,
+                                           0, file.length());
+        } catch (IOException excp) {
+            throw error("could not find %s", name);
+        }
+        int end = lineEnd(0);
+        if (end == 0 && _bytes.limit() == 0) {
+            throw error("missing header in DB file");
+        }
+        _titles = decode(0, end).split(",");
+        scan(nextLine(end));
+    }
+
+    /** Return true iff the file NAME could be mapped by a DbFile. */
+    static boolean fits(String name) {
+        return new File(name).length() <= MAX_BYTES;
+    }
+
+    @Override
+    public String[] titles() {
+        return _titles;
+    }
+
+    @Override
+    public int rows() {
+        return _rows;
+    }
+
+    @Override
+    public long length() {
+        return _bytes.limit();
+    }
+
+    @Override
+    public void decode(int column, ColumnValues values) {
+        long start = System.nanoTime();
+        for (int r = 0; r < _rows; r += 1) {
+            int p = _starts[r];
+            for (int c = 0; c < column; c += 1) {
+                while (_bytes.get(p) != ',') {
+                    p += 1;
+                }
+                p += 1;
+            }
+            int q = p;
+            while (q < _bytes.limit() && !isEnd(_bytes.get(q))
+                   && _bytes.get(q) != ',') {
+                q += 1;
+            }
+            values.add(decode(p, q));
+        }
+        Stats.count("load.columns", 1);
+        Stats.time("op.decode", start);
+    }
+
+    /** Record the start of each distinct row among the lines from
+     *  position P on. */
+    private void scan(int p) {
+        _starts = new int[16];
+        int[] slots = new int[32];
+        int[] ends = new int[16];
+        while (p < _bytes.limit()) {
+            int end = lineEnd(p);
+            int valueEnd = valuesEnd(p, end);
+            int hash = hash(p, valueEnd);
+            int mask = slots.length - 1;
+            int s = hash & mask;
+            boolean duplicate = false;
+            while (slots[s] != 0) {
+                int r = slots[s] - 1;
+                if (same(_starts[r], ends[r], p, valueEnd)) {
+                    duplicate = true;
+                    break;
+                }
+                s = (s + 1) & mask;
+            }
+            if (!duplicate) {
+                if (_rows == _starts.length) {
+                    _starts = Arrays.copyOf(_starts, 2 * _rows);
+                    ends = Arrays.copyOf(ends, 2 * _rows);
+                }
+                _starts[_rows] = p;
+                ends[_rows] = valueEnd;
+                _rows += 1;
+                slots[s] = _rows;
+                if (2 * _rows > slots.length) {
+                    slots = rehash(slots.length * 2, ends);
+                }
+            }
+            p = nextLine(end);
+        }
+        _starts = Arrays.copyOf(_starts, _rows);
+    }
+
+    /** Return the position just past the last value of the line from P
+     *  to END, dropping the empty values that String.split would drop
+     *  from its end, after checking that it has one value per title. */
+    private int valuesEnd(int p, int end) {
+        int values = 1, q = end;
+        for (int i = p; i < end; i += 1) {
+            if (_bytes.get(i) == ',') {
+                values += 1;
+            }
+        }
+        while (q > p && _bytes.get(q - 1) == ',') {
+            q -= 1;
+            values -= 1;
+        }
+        if (q == p && end > p) {
+            values = 0;
+        }
+        if (values != _titles.length) {
+            throw error("The added row does not match the length of rows");
+        }
+        return q;
+    }
+
+    /** Return a hash table of size SIZE holding my rows so far, whose
+     *  values end at ENDS. */
+    private int[] rehash(int size, int[] ends) {
+        int[] slots = new int[size];
+        for (int r = 0; r < _rows; r += 1) {
+            int s = hash(_starts[r], ends[r]) & (size - 1);
+            while (slots[s] != 0) {
+                s = (s + 1) & (size - 1);
+            }
+            slots[s] = r + 1;
+        }
+        return slots;
+    }
+
+    /** Return a hash of the bytes from P to END. */
+    private int hash(int p, int end) {
+        int h = 0;
+        for (int i = p; i < end; i += 1) {
+            h = 31 * h + _bytes.get(i);
+        }
+        return h ^ (h >>> 16);
+    }
+
+    /** Return true iff the bytes from P1 to END1 are those from P2 to
+     *  END2. */
+    private boolean same(int p1, int end1, int p2, int end2) {
+        if (end1 - p1 != end2 - p2) {
+            return false;
+        }
+        for (int i = 0; i < end1 - p1; i += 1) {
+            if (_bytes.get(p1 + i) != _bytes.get(p2 + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Return the position of the end of the line starting at P. */
+    private int lineEnd(int p) {
+        while (p < _bytes.limit() && !isEnd(_bytes.get(p))) {
+            p += 1;
+        }
+        return p;
+    }
+
+    /** Return the start of the line after the one ending at END. */
+    private int nextLine(int end) {
+        if (end < _bytes.limit() && _bytes.get(end) == '\r') {
+            end += 1;
+        }
+        if (end < _bytes.limit() && _bytes.get(end) == '\n') {
+            end += 1;
+        }
+        return end;
+    }
+
+    /** Return true iff B ends a line. */
+    private static boolean isEnd(byte b) {
+        return b == '\n' || b == '\r';
+    }
+
+    /** Return the String whose encoding is the bytes from P to END. */
+    private String decode(int p, int end) {
+        byte[] bytes = new byte[end - p];
+        _bytes.get(p, bytes);
+        return new String(bytes, CHARSET);
+    }
+
+    /** Largest file that can be mapped. */
+    private static final long MAX_BYTES = Integer.MAX_VALUE;
+    /** The encoding of .db files, as for a FileReader. */
+    private static final Charset CHARSET = Charset.defaultCharset();
+
+    /** The contents of my file. */
+    private final MappedByteBuffer _bytes;
+    /** My column titles. */
+    private final String[] _titles;
+    /** The position of the start of each row. */
+    private int[] _starts;
+    /** Number of rows. */
+    private int _rows;
+}
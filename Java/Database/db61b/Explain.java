@@ -0,0 +1,62 @@
+package db61b;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/** Collects the plan of the statement being explained.  While a thread
+ *  is running an 'explain' statement, the operators it executes record
+ *  what they did (which indexes and filters they used, how many rows
+ *  they examined) with note; at other times note does nothing.
+ *  @author Wenqu Wang */
+class Explain {
+
+    /** Start recording notes on the current thread. */
+    static void begin() {
+        NOTES.set(new ArrayList<>());
+    }
+
+    /** Stop recording notes on the current thread and return those
+     *  recorded since begin(). */
+    static List<String> end() {
+        List<String> notes = NOTES.get();
+        NOTES.remove();
+        return notes == null ? new ArrayList<>() : notes;
+    }
+
+    /** Stop recording notes on the current thread until resume is called
+     *  with the result, which is null if none were being recorded.  Used
+     *  while the current thread runs work shared with other threads,
+     *  whose notes would otherwise depend on which thread ran what. */
+    static List<String> suspend() {
+        List<String> notes = NOTES.get();
+        NOTES.remove();
+        return notes;
+    }
+
+    /** Resume recording notes on the current thread after suspend, which
+     *  returned NOTES. */
+    static void resume(List<String> notes) {
+        if (notes != null) {
+            NOTES.set(notes);
+        }
+    }
+
+    /** Return true iff notes are being recorded on the current thread.
+     *  Callers use this to avoid computing the arguments of unneeded
+     *  notes. */
+    static boolean active() {
+        return NOTES.get() != null;
+    }
+
+    /** If notes are being recorded, record String.format(FORMAT, ARGS). */
+    static void note(String format, Object... args) {
+        List<String> notes = NOTES.get();
+        if (notes != null) {
+            notes.add(String.format(format, args));
+        }
+    }
+
+    /** The notes of each thread that is explaining a statement. */
+    private static final ThreadLocal<List<String>> NOTES =
+        new ThreadLocal<>();
+}
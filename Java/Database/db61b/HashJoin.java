@@ -0,0 +1,452 @@
+package db61b;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import static db61b.Utils.*;
+
+/** The equijoin operator used by Table.scan when the two tables of a
+ *  select share column names.  The smaller side (the build side) is
+ *  loaded into a chained hash table on the hashes of its join keys, and
+ *  the other side probes it.  The hash table costs about BUILD_ROW_BYTES
+ *  per build row; when that would exceed MEMORY_BUDGET (the system
+ *  property db61b.joinMemory, in bytes), the join becomes a grace hash
+ *  join: both sides are partitioned by key hash into FANOUT temporary
+ *  files, and each pair of partitions is joined in turn.  A build
+ *  partition that is still too large is partitioned again on other bits
+ *  of the hash, up to MAX_DEPTH levels; beyond that (when most rows share
+ *  one key) it is joined in budget-sized chunks, each probed by a pass
+ *  over the probe partition.
+ *  @author Wenqu Wang */
+class HashJoin {
+
+    /** Maximum bytes of hash table held in memory by one join. */
+    static final long MEMORY_BUDGET =
+        Long.getLong("db61b.joinMemory", 64L << 20);
+    /** Approximate bytes of hash table per build row: its row number,
+     *  hash, chain link, and share of the bucket array. */
+    static final int BUILD_ROW_BYTES = 24;
+    /** Number of partitions made at each level of a grace join. */
+    static final int FANOUT = 16;
+    /** Maximum number of times a partition is partitioned again. */
+    static final int MAX_DEPTH = 4;
+
+    /** A join of the rows of two tables whose values in columns KEYS1
+     *  and KEYS2, respectively, are equal and that satisfy CONDITIONS,
+     *  passing each pair to VISITOR and holding at most BUDGET bytes of
+     *  hash table in memory. */
+    HashJoin(List<Column> keys1, List<Column> keys2,
+             List<Condition> conditions, Table.RowVisitor visitor,
+             long budget) {
+        _keys1 = keys1;
+        _keys2 = keys2;
+        _conditions = conditions;
+        _visitor = visitor;
+        _maxBuildRows = (int) Math.max(1, Math.min(Integer.MAX_VALUE - 8,
+                                                   budget
+                                                   / BUILD_ROW_BYTES));
+    }
+
+    /** Join the rows ROWS1 of the first table with the rows ROWS2 of the
+     *  second.  Return false iff the visitor asked to stop. */
+    boolean join(int[] rows1, int[] rows2) {
+        _buildFirst = rows1.length <= rows2.length;
+        int[] build = _buildFirst ? rows1 : rows2;
+        int[] probe = _buildFirst ? rows2 : rows1;
+        List<Column> buildKeys = _buildFirst ? _keys1 : _keys2;
+        List<Column> probeKeys = _buildFirst ? _keys2 : _keys1;
+        String side = _buildFirst ? "first" : "second";
+        try {
+            if (build.length <= _maxBuildRows) {
+                Stats.count("join.hash", 1);
+                Explain.note("hash join: built on %d rows of the %s table",
+                             build.length, side);
+                long[] hashes = new long[build.length];
+                for (int i = 0; i < build.length; i += 1) {
+                    hashes[i] = hash(buildKeys, build[i]);
+                }
+                return probe(new BuildTable(build, hashes),
+                             new ArrayInput(probe, probeKeys));
+            }
+            Stats.count("join.grace", 1);
+            Explain.note("grace hash join: %d rows of the %s table exceed "
+                         + "a budget of %d rows", build.length, side,
+                         _maxBuildRows);
+            return join(Partition.split(new ArrayInput(build, buildKeys),
+                                        new ArrayInput(probe, probeKeys),
+                                        0), 1);
+        } catch (IOException excp) {
+            throw error("could not spill join partition: %s",
+                        excp.getMessage());
+        }
+    }
+
+    /** Join each of PARTS, formed at partitioning depth LEVEL - 1, and
+     *  delete them.  Return false iff the visitor asked to stop. */
+    private boolean join(Partition[] parts, int level) throws IOException {
+        try {
+            for (Partition part : parts) {
+                if (!join(part, level)) {
+                    return false;
+                }
+            }
+            return true;
+        } finally {
+            for (Partition part : parts) {
+                part.delete();
+            }
+        }
+    }
+
+    /** Join the build and probe rows of PART, which was formed at
+     *  partitioning depth LEVEL - 1.  Return false iff the visitor asked to
+     *  stop. */
+    private boolean join(Partition part, int level) throws IOException {
+        if (part._buildRows == 0 || part._probeRows == 0) {
+            return true;
+        }
+        if (part._buildRows <= _maxBuildRows) {
+            try (RowInput build = part.build()) {
+                BuildTable table =
+                    BuildTable.read(build, (int) part._buildRows);
+                try (RowInput probe = part.probe()) {
+                    return probe(table, probe);
+                }
+            }
+        }
+        if (level < MAX_DEPTH) {
+            RowInput build = part.build();
+            try (RowInput probe = part.probe()) {
+                return join(Partition.split(build, probe, level), level + 1);
+            } finally {
+                build.close();
+            }
+        }
+        Stats.count("join.chunked", 1);
+        try (RowInput build = part.build()) {
+            for (long n = part._buildRows; n > 0; n -= _maxBuildRows) {
+                int size = (int) Math.min(n, _maxBuildRows);
+                BuildTable table = BuildTable.read(build, size);
+                try (RowInput probe = part.probe()) {
+                    if (!probe(table, probe)) {
+                        return false;
+                    }
+                }
+            }
+        }
+        return true;
+    }
+
+    /** Look up each row from PROBE in TABLE, passing matching pairs that
+     *  satisfy my conditions to my visitor.  Return false iff the
+     *  visitor asked to stop. */
+    private boolean probe(BuildTable table, RowInput probe)
+        throws IOException {
+        while (probe.advance()) {
+            long hash = probe.hash();
+            int row = probe.row();
+            for (int e = table.first(hash); e >= 0; e = table._next[e]) {
+                if (table._hashes[e] != hash) {
+                    continue;
+                }
+                int row1 = _buildFirst ? table._rows[e] : row;
+                int row2 = _buildFirst ? row : table._rows[e];
+                if (Table.equijoin(_keys1, _keys2, row1, row2)
+                    && Condition.test(_conditions, _cursor.at(row1, row2))
+                    && !_visitor.visit(_cursor)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /** Return the hash of the values of the columns KEYS in ROW of their
+     *  table, with its bits well mixed. */
+    private static long hash(List<Column> keys, int row) {
+        long h = Table.keyHash(keys, row);
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    /** An in-memory chained hash table of build rows. */
+    private static class BuildTable {
+
+        /** A table holding the rows ROWS, whose hashes are HASHES. */
+        BuildTable(int[] rows, long[] hashes) {
+            int n = rows.length;
+            _rows = rows;
+            _hashes = hashes;
+            _next = new int[n];
+            _buckets = new int[Integer.highestOneBit(Math.max(1, n)) << 1];
+            Arrays.fill(_buckets, -1);
+            for (int e = 0; e < n; e += 1) {
+                int b = bucket(_hashes[e]);
+                _next[e] = _buckets[b];
+                _buckets[b] = e;
+            }
+        }
+
+        /** Return a table holding the next N rows from INPUT. */
+        static BuildTable read(RowInput input, int n) throws IOException {
+            int[] rows = new int[n];
+            long[] hashes = new long[n];
+            for (int i = 0; i < n; i += 1) {
+                if (!input.advance()) {
+                    throw new EOFException("short join partition");
+                }
+                rows[i] = input.row();
+                hashes[i] = input.hash();
+            }
+            return new BuildTable(rows, hashes);
+        }
+
+        /** Return the first entry whose hash might be HASH, or -1. */
+        int first(long hash) {
+            return _buckets[bucket(hash)];
+        }
+
+        /** Return the bucket for HASH, taken from its high bits, which
+         *  are not used to choose partitions. */
+        private int bucket(long hash) {
+            return (int) (hash >>> 32) & (_buckets.length - 1);
+        }
+
+        /** Row numbers, hashes, and next entry in the same bucket (or -1)
+         *  of each entry. */
+        private final int[] _rows;
+        private final long[] _hashes;
+        private final int[] _next;
+        /** First entry in each bucket, or -1. */
+        private final int[] _buckets;
+    }
+
+    /** A sequence of (row number, key hash) pairs. */
+    private interface RowInput extends AutoCloseable {
+        /** Move to the next pair, returning false if there is none. */
+        boolean advance() throws IOException;
+
+        /** Return the row number of the current pair. */
+        int row();
+
+        /** Return the key hash of the current pair. */
+        long hash();
+
+        @Override
+        void close() throws IOException;
+    }
+
+    /** The rows in an array, whose hashes are computed as needed. */
+    private static class ArrayInput implements RowInput {
+        /** The pairs for ROWS, whose keys are KEYS. */
+        ArrayInput(int[] rows, List<Column> keys) {
+            _rows = rows;
+            _keys = keys;
+            _i = -1;
+        }
+
+        @Override
+        public boolean advance() {
+            _i += 1;
+            return _i < _rows.length;
+        }
+
+        @Override
+        public int row() {
+            return _rows[_i];
+        }
+
+        @Override
+        public long hash() {
+            return HashJoin.hash(_keys, _rows[_i]);
+        }
+
+        @Override
+        public void close() {
+        }
+
+        /** The rows. */
+        private final int[] _rows;
+        /** Their key columns. */
+        private final List<Column> _keys;
+        /** Index of the current row. */
+        private int _i;
+    }
+
+    /** The pairs in a partition file. */
+    private static class FileInput implements RowInput {
+        /** The pairs in FILE. */
+        FileInput(File file) throws IOException {
+            _in = new DataInputStream(new BufferedInputStream(
+                                          new FileInputStream(file)));
+        }
+
+        @Override
+        public boolean advance() throws IOException {
+            try {
+                _hash = _in.readLong();
+                _row = _in.readInt();
+                return true;
+            } catch (EOFException excp) {
+                return false;
+            }
+        }
+
+        @Override
+        public int row() {
+            return _row;
+        }
+
+        @Override
+        public long hash() {
+            return _hash;
+        }
+
+        @Override
+        public void close() throws IOException {
+            _in.close();
+        }
+
+        /** The file. */
+        private final DataInputStream _in;
+        /** The current pair. */
+        private int _row;
+        private long _hash;
+    }
+
+    /** The build and probe rows of one partition, spilled to temporary
+     *  files. */
+    private static class Partition {
+
+        /** An empty partition. */
+        Partition() throws IOException {
+            _buildFile = File.createTempFile("db61b", ".build");
+            _buildFile.deleteOnExit();
+            _probeFile = File.createTempFile("db61b", ".probe");
+            _probeFile.deleteOnExit();
+        }
+
+        /** Return my build rows. */
+        RowInput build() throws IOException {
+            return new FileInput(_buildFile);
+        }
+
+        /** Return my probe rows. */
+        RowInput probe() throws IOException {
+            return new FileInput(_probeFile);
+        }
+
+        /** Return FANOUT partitions of the pairs from BUILD and PROBE on
+         *  the bits of their hashes used at depth LEVEL. */
+        static Partition[] split(RowInput build, RowInput probe, int level)
+            throws IOException {
+            Partition[] parts = new Partition[FANOUT];
+            try {
+                for (int p = 0; p < FANOUT; p += 1) {
+                    parts[p] = new Partition();
+                }
+                long[] counts = new long[FANOUT];
+                split(build, level, parts, true, counts);
+                for (int p = 0; p < FANOUT; p += 1) {
+                    parts[p]._buildRows = counts[p];
+                }
+                counts = new long[FANOUT];
+                split(probe, level, parts, false, counts);
+                for (int p = 0; p < FANOUT; p += 1) {
+                    parts[p]._probeRows = counts[p];
+                }
+            } catch (IOException excp) {
+                for (Partition part : parts) {
+                    if (part != null) {
+                        part.delete();
+                    }
+                }
+                throw excp;
+            }
+            Stats.count("join.spilled.partitions", FANOUT);
+            return parts;
+        }
+
+        /** Distribute the pairs from INPUT among the build files (if
+         *  BUILD) or probe files of PARTS on the bits of their hashes
+         *  used at depth LEVEL, counting them in COUNTS. */
+        private static void split(RowInput input, int level,
+                                  Partition[] parts, boolean build,
+                                  long[] counts) throws IOException {
+            DataOutputStream[] outs = new DataOutputStream[FANOUT];
+            try {
+                for (int p = 0; p < FANOUT; p += 1) {
+                    File file = build ? parts[p]._buildFile
+                        : parts[p]._probeFile;
+                    outs[p] = open(file);
+                }
+                while (input.advance()) {
+                    long hash = input.hash();
+                    int p = (int) (hash >>> (level * PARTITION_BITS))
+                        & (FANOUT - 1);
+                    outs[p].writeLong(hash);
+                    outs[p].writeInt(input.row());
+                    counts[p] += 1;
+                }
+            } finally {
+                for (DataOutputStream out : outs) {
+                    if (out != null) {
+                        out.close();
+                    }
+                }
+            }
+            long n = 0;
+            for (long count : counts) {
+                n += count;
+            }
+            Stats.count("join.spill.bytes", n * PAIR_BYTES);
+        }
+
+        /** Return a buffered stream writing to FILE. */
+        private static DataOutputStream open(File file) throws IOException {
+            return new DataOutputStream(new BufferedOutputStream(
+                                            new FileOutputStream(file)));
+        }
+
+        /** Delete my files. */
+        void delete() {
+            _buildFile.delete();
+            _probeFile.delete();
+        }
+
+        /** Files holding my build and probe pairs. */
+        private final File _buildFile, _probeFile;
+        /** Number of build and probe pairs. */
+        private long _buildRows, _probeRows;
+    }
+
+    /** Number of hash bits used to choose among FANOUT partitions. */
+    private static final int PARTITION_BITS =
+        Integer.numberOfTrailingZeros(FANOUT);
+    /** Bytes per spilled pair. */
+    private static final int PAIR_BYTES = 12;
+
+    /** Key columns of the first and second tables. */
+    private final List<Column> _keys1, _keys2;
+    /** Conditions on pairs of rows, other than equality of keys. */
+    private final List<Condition> _conditions;
+    /** Receives matching pairs of rows. */
+    private final Table.RowVisitor _visitor;
+    /** Stands at the pair of rows being examined. */
+    private final Cursor _cursor = new Cursor(2);
+    /** Largest number of build rows held in memory at once. */
+    private final int _maxBuildRows;
+    /** True iff the build side is the first table. */
+    private boolean _buildFirst;
+}
@@ -0,0 +1,98 @@
+package db61b;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/** A concurrent histogram of non-negative long values (typically
+ *  latencies in nanoseconds) with log-linear buckets: each power of two
+ *  is split into SUB_BUCKETS equal buckets, so that reported percentiles
+ *  are within about 1/SUB_BUCKETS of the true value.  Recording a value
+ *  is a few arithmetic operations and one atomic increment.
+ *  @author Wenqu Wang */
+class Histogram {
+
+    /** Number of buckets per power of two (a power of two). */
+    static final int SUB_BUCKETS = 8;
+
+    /** Record VALUE, which must be non-negative. */
+    void record(long value) {
+        _counts.incrementAndGet(bucket(Math.max(0, value)));
+        _total.addAndGet(Math.max(0, value));
+        while (true) {
+            long max = _max.get();
+            if (value <= max || _max.compareAndSet(max, value)) {
+                break;
+            }
+        }
+    }
+
+    /** Return the number of values recorded. */
+    long count() {
+        long n = 0;
+        for (int b = 0; b < _counts.length(); b += 1) {
+            n += _counts.get(b);
+        }
+        return n;
+    }
+
+    /** Return the sum of the values recorded. */
+    long total() {
+        return _total.get();
+    }
+
+    /** Return the largest value recorded (0 if none). */
+    long max() {
+        return _max.get();
+    }
+
+    /** Return an upper bound on the Pth percentile (0 < P <= 100) of the
+     *  values recorded, or 0 if there are none. */
+    long percentile(double p) {
+        long n = count();
+        if (n == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(p / 100 * n));
+        long seen = 0;
+        for (int b = 0; b < _counts.length(); b += 1) {
+            seen += _counts.get(b);
+            if (seen >= rank) {
+                return Math.min(upperBound(b), max());
+            }
+        }
+        return max();
+    }
+
+    /** Return the bucket holding VALUE. */
+    private static int bucket(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exp = 63 - Long.numberOfLeadingZeros(value);
+        int shift = exp - SHIFT;
+        int sub = (int) (value >>> shift) & (SUB_BUCKETS - 1);
+        return (shift + 1) * SUB_BUCKETS + sub;
+    }
+
+    /** Return the largest value in bucket B. */
+    private static long upperBound(int b) {
+        if (b < SUB_BUCKETS) {
+            return b;
+        }
+        int shift = b / SUB_BUCKETS - 1;
+        long sub = b % SUB_BUCKETS;
+        return ((SUB_BUCKETS + sub + 1) << shift) - 1;
+    }
+
+    /** Log base 2 of SUB_BUCKETS. */
+    private static final int SHIFT =
+        Integer.numberOfTrailingZeros(SUB_BUCKETS);
+
+    /** Count of values in each bucket. */
+    private final AtomicLongArray _counts =
+        new AtomicLongArray((64 - SHIFT) * SUB_BUCKETS);
+    /** Sum of all values. */
+    private final AtomicLong _total = new AtomicLong();
+    /** Largest value. */
+    private final AtomicLong _max = new AtomicLong();
+}
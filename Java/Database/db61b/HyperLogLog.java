@@ -0,0 +1,72 @@
+package db61b;
+
+/** A HyperLogLog sketch, which estimates the number of distinct values
+ *  added to it in a fixed 4 KiB of memory, however many there are.  Each
+ *  value is hashed to 64 bits; the first P bits choose one of M = 2**P
+ *  registers, which keeps the greatest number of leading zeros (plus one)
+ *  seen in the remaining bits.  The harmonic mean of the registers then
+ *  gives an estimate whose standard error is about 1.04 / sqrt(M), or
+ *  1.6%.  Two sketches of disjoint inputs merge into a sketch of their
+ *  union by taking the maximum of each register, so partial sketches
+ *  built in parallel combine exactly.
+ *  @author Wenqu Wang */
+class HyperLogLog {
+
+    /** Number of bits of the hash that choose a register. */
+    static final int P = 12;
+    /** Number of registers. */
+    static final int M = 1 << P;
+
+    /** Record VALUE. */
+    void add(String value) {
+        long hash = hash(value);
+        int register = (int) (hash >>> (64 - P));
+        int rank = Long.numberOfLeadingZeros(hash << P | 1L << (P - 1)) + 1;
+        if (rank > _registers[register]) {
+            _registers[register] = (byte) rank;
+        }
+    }
+
+    /** Record every value recorded by OTHER. */
+    void merge(HyperLogLog other) {
+        for (int r = 0; r < M; r += 1) {
+            if (other._registers[r] > _registers[r]) {
+                _registers[r] = other._registers[r];
+            }
+        }
+    }
+
+    /** Return the estimated number of distinct values recorded. */
+    long estimate() {
+        double sum = 0;
+        int zeros = 0;
+        for (byte rank : _registers) {
+            sum += Math.scalb(1.0, -rank);
+            if (rank == 0) {
+                zeros += 1;
+            }
+        }
+        double estimate = ALPHA * M * M / sum;
+        if (estimate <= 2.5 * M && zeros > 0) {
+            estimate = M * Math.log((double) M / zeros);
+        }
+        return Math.round(estimate);
+    }
+
+    /** Return a 64-bit hash of VALUE whose bits are all well mixed. */
+    static long hash(String value) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < value.length(); i += 1) {
+            h = (h ^ value.charAt(i)) * 0x100000001b3L;
+        }
+        h = (h ^ (h >>> 33)) * 0xff51afd7ed558ccdL;
+        h = (h ^ (h >>> 33)) * 0xc4ceb9fe1a85ec53L;
+        return h ^ (h >>> 33);
+    }
+
+    /** Bias correction constant for M registers. */
+    private static final double ALPHA = 0.7213 / (1 + 1.079 / M);
+
+    /** The registers. */
+    private final byte[] _registers = new byte[M];
+}
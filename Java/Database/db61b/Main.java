@@ -1,5 +1,13 @@
 package db61b;
 
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Scanner;
 
 /** The main program for db61b.
@@ -12,8 +20,15 @@ public class Main {
 
     /** Starting with an empty database, read and execute commands from
      *  System.in until receiving a 'quit' ('exit') command or until
-     *  reaching the end of input. */
-    public static void main(String[] unused) {
+     *  reaching the end of input.  With the arguments --batch SCRIPT...,
+     *  instead run the scripts (or System.in, if there are none) in batch
+     *  mode: without prompts, with buffered output, and with independent
+     *  statements running concurrently. */
+    public static void main(String[] args) {
+        if (args.length > 0 && args[0].equals("--batch")) {
+            batch(args);
+            return;
+        }
         System.out.printf("DB61B System.  Version %s.%n", VERSION);
 
         Database db = new Database();
@@ -32,7 +47,28 @@ public class Main {
                 interpreter.skipCommand();
             }
         }
+        Storer.finish(System.out, false);
     }
 
-}
+    /** Run the scripts named by ARGS[1..] in batch mode. */
+    private static void batch(String[] args) {
+        List<Scanner> scripts = new ArrayList<>();
+        try {
+            for (int i = 1; i < args.length; i += 1) {
+                scripts.add(new Scanner(new File(args[i])));
+            }
+        } catch (FileNotFoundException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+            System.exit(1);
+        }
+        if (scripts.isEmpty()) {
+            scripts.add(new Scanner(System.in));
+        }
+        PrintStream out =
+            new PrintStream(new BufferedOutputStream(
+                                new FileOutputStream(FileDescriptor.out),
+                                1 << 16), false);
+        Batch.run(scripts, out);
+    }
 
+}
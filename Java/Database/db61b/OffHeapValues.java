@@ -0,0 +1,168 @@
+package db61b;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/** The values of a column, held in direct ByteBuffers outside the Java
+ *  heap, so that a large table adds almost nothing to the heap the
+ *  garbage collector must trace.  The column is dictionary-encoded: each
+ *  distinct value is stored once, as UTF-8 bytes, and each row as the
+ *  four-byte code of its value.  An open-addressing hash table, also off
+ *  the heap, finds the code of a value being added.  Each get decodes a
+ *  new String, which is short-lived and cheap to collect.  Reading from
+ *  several threads at once is safe, since only absolute gets are used.
+ *  @author Wenqu Wang */
+class OffHeapValues implements ColumnValues {
+
+    /** An empty column with room for CAPACITY rows. */
+    OffHeapValues(int capacity) {
+        _codes = ByteBuffer.allocateDirect(4 * Math.max(16, capacity));
+        _offsets = ByteBuffer.allocateDirect(4 * 64);
+        _bytes = ByteBuffer.allocateDirect(1024);
+        _slots = ByteBuffer.allocateDirect(4 * 64);
+    }
+
+    @Override
+    public String get(int row) {
+        if (row < 0 || row >= _size) {
+            throw new IndexOutOfBoundsException("row " + row);
+        }
+        return value(_codes.getInt(4 * row));
+    }
+
+    @Override
+    public boolean add(String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        int mask = _slots.capacity() / 4 - 1;
+        int slot = value.hashCode() & mask;
+        int code;
+        while (true) {
+            code = _slots.getInt(4 * slot) - 1;
+            if (code < 0) {
+                code = intern(bytes, slot);
+                break;
+            }
+            if (matches(code, bytes)) {
+                break;
+            }
+            slot = (slot + 1) & mask;
+        }
+        if (4 * (_size + 1) > _codes.capacity()) {
+            _codes = grow(_codes, 4 * (_size + 1));
+        }
+        _codes.putInt(4 * _size, code);
+        _size += 1;
+        return true;
+    }
+
+    @Override
+    public void reserve(int capacity) {
+        if (4L * capacity > _codes.capacity()) {
+            _codes = grow(_codes, 4 * capacity);
+        }
+    }
+
+    @Override
+    public int size() {
+        return _size;
+    }
+
+    @Override
+    public long memory(int rows) {
+        return OBJECT_BYTES;
+    }
+
+    @Override
+    public long offHeapMemory() {
+        return (long) _codes.capacity() + _offsets.capacity()
+            + _bytes.capacity() + _slots.capacity();
+    }
+
+    /** Return the value whose code is CODE. */
+    private String value(int code) {
+        int start = code == 0 ? 0 : _offsets.getInt(4 * (code - 1));
+        byte[] bytes = new byte[_offsets.getInt(4 * code) - start];
+        _bytes.get(start, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /** Return true iff the value whose code is CODE has the UTF-8
+     *  encoding BYTES. */
+    private boolean matches(int code, byte[] bytes) {
+        int start = code == 0 ? 0 : _offsets.getInt(4 * (code - 1));
+        if (_offsets.getInt(4 * code) - start != bytes.length) {
+            return false;
+        }
+        for (int i = 0; i < bytes.length; i += 1) {
+            if (_bytes.get(start + i) != bytes[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Add the value whose UTF-8 encoding is BYTES to the dictionary,
+     *  recording it in the empty hash table slot SLOT, and return its
+     *  code. */
+    private int intern(byte[] bytes, int slot) {
+        int code = _values;
+        int start = code == 0 ? 0 : _offsets.getInt(4 * (code - 1));
+        if (start + bytes.length > _bytes.capacity()) {
+            _bytes = grow(_bytes, start + bytes.length);
+        }
+        _bytes.put(start, bytes);
+        if (4 * (code + 1) > _offsets.capacity()) {
+            _offsets = grow(_offsets, 4 * (code + 1));
+        }
+        _offsets.putInt(4 * code, start + bytes.length);
+        _slots.putInt(4 * slot, code + 1);
+        _values += 1;
+        if (2 * _values > _slots.capacity() / 4) {
+            rehash();
+        }
+        return code;
+    }
+
+    /** Double the size of the hash table. */
+    private void rehash() {
+        ByteBuffer slots = ByteBuffer.allocateDirect(2 * _slots.capacity());
+        int mask = slots.capacity() / 4 - 1;
+        for (int code = 0; code < _values; code += 1) {
+            int slot = value(code).hashCode() & mask;
+            while (slots.getInt(4 * slot) != 0) {
+                slot = (slot + 1) & mask;
+            }
+            slots.putInt(4 * slot, code + 1);
+        }
+        _slots = slots;
+    }
+
+    /** Return a copy of BUFFER with at least NEEDED bytes of capacity. */
+    private static ByteBuffer grow(ByteBuffer buffer, int needed) {
+        long capacity = Math.max(needed, 2L * buffer.capacity());
+        ByteBuffer result =
+            ByteBuffer.allocateDirect((int) Math.min(capacity,
+                                                     Integer.MAX_VALUE));
+        result.put(0, buffer, 0, buffer.capacity());
+        return result;
+    }
+
+    /** Approximate heap bytes of one of me and my buffers. */
+    private static final int OBJECT_BYTES = 5 * 64;
+
+    /** The code of the value of each row, four bytes per row. */
+    private ByteBuffer _codes;
+    /** The offset in _bytes just past the value of each code, four
+     *  bytes per code. */
+    private ByteBuffer _offsets;
+    /** The UTF-8 encodings of the values, in order of their codes. */
+    private ByteBuffer _bytes;
+    /** Hash table of codes: each slot holds 0, if empty, or one more than
+     *  the code of a value, and is found by probing from that value's
+     *  hashCode. */
+    private ByteBuffer _slots;
+    /** Number of rows. */
+    private int _size;
+    /** Number of distinct values. */
+    private int _values;
+}
@@ -0,0 +1,361 @@
+package db61b;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import static db61b.Utils.*;
+
+/** A .db file in packed form, mapped into memory, from which the values
+ *  of one column at a time can be decoded.  A store statement writes one
+ *  when asked for packed or compressed storage, and load recognizes one
+ *  by its first word, with which no text .db file starts.  Each column is
+ *  stored as a dictionary of its distinct values, in order of first
+ *  appearance, followed by one code per row: the position of the row's
+ *  value in the dictionary.  The codes are either bit-packed, each in
+ *  just enough bits for the largest, or run-length encoded as pairs of
+ *  variable-length integers (code, length), whichever is smaller; runs
+ *  win for sorted and clustered columns.  The bytes of each column are
+ *  then cut into blocks of BLOCK bytes, each stored with a CRC-32 of its
+ *  contents and, for compressed storage, deflated if that makes it
+ *  smaller.  Opening a file reads its header and steps over the blocks
+ *  to find where each column starts.  Decoding a column inflates and
+ *  checks its blocks and looks its codes up in its dictionary, so that
+ *  each distinct value is decoded once and shared by all the rows that
+ *  hold it.
+ *  @author Wenqu Wang */
+class PackedFile implements TableFile {
+
+    /** First word of a packed file, and the version of its format. */
+    static final int MAGIC = 0x00646250, VERSION = 1;
+    /** Number of bytes of a column in each block. */
+    static final int BLOCK = 1 << 16;
+
+    /** The packed file NAME, which must be no larger than MAX_BYTES. */
+    PackedFile(String name) {
+        _name = name;
+        try (RandomAccessFile file = new RandomAccessFile(name, "r")) {
+            if (file.length() > MAX_BYTES) {
+                throw error("%s is too large to map", name);
+            }
+            _bytes = file.getChannel().map(FileChannel.MapMode.READ_ONLY,
+                                           0, file.length());
+        } catch (IOException excp) {
+            throw error("could not find %s", name);
+        }
+        try {
+            if (_bytes.getInt() != MAGIC || _bytes.getInt() != VERSION) {
+                throw error("%s is not a packed db61b file", name);
+            }
+            _titles = new String[_bytes.getInt()];
+            for (int c = 0; c < _titles.length; c += 1) {
+                _titles[c] = Checkpoint.readString(_bytes);
+            }
+            _rows = _bytes.getInt();
+            _starts = new int[_titles.length];
+            for (int c = 0; c < _titles.length; c += 1) {
+                _starts[c] = _bytes.position();
+                for (int b = _bytes.getInt(); b > 0; b -= 1) {
+                    _bytes.get();
+                    _bytes.getInt();
+                    int stored = _bytes.getInt();
+                    _bytes.getInt();
+                    _bytes.position(_bytes.position() + stored);
+                }
+            }
+        } catch (BufferUnderflowException | IllegalArgumentException
+                 | NegativeArraySizeException excp) {
+            throw error("%s is damaged", name);
+        }
+    }
+
+    /** Return true iff the file NAME exists and is a packed file. */
+    static boolean isPacked(String name) {
+        try (DataInputStream in =
+             new DataInputStream(new FileInputStream(name))) {
+            return in.readInt() == MAGIC;
+        } catch (IOException excp) {
+            return false;
+        }
+    }
+
+    @Override
+    public String[] titles() {
+        return _titles;
+    }
+
+    @Override
+    public int rows() {
+        return _rows;
+    }
+
+    @Override
+    public long length() {
+        return _bytes.limit();
+    }
+
+    @Override
+    public void decode(int column, ColumnValues values) {
+        long start = System.nanoTime();
+        try {
+            ByteBuffer in = ByteBuffer.wrap(unblock(column));
+            String[] dictionary = new String[in.getInt()];
+            for (int v = 0; v < dictionary.length; v += 1) {
+                byte[] encoded = new byte[readVarint(in)];
+                in.get(encoded);
+                dictionary[v] = new String(encoded, StandardCharsets.UTF_8);
+            }
+            int width = in.get();
+            boolean runs = in.get() != 0;
+            if (runs) {
+                int r = 0;
+                while (r < _rows) {
+                    String value = dictionary[readVarint(in)];
+                    int length = readVarint(in);
+                    if (length <= 0 || length > _rows - r) {
+                        throw error("%s is damaged", _name);
+                    }
+                    for (int i = 0; i < length; i += 1) {
+                        values.add(value);
+                    }
+                    r += length;
+                }
+            } else {
+                long mask = (1L << width) - 1, buffer = 0;
+                int bits = 0;
+                for (int r = 0; r < _rows; r += 1) {
+                    while (bits < width) {
+                        buffer |= (long) (in.get() & 0xff) << bits;
+                        bits += 8;
+                    }
+                    values.add(dictionary[(int) (buffer & mask)]);
+                    buffer >>>= width;
+                    bits -= width;
+                }
+            }
+        } catch (BufferUnderflowException | IndexOutOfBoundsException
+                 | NegativeArraySizeException excp) {
+            throw error("%s is damaged", _name);
+        }
+        Stats.count("load.columns", 1);
+        Stats.time("op.decode", start);
+    }
+
+    /** Return the bytes of column number COLUMN, inflated and checked. */
+    private byte[] unblock(int column) {
+        ByteBuffer in = _bytes.duplicate();
+        in.position(_starts[column]);
+        ByteArrayOutputStream result = new ByteArrayOutputStream();
+        Inflater inflater = new Inflater();
+        CRC32 crc = new CRC32();
+        try {
+            for (int b = in.getInt(); b > 0; b -= 1) {
+                boolean deflated = in.get() != 0;
+                byte[] block = new byte[in.getInt()];
+                int stored = in.getInt();
+                int sum = in.getInt();
+                ByteBuffer data = in.slice(in.position(), stored);
+                in.position(in.position() + stored);
+                if (deflated) {
+                    inflater.reset();
+                    inflater.setInput(data);
+                    if (inflater.inflate(block) != block.length
+                        || !inflater.finished()) {
+                        throw error("%s is damaged", _name);
+                    }
+                    Stats.count("packed.inflated", 1);
+                } else if (stored != block.length) {
+                    throw error("%s is damaged", _name);
+                } else {
+                    data.get(block);
+                }
+                crc.reset();
+                crc.update(block);
+                if ((int) crc.getValue() != sum) {
+                    throw error("%s is damaged", _name);
+                }
+                result.write(block, 0, block.length);
+                Stats.count("packed.blocks", 1);
+            }
+        } catch (DataFormatException excp) {
+            throw error("%s is damaged", _name);
+        } finally {
+            inflater.end();
+        }
+        return result.toByteArray();
+    }
+
+    /** Write the start of a packed file for a table whose column titles
+     *  are TITLES and which has ROWS rows to OUT.  Its columns follow, in
+     *  order, each written by writeColumn. */
+    static void writeHeader(DataOutputStream out, String[] titles, int rows)
+        throws IOException {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(titles.length);
+        for (String title : titles) {
+            Checkpoint.writeString(out, title);
+        }
+        out.writeInt(rows);
+    }
+
+    /** Write to OUT a column whose value in row R is
+     *  DICTIONARY[CODES[R]], deflating its blocks iff DEFLATE. */
+    static void writeColumn(DataOutputStream out, String[] dictionary,
+                            int[] codes, boolean deflate)
+        throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream column = new DataOutputStream(bytes);
+        column.writeInt(dictionary.length);
+        for (String value : dictionary) {
+            byte[] encoded = value.getBytes(StandardCharsets.UTF_8);
+            writeVarint(column, encoded.length);
+            column.write(encoded);
+        }
+        int width = dictionary.length <= 1 ? 0
+            : 32 - Integer.numberOfLeadingZeros(dictionary.length - 1);
+        long packed = ((long) codes.length * width + 7) / 8;
+        long runs = 0;
+        for (int r = 0; r < codes.length; r = runEnd(codes, r)) {
+            runs += varintLength(codes[r])
+                + varintLength(runEnd(codes, r) - r);
+        }
+        column.writeByte(width);
+        column.writeBoolean(runs < packed);
+        if (runs < packed) {
+            for (int r = 0; r < codes.length; r = runEnd(codes, r)) {
+                writeVarint(column, codes[r]);
+                writeVarint(column, runEnd(codes, r) - r);
+            }
+            Stats.count("packed.runColumns", 1);
+        } else {
+            long buffer = 0;
+            int bits = 0;
+            for (int code : codes) {
+                buffer |= (long) code << bits;
+                bits += width;
+                while (bits >= 8) {
+                    column.writeByte((int) buffer);
+                    buffer >>>= 8;
+                    bits -= 8;
+                }
+            }
+            if (bits > 0) {
+                column.writeByte((int) buffer);
+            }
+            Stats.count("packed.bitColumns", 1);
+        }
+        column.flush();
+        writeBlocks(out, bytes.toByteArray(), deflate);
+    }
+
+    /** Write BYTES to OUT in blocks, deflating those that deflation makes
+     *  smaller iff DEFLATE. */
+    private static void writeBlocks(DataOutputStream out, byte[] bytes,
+                                    boolean deflate)
+        throws IOException {
+        Deflater deflater = new Deflater();
+        CRC32 crc = new CRC32();
+        byte[] buffer = new byte[BLOCK];
+        try {
+            out.writeInt((bytes.length + BLOCK - 1) / BLOCK);
+            for (int p = 0; p < bytes.length; p += BLOCK) {
+                int length = Math.min(BLOCK, bytes.length - p);
+                int stored = length;
+                if (deflate) {
+                    deflater.reset();
+                    deflater.setInput(bytes, p, length);
+                    deflater.finish();
+                    int n = deflater.deflate(buffer, 0, length);
+                    if (deflater.finished() && n < length) {
+                        stored = n;
+                    }
+                }
+                crc.reset();
+                crc.update(bytes, p, length);
+                out.writeBoolean(stored < length);
+                out.writeInt(length);
+                out.writeInt(stored);
+                out.writeInt((int) crc.getValue());
+                if (stored < length) {
+                    out.write(buffer, 0, stored);
+                } else {
+                    out.write(bytes, p, length);
+                }
+            }
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /** Return the end of the run of equal codes in CODES starting at
+     *  START. */
+    private static int runEnd(int[] codes, int start) {
+        int end = start + 1;
+        while (end < codes.length && codes[end] == codes[start]) {
+            end += 1;
+        }
+        return end;
+    }
+
+    /** Write the non-negative integer N to OUT in seven-bit groups, least
+     *  significant first, with the high bit of each byte but the last
+     *  set. */
+    private static void writeVarint(DataOutputStream out, int n)
+        throws IOException {
+        while (n >= 0x80) {
+            out.writeByte(n & 0x7f | 0x80);
+            n >>>= 7;
+        }
+        out.writeByte(n);
+    }
+
+    /** Return the number of bytes writeVarint uses for N. */
+    private static int varintLength(int n) {
+        int length = 1;
+        while (n >= 0x80) {
+            n >>>= 7;
+            length += 1;
+        }
+        return length;
+    }
+
+    /** Return the integer written by writeVarint at the position of IN,
+     *  leaving IN positioned just after it. */
+    private static int readVarint(ByteBuffer in) {
+        int n = 0;
+        for (int shift = 0; true; shift += 7) {
+            byte b = in.get();
+            n |= (b & 0x7f) << shift;
+            if (b >= 0) {
+                return n;
+            }
+        }
+    }
+
+    /** Largest file that can be mapped. */
+    private static final long MAX_BYTES = Integer.MAX_VALUE;
+
+    /** The name of my file. */
+    private final String _name;
+    /** The contents of my file. */
+    private final MappedByteBuffer _bytes;
+    /** My column titles. */
+    private final String[] _titles;
+    /** The position of the first block of each column. */
+    private final int[] _starts;
+    /** Number of rows. */
+    private final int _rows;
+}
@@ -0,0 +1,110 @@
+package db61b;
+
+import java.util.Arrays;
+
+/** A hash set of the live rows of a Table, by their values, which finds
+ *  the row holding given values in expected constant time.  A Table uses
+ *  one to keep its rows distinct.  Each row is entered under its
+ *  fingerprint, a 64-bit hash of its values, so that values are compared
+ *  only when fingerprints agree.  Deleted rows stay in the set but are
+ *  never found; the table discards the set when it is compacted.
+ *  @author Wenqu Wang */
+class RowSet {
+
+    /** A set of the current live rows of TABLE. */
+    RowSet(Table table) {
+        _table = table;
+        int capacity = Integer.highestOneBit(Math.max(16,
+                                                      table.liveRows()) * 2);
+        _buckets = new int[capacity];
+        Arrays.fill(_buckets, -1);
+        _rows = new int[capacity / 2];
+        _hashes = new long[capacity / 2];
+        _next = new int[capacity / 2];
+        String[] values = new String[table.columns()];
+        for (int row = table.nextRow(null, 0); row >= 0;
+             row = table.nextRow(null, row + 1)) {
+            for (int c = 0; c < values.length; c += 1) {
+                values[c] = table.get(row, c);
+            }
+            add(row, fingerprint(values));
+        }
+    }
+
+    /** Return the fingerprint of a row holding VALUES. */
+    static long fingerprint(String[] values) {
+        long h = 0;
+        for (String value : values) {
+            h = (h ^ value.hashCode()) * 0x9e3779b97f4a7c15L;
+        }
+        return h ^ (h >>> 31);
+    }
+
+    /** Return the live row of my table that holds VALUES, whose
+     *  fingerprint is HASH, or -1 if there is none. */
+    int find(String[] values, long hash) {
+        for (int e = _buckets[(int) hash & (_buckets.length - 1)]; e >= 0;
+             e = _next[e]) {
+            if (_hashes[e] == hash && !_table.isDeleted(_rows[e])
+                && holds(_rows[e], values)) {
+                return _rows[e];
+            }
+        }
+        return -1;
+    }
+
+    /** Return the live row of my table that holds VALUES, or -1 if there
+     *  is none. */
+    int find(String[] values) {
+        return find(values, fingerprint(values));
+    }
+
+    /** Add ROW of my table, whose values have fingerprint HASH. */
+    void add(int row, long hash) {
+        if (_size == _rows.length) {
+            grow();
+        }
+        int bucket = (int) hash & (_buckets.length - 1);
+        _rows[_size] = row;
+        _hashes[_size] = hash;
+        _next[_size] = _buckets[bucket];
+        _buckets[bucket] = _size;
+        _size += 1;
+    }
+
+    /** Return true iff ROW of my table holds VALUES. */
+    private boolean holds(int row, String[] values) {
+        for (int c = 0; c < values.length; c += 1) {
+            if (!_table.get(row, c).equals(values[c])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Double my capacity. */
+    private void grow() {
+        int n = 2 * _rows.length;
+        _rows = Arrays.copyOf(_rows, n);
+        _hashes = Arrays.copyOf(_hashes, n);
+        _next = Arrays.copyOf(_next, n);
+        _buckets = new int[2 * n];
+        Arrays.fill(_buckets, -1);
+        for (int e = 0; e < _size; e += 1) {
+            int bucket = (int) _hashes[e] & (_buckets.length - 1);
+            _next[e] = _buckets[bucket];
+            _buckets[bucket] = e;
+        }
+    }
+
+    /** The table whose rows I hold. */
+    private final Table _table;
+    /** The first entry of each hash chain, or -1. */
+    private int[] _buckets;
+    /** The row number, fingerprint, and next entry in its chain (or -1)
+     *  of each entry. */
+    private int[] _rows, _next;
+    private long[] _hashes;
+    /** Number of entries. */
+    private int _size;
+}
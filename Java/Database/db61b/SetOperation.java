@@ -0,0 +1,158 @@
+package db61b;
+
+import static db61b.Utils.*;
+
+/** The set operations union, intersect, and except, which combine the
+ *  rows of two tables with the same number of columns into a new table
+ *  whose columns take their titles from the first.  Tables hold distinct
+ *  rows, so every result does too.  When the live rows of both tables are
+ *  already in increasing order (as those of a select whose rows were
+ *  added in order are), the tables are merged in one pass over each.
+ *  Otherwise, the rows of the first table are streamed past the hash set
+ *  that the second keeps of its own rows, so that no intermediate table
+ *  is built and nothing is rescanned.
+ *  @author Wenqu Wang */
+class SetOperation {
+
+    /** Return the result of OPERATION ("union", "intersect", or
+     *  "except") on the rows of LEFT and RIGHT. */
+    static Table apply(String operation, Table left, Table right) {
+        if (left.columns() != right.columns()) {
+            throw error("%s requires selects with the same number of "
+                        + "columns", operation);
+        }
+        long start = System.nanoTime();
+        String[] titles = new String[left.columns()];
+        for (int c = 0; c < titles.length; c += 1) {
+            titles[c] = left.getTitle(c);
+        }
+        Table result = new Table(titles);
+        if (increasing(left) && increasing(right)) {
+            merge(operation, left, right, result);
+            Stats.count("set.merge", 1);
+            Explain.note("%s: merge of %d and %d rows", operation,
+                         left.liveRows(), right.liveRows());
+        } else {
+            hash(operation, left, right, result);
+            Stats.count("set.hash", 1);
+            Explain.note("%s: hash of %d and %d rows", operation,
+                         left.liveRows(), right.liveRows());
+        }
+        Stats.count("rows.emitted", result.size());
+        Stats.time("op.set", start);
+        return result;
+    }
+
+    /** Add to RESULT the rows of OPERATION on LEFT and RIGHT, looking the
+     *  rows of LEFT up among those of RIGHT. */
+    private static void hash(String operation, Table left, Table right,
+                             Table result) {
+        String[] values = new String[left.columns()];
+        for (int row = left.nextRow(null, 0); row >= 0;
+             row = left.nextRow(null, row + 1)) {
+            row(left, row, values);
+            switch (operation) {
+            case "union":
+                result.add(values);
+                break;
+            case "intersect":
+                if (right.find(values) >= 0) {
+                    result.add(values);
+                }
+                break;
+            default:
+                if (right.find(values) < 0) {
+                    result.add(values);
+                }
+                break;
+            }
+        }
+        if (operation.equals("union")) {
+            for (int row = right.nextRow(null, 0); row >= 0;
+                 row = right.nextRow(null, row + 1)) {
+                result.add(row(right, row, values));
+            }
+        }
+    }
+
+    /** Add to RESULT the rows of OPERATION on LEFT and RIGHT, whose live
+     *  rows are in increasing order, by merging them. */
+    private static void merge(String operation, Table left, Table right,
+                              Table result) {
+        String[] values1 = new String[left.columns()];
+        String[] values2 = new String[right.columns()];
+        int row1 = left.nextRow(null, 0), row2 = right.nextRow(null, 0);
+        boolean union = operation.equals("union"),
+            except = operation.equals("except");
+        while (row1 >= 0 || row2 >= 0) {
+            int c;
+            if (row1 < 0) {
+                c = 1;
+            } else if (row2 < 0) {
+                c = -1;
+            } else {
+                c = compare(row(left, row1, values1),
+                            row(right, row2, values2));
+            }
+            if (c < 0) {
+                if (union || except) {
+                    result.add(row(left, row1, values1));
+                }
+                row1 = left.nextRow(null, row1 + 1);
+            } else if (c > 0) {
+                if (union) {
+                    result.add(row(right, row2, values2));
+                }
+                row2 = right.nextRow(null, row2 + 1);
+            } else {
+                if (!except) {
+                    result.add(values1);
+                }
+                row1 = left.nextRow(null, row1 + 1);
+                row2 = right.nextRow(null, row2 + 1);
+            }
+        }
+    }
+
+    /** Return true iff the live rows of TABLE are in strictly increasing
+     *  order. */
+    private static boolean increasing(Table table) {
+        String[] prev = new String[table.columns()];
+        String[] values = new String[table.columns()];
+        int row = table.nextRow(null, 0);
+        if (row < 0) {
+            return true;
+        }
+        row(table, row, prev);
+        for (row = table.nextRow(null, row + 1); row >= 0;
+             row = table.nextRow(null, row + 1)) {
+            if (compare(prev, row(table, row, values)) >= 0) {
+                return false;
+            }
+            String[] tmp = prev;
+            prev = values;
+            values = tmp;
+        }
+        return true;
+    }
+
+    /** Return <0, 0, or >0 depending on whether VALUES1 is less than,
+     *  equal to, or greater than VALUES2 in lexicographic order. */
+    private static int compare(String[] values1, String[] values2) {
+        for (int c = 0; c < values1.length; c += 1) {
+            int cmp = values1[c].compareTo(values2[c]);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return 0;
+    }
+
+    /** Fill VALUES with the values of ROW of TABLE, and return it. */
+    private static String[] row(Table table, int row, String[] values) {
+        for (int c = 0; c < values.length; c += 1) {
+            values[c] = table.get(row, c);
+        }
+        return values;
+    }
+}
@@ -0,0 +1,281 @@
+package db61b;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import static db61b.Utils.*;
+
+/** The 'order by' and 'limit' operator.  Produces a copy of a table whose
+ *  rows are in a requested order and print in that order.  With a limit
+ *  of K rows, a bounded max-heap keeps only the K smallest rows seen so
+ *  far (O(n log K)).  Without a limit, tables of more than RUN_SIZE rows
+ *  are sorted externally: sorted runs of RUN_SIZE rows are spilled to
+ *  temporary files and then merged.
+ *  @author Wenqu Wang */
+class Sorter {
+
+    /** Maximum number of rows sorted in memory at once. */
+    static final int RUN_SIZE = 1 << 16;
+
+    /** Return a new table with the rows of TABLE ordered on the columns
+     *  named KEYS, with KEYS[i] in descending order iff DESCENDING[i],
+     *  and compared in the order of Aggregate.compare iff NUMERIC[i], as
+     *  is right for the values of aggregates, and otherwise as strings.
+     *  Ties are broken by the remaining columns in lexicographic order.
+     *  If LIMIT is non-negative, keep only the first LIMIT rows. */
+    static Table sort(Table table, List<String> keys, boolean[] descending,
+                      boolean[] numeric, int limit) {
+        return new Sorter(table, keys, descending, numeric).sort(limit);
+    }
+
+    /** A Sorter for the rows of TABLE on the columns named KEYS, in
+     *  descending order where DESCENDING is true and in numeric order
+     *  where NUMERIC is true. */
+    private Sorter(Table table, List<String> keys, boolean[] descending,
+                   boolean[] numeric) {
+        _table = table;
+        _keys = new int[keys.size()];
+        for (int i = 0; i < _keys.length; i += 1) {
+            _keys[i] = table.findColumn(keys.get(i));
+            if (_keys[i] == -1) {
+                throw error("unknown column: %s", keys.get(i));
+            }
+        }
+        _descending = descending;
+        _numeric = numeric;
+        _order = this::compare;
+    }
+
+    /** Return my table sorted and truncated to LIMIT rows, if LIMIT is
+     *  non-negative. */
+    private Table sort(int limit) {
+        long start = System.nanoTime();
+        Table result = new Table(titles());
+        result.setOrdered(true);
+        int n = _table.size();
+        if (limit >= 0) {
+            for (String[] row : topK(limit)) {
+                result.add(row);
+            }
+            Explain.note("sort: top %d of %d rows", limit, n);
+        } else if (n <= RUN_SIZE) {
+            for (String[] row : sortRows(0, n)) {
+                result.add(row);
+            }
+            Explain.note("sort: %d rows in memory", n);
+        } else {
+            List<File> runs = spill();
+            Stats.count("sort.runs", runs.size());
+            merge(runs, result);
+            Explain.note("sort: %d rows in %d runs on disk", n,
+                         runs.size());
+        }
+        Stats.time("op.sort", start);
+        return result;
+    }
+
+    /** Return the K smallest rows of my table, in order. */
+    private List<String[]> topK(int k) {
+        PriorityQueue<String[]> heap =
+            new PriorityQueue<>(Math.max(1, k), _order.reversed());
+        if (k > 0) {
+            for (int r = 0; r < _table.size(); r += 1) {
+                if (heap.size() < k) {
+                    heap.add(row(r));
+                } else if (compare(r, heap.peek()) < 0) {
+                    heap.poll();
+                    heap.add(row(r));
+                }
+            }
+        }
+        List<String[]> rows = new ArrayList<>(heap);
+        rows.sort(_order);
+        return rows;
+    }
+
+    /** Return rows LO .. HI-1 of my table, sorted. */
+    private List<String[]> sortRows(int lo, int hi) {
+        String[][] rows = new String[hi - lo][];
+        for (int r = lo; r < hi; r += 1) {
+            rows[r - lo] = row(r);
+        }
+        Arrays.sort(rows, _order);
+        return Arrays.asList(rows);
+    }
+
+    /** Write my rows as sorted runs of RUN_SIZE rows to temporary files,
+     *  and return the files. */
+    private List<File> spill() {
+        List<File> runs = new ArrayList<>();
+        try {
+            for (int lo = 0; lo < _table.size(); lo += RUN_SIZE) {
+                File run = File.createTempFile("db61b", ".run");
+                run.deleteOnExit();
+                runs.add(run);
+                try (BufferedWriter out =
+                     new BufferedWriter(new FileWriter(run))) {
+                    int hi = Math.min(_table.size(), lo + RUN_SIZE);
+                    for (String[] row : sortRows(lo, hi)) {
+                        out.write(String.join(",", row));
+                        out.newLine();
+                    }
+                }
+            }
+        } catch (IOException excp) {
+            delete(runs);
+            throw error("could not write sort run: %s", excp.getMessage());
+        }
+        return runs;
+    }
+
+    /** Merge the sorted RUNS into RESULT, deleting them afterwards. */
+    private void merge(List<File> runs, Table result) {
+        List<BufferedReader> inputs = new ArrayList<>();
+        PriorityQueue<Run> heap = new PriorityQueue<>();
+        try {
+            for (File file : runs) {
+                BufferedReader input =
+                    new BufferedReader(new FileReader(file));
+                inputs.add(input);
+                Run run = new Run(input);
+                if (run.advance()) {
+                    heap.add(run);
+                }
+            }
+            while (!heap.isEmpty()) {
+                Run run = heap.poll();
+                result.add(run._row);
+                if (run.advance()) {
+                    heap.add(run);
+                }
+            }
+        } catch (IOException excp) {
+            throw error("could not read sort run: %s", excp.getMessage());
+        } finally {
+            for (BufferedReader input : inputs) {
+                try {
+                    input.close();
+                } catch (IOException e) {
+                    /* Ignore IOException */
+                }
+            }
+            delete(runs);
+        }
+    }
+
+    /** Delete FILES. */
+    private static void delete(List<File> files) {
+        for (File file : files) {
+            file.delete();
+        }
+    }
+
+    /** Return the column titles of my table. */
+    private List<String> titles() {
+        List<String> titles = new ArrayList<>();
+        for (int c = 0; c < _table.columns(); c += 1) {
+            titles.add(_table.getTitle(c));
+        }
+        return titles;
+    }
+
+    /** Return the values of row R of my table. */
+    private String[] row(int r) {
+        String[] row = new String[_table.columns()];
+        for (int c = 0; c < row.length; c += 1) {
+            row[c] = _table.get(r, c);
+        }
+        return row;
+    }
+
+    /** Compare row R of my table with the row of values ROW. */
+    private int compare(int r, String[] row) {
+        for (int i = 0; i < _keys.length; i += 1) {
+            int c = compareKey(i, _table.get(r, _keys[i]), row[_keys[i]]);
+            if (c != 0) {
+                return _descending[i] ? -c : c;
+            }
+        }
+        for (int k = 0; k < row.length; k += 1) {
+            int c = _table.get(r, k).compareTo(row[k]);
+            if (c != 0) {
+                return c;
+            }
+        }
+        return 0;
+    }
+
+    /** Compare the rows of values ROW0 and ROW1 in my order. */
+    private int compare(String[] row0, String[] row1) {
+        for (int i = 0; i < _keys.length; i += 1) {
+            int c = compareKey(i, row0[_keys[i]], row1[_keys[i]]);
+            if (c != 0) {
+                return _descending[i] ? -c : c;
+            }
+        }
+        for (int k = 0; k < row0.length; k += 1) {
+            int c = row0[k].compareTo(row1[k]);
+            if (c != 0) {
+                return c;
+            }
+        }
+        return 0;
+    }
+
+    /** Compare the values VALUE0 and VALUE1 of key number I, in
+     *  ascending order. */
+    private int compareKey(int i, String value0, String value1) {
+        if (_numeric[i]) {
+            return Aggregate.compare(value0, value1);
+        }
+        return value0.compareTo(value1);
+    }
+
+    /** A sorted run being merged: a file of rows and its current row. */
+    private class Run implements Comparable<Run> {
+        /** A run reading rows from INPUT. */
+        Run(BufferedReader input) {
+            _input = input;
+        }
+
+        /** Read my next row into _row.  Return false at end of input. */
+        boolean advance() throws IOException {
+            String line = _input.readLine();
+            if (line == null) {
+                return false;
+            }
+            _row = line.split(",", -1);
+            return true;
+        }
+
+        @Override
+        public int compareTo(Run other) {
+            return compare(_row, other._row);
+        }
+
+        /** Source of my rows. */
+        private final BufferedReader _input;
+        /** My current row. */
+        private String[] _row;
+    }
+
+    /** The table being sorted. */
+    private final Table _table;
+    /** Column numbers of the sort keys. */
+    private final int[] _keys;
+    /** DESCENDING[i] is true iff _keys[i] is sorted in descending order. */
+    private final boolean[] _descending;
+    /** NUMERIC[i] is true iff _keys[i] is compared by Aggregate.compare. */
+    private final boolean[] _numeric;
+    /** My order on rows of values. */
+    private final Comparator<String[]> _order;
+}
@@ -0,0 +1,194 @@
+package db61b;
+
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/** Process-wide runtime statistics: named counters (such as rows scanned
+ *  or bytes loaded) and named latency Histograms (one per statement type
+ *  and per Table operator).  Counters and histograms are created on first
+ *  use and are safe to update from several threads.  The statistics are
+ *  printed by the 'stats' statement and exported over JMX as an
+ *  MXBean named MBEAN_NAME.
+ *  @author Wenqu Wang */
+class Stats implements StatsMXBean {
+
+    /** JMX name of the statistics MXBean. */
+    static final String MBEAN_NAME = "db61b:type=Stats";
+
+    /** Add DELTA to the counter NAME. */
+    static void count(String name, long delta) {
+        LongAdder counter = COUNTERS.get(name);
+        if (counter == null) {
+            counter = COUNTERS.computeIfAbsent(name, k -> new LongAdder());
+        }
+        counter.add(delta);
+    }
+
+    /** Return the value of the counter NAME (0 if it has never been
+     *  updated). */
+    static long counter(String name) {
+        LongAdder counter = COUNTERS.get(name);
+        return counter == null ? 0 : counter.sum();
+    }
+
+    /** Record in the histogram NAME a latency ending now that began at
+     *  START, a value of System.nanoTime(). */
+    static void time(String name, long start) {
+        histogram(name).record(System.nanoTime() - start);
+    }
+
+    /** Return the histogram NAME, creating it if necessary. */
+    static Histogram histogram(String name) {
+        Histogram histogram = HISTOGRAMS.get(name);
+        if (histogram == null) {
+            histogram = HISTOGRAMS.computeIfAbsent(name, k -> new Histogram());
+        }
+        return histogram;
+    }
+
+    /** Make DB the database whose tables are reported, registering the
+     *  MXBean with the platform MBean server if that has not been done. */
+    static synchronized void watch(Database db) {
+        INSTANCE._database = db;
+        if (!_registered) {
+            _registered = true;
+            try {
+                MBeanServer server =
+                    ManagementFactory.getPlatformMBeanServer();
+                server.registerMBean(INSTANCE, new ObjectName(MBEAN_NAME));
+            } catch (JMException | SecurityException excp) {
+                /* Statistics are still available through 'stats'. */
+            }
+        }
+    }
+
+    /** Print all statistics on OUT. */
+    static void print(PrintStream out) {
+        out.println("Latencies (ms):");
+        out.printf("  %-24s %8s %9s %9s %9s %9s %9s%n", "", "count",
+                   "mean", "p50", "p90", "p99", "max");
+        for (Map.Entry<String, Histogram> e
+                 : new TreeMap<>(HISTOGRAMS).entrySet()) {
+            Histogram h = e.getValue();
+            long n = h.count();
+            out.printf("  %-24s %8d %9.3f %9.3f %9.3f %9.3f %9.3f%n",
+                       e.getKey(), n, n == 0 ? 0.0 : ms(h.total()) / n,
+                       ms(h.percentile(50)), ms(h.percentile(90)),
+                       ms(h.percentile(99)), ms(h.max()));
+        }
+        out.println("Counters:");
+        for (Map.Entry<String, Long> e : INSTANCE.getCounters().entrySet()) {
+            out.printf("  %-24s %12d%n", e.getKey(), e.getValue());
+        }
+        Database db = INSTANCE._database;
+        if (db != null) {
+            out.println("Tables:");
+            out.printf("  %-24s %10s %8s %12s %12s%n", "", "rows",
+                       "columns", "bytes", "off-heap");
+            for (String name : db.names()) {
+                Table table = db.get(name);
+                out.printf("  %-24s %10d %8d %12d %12d%n", name,
+                           table.liveRows(), table.columns(), table.memory(),
+                           table.offHeapMemory());
+            }
+            printCracking(out, db);
+        }
+        Storer.print(out);
+    }
+
+    /** Print on OUT the progress of the Crackers of the tables of DB,
+     *  if there are any: for each cracked column, the rows it holds, the
+     *  pieces into which they have been cracked, the lookups so far, and
+     *  the entries the last lookup examined, which fall toward zero as
+     *  the cracks converge on the bounds that queries use. */
+    private static void printCracking(PrintStream out, Database db) {
+        boolean header = false;
+        for (String name : db.names()) {
+            Table table = db.get(name);
+            Cracker[] crackers = table.crackers();
+            for (int c = 0; crackers != null && c < crackers.length; c += 1) {
+                Cracker cracker = crackers[c];
+                if (cracker == null) {
+                    continue;
+                }
+                if (!header) {
+                    out.println("Cracking:");
+                    out.printf("  %-24s %10s %8s %8s %12s%n", "", "rows",
+                               "pieces", "lookups", "examined");
+                    header = true;
+                }
+                cracker.print(out, name + "." + table.getTitle(c));
+            }
+        }
+    }
+
+    @Override
+    public Map<String, Long> getCounters() {
+        Map<String, Long> result = new TreeMap<>();
+        for (Map.Entry<String, LongAdder> e : COUNTERS.entrySet()) {
+            result.put(e.getKey(), e.getValue().sum());
+        }
+        return result;
+    }
+
+    @Override
+    public Map<String, String> getLatencies() {
+        Map<String, String> result = new TreeMap<>();
+        for (Map.Entry<String, Histogram> e : HISTOGRAMS.entrySet()) {
+            Histogram h = e.getValue();
+            long n = h.count();
+            result.put(e.getKey(),
+                       String.format("count=%d mean=%.3f p50=%.3f p90=%.3f "
+                                     + "p99=%.3f max=%.3f", n,
+                                     n == 0 ? 0.0 : ms(h.total()) / n,
+                                     ms(h.percentile(50)),
+                                     ms(h.percentile(90)),
+                                     ms(h.percentile(99)), ms(h.max())));
+        }
+        return result;
+    }
+
+    @Override
+    public Map<String, Long> getTableMemory() {
+        Map<String, Long> result = new TreeMap<>();
+        Database db = _database;
+        if (db != null) {
+            for (String name : db.names()) {
+                result.put(name, db.get(name).memory());
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public void reset() {
+        COUNTERS.clear();
+        HISTOGRAMS.clear();
+    }
+
+    /** Return NANOS nanoseconds in milliseconds. */
+    private static double ms(long nanos) {
+        return nanos / 1e6;
+    }
+
+    /** All counters, by name. */
+    private static final ConcurrentHashMap<String, LongAdder> COUNTERS =
+        new ConcurrentHashMap<>();
+    /** All histograms, by name. */
+    private static final ConcurrentHashMap<String, Histogram> HISTOGRAMS =
+        new ConcurrentHashMap<>();
+    /** The instance exported over JMX. */
+    private static final Stats INSTANCE = new Stats();
+    /** True once INSTANCE has been offered to the MBean server. */
+    private static boolean _registered;
+
+    /** The database whose tables are reported, or null. */
+    private volatile Database _database;
+}
@@ -0,0 +1,23 @@
+package db61b;
+
+import java.util.Map;
+
+/** The management interface through which db61b exposes its runtime
+ *  statistics over JMX, under the name db61b:type=Stats.  See Stats.
+ *  @author Wenqu Wang */
+public interface StatsMXBean {
+
+    /** Return the current value of every counter, by name. */
+    Map<String, Long> getCounters();
+
+    /** Return a summary (count, mean, p50, p90, p99, and max, in
+     *  milliseconds) of every latency histogram, by name. */
+    Map<String, String> getLatencies();
+
+    /** Return the estimated heap bytes held by each table of the
+     *  database, by table name. */
+    Map<String, Long> getTableMemory();
+
+    /** Clear all counters and histograms. */
+    void reset();
+}
@@ -0,0 +1,135 @@
+package db61b;
+
+import java.io.File;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/** Writes snapshots of tables to .db files on a background thread, so
+ *  that a store statement returns as soon as its snapshot is taken.
+ *  Stores are written one at a time, in the order they were started.
+ *  Reading a file that is being stored waits until it is written.  The
+ *  outcome of each store is shown by the stats statement and reported,
+ *  once it is done, by a wait store statement.
+ *  @author Wenqu Wang */
+class Storer {
+
+    /** Start writing SNAPSHOT to NAME.db in FORMAT (as for
+     *  Table.Snapshot.write) in the background. */
+    static void start(String name, Table.Snapshot snapshot,
+                      String format) {
+        Store store = new Store(name);
+        synchronized (STORES) {
+            STORES.add(store);
+            store._task = EXECUTOR.submit(() -> {
+                try {
+                    snapshot.write(name, format);
+                    Stats.count("store.completed", 1);
+                } catch (DBException excp) {
+                    Stats.count("store.failed", 1);
+                    throw excp;
+                }
+            });
+        }
+        Stats.count("store.started", 1);
+    }
+
+    /** Wait until any stores to the file FILENAME that have been started
+     *  are done. */
+    static void await(String fileName) {
+        String path = new File(fileName).getAbsolutePath();
+        for (Store store : stores()) {
+            if (store._path.equals(path)) {
+                store.outcome();
+            }
+        }
+    }
+
+    /** Wait until every store started so far is done, and report the
+     *  outcome of each on OUT, one line per store, forgetting them.  If
+     *  not ALL, report only failures. */
+    static void finish(PrintStream out, boolean all) {
+        for (Store store : stores()) {
+            String error = store.outcome();
+            if (error != null) {
+                out.printf("Error: %s%n", error);
+            } else if (all) {
+                out.printf("Stored %s.db%n", store._name);
+            }
+            synchronized (STORES) {
+                STORES.remove(store);
+            }
+        }
+    }
+
+    /** Print the state of each store not yet reported by finish on
+     *  OUT. */
+    static void print(PrintStream out) {
+        List<Store> stores = stores();
+        if (stores.isEmpty()) {
+            return;
+        }
+        out.println("Stores:");
+        for (Store store : stores) {
+            String state;
+            if (!store._task.isDone()) {
+                state = "writing";
+            } else {
+                String error = store.outcome();
+                state = error == null ? "stored" : "failed: " + error;
+            }
+            out.printf("  %-24s %s%n", store._name + ".db", state);
+        }
+    }
+
+    /** Return a copy of the list of stores. */
+    private static List<Store> stores() {
+        synchronized (STORES) {
+            return new ArrayList<>(STORES);
+        }
+    }
+
+    /** One store of a table to a file. */
+    private static class Store {
+
+        /** A store to NAME.db. */
+        Store(String name) {
+            _name = name;
+            _path = new File(name + ".db").getAbsolutePath();
+        }
+
+        /** Wait for me to finish, and return the error message with which
+         *  I failed, or null if I succeeded. */
+        String outcome() {
+            try {
+                _task.get();
+                return null;
+            } catch (ExecutionException excp) {
+                return excp.getCause().getMessage();
+            } catch (InterruptedException excp) {
+                Thread.currentThread().interrupt();
+                return "interrupted";
+            }
+        }
+
+        /** The name of the file, without .db, and its absolute path. */
+        private final String _name, _path;
+        /** The writing of the file. */
+        private Future<?> _task;
+    }
+
+    /** Stores started and not yet reported by finish, in order. */
+    private static final List<Store> STORES = new ArrayList<>();
+
+    /** The thread that writes files. */
+    private static final ExecutorService EXECUTOR =
+        Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "db61b-store");
+            thread.setDaemon(true);
+            return thread;
+        });
+}
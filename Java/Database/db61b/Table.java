@@ -1,14 +1,29 @@
 
 package db61b;
 
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.DataOutputStream;
+import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.FileReader;
+import java.io.FileWriter;
 import java.io.IOException;
 import java.io.PrintStream;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.IntStream;
 
 import static db61b.Utils.*;
 
@@ -35,10 +50,12 @@ class Table {
         }
 
         _titles = columnTitles;
-        _columns = new ValueList[_rowSize];
+        _indexes = new BitmapIndex[_rowSize];
+        _columns = new ColumnValues[_rowSize];
         for (int i = 0; i < _rowSize; i++) {
-            _columns[i] = new ValueList();
+            _columns[i] = newColumn(0);
         }
+        _zones = new ZoneMap(this);
     }
 
     /** A new Table whose columns are give by COLUMNTITLES. */
@@ -69,11 +86,23 @@ class Table {
         return -1;
     }
 
-    /** Return the number of rows in this table. */
+    /** Return the number of rows in this table, including deleted rows
+     *  that have not yet been compacted away.  Rows are numbered from 0
+     *  to size() - 1. */
     public int size() {
         return _size;
     }
 
+    /** Return the number of rows in this table that are not deleted. */
+    int liveRows() {
+        return _size - _dead;
+    }
+
+    /** Return true iff row number ROW has been deleted. */
+    boolean isDeleted(int row) {
+        return _dead > 0 && _deleted.contains(row);
+    }
+
     /** Return the value of column number COL (0 <= COL < columns())
      *  of record number ROW (0 <= ROW < size()). */
     public String get(int row, int col) {
@@ -92,45 +121,522 @@ class Table {
             throw error("The added row does not match the length of rows");
         }
 
-        String[] row = new String[columns()];
-        for (int i = 0; i < size(); i++) {
-            for (int k = 0; k < columns(); k++) {
-                row[k] = get(i, k);
+        long hash = RowSet.fingerprint(values);
+        if (distinct().find(values, hash) >= 0) {
+            return false;
+        }
+
+        synchronized (this) {
+            for (int c = 0; c < columns(); c++) {
+                _columns[c].add(values[c]);
             }
-            if (Arrays.equals(row, values)) {
-                return false;
+        }
+        _size += 1;
+        _distinct.add(_size - 1, hash);
+        if (!_offHeap && _size >= OFF_HEAP_ROWS) {
+            setOffHeap(true);
+        }
+        _zones.add(values);
+        if (_partitions != null) {
+            int p = partitionOf(values[_partitionColumn], _partitions.length);
+            _partitions[p].add(_size - 1);
+        }
+        for (BitmapIndex index : _indexes) {
+            if (index != null) {
+                index.add(values, _size - 1);
             }
         }
+        for (View view : _views) {
+            view.inserted(this, _size - 1);
+        }
+        return true;
+    }
 
-        for (int c = 0; c < columns(); c++) {
-            _columns[c].add(values[c]);
+    /** Delete the rows that satisfy CONDITIONS, returning their
+     *  number. */
+    int delete(List<Condition> conditions) {
+        int[] rows = matching(conditions);
+        for (int row : rows) {
+            delete(row);
         }
-        _size += 1;
+        return rows.length;
+    }
 
+    /** In the rows that satisfy CONDITIONS, set column number COLUMNS[i]
+     *  to VALUES[i] for each i, returning the number of rows changed.
+     *  Each changed row is deleted and its new version added, so that
+     *  indexes and views see an update as a deletion and an insertion. */
+    int update(int[] columns, String[] values, List<Condition> conditions) {
+        int[] rows = matching(conditions);
+        for (int row : rows) {
+            String[] version = new String[columns()];
+            for (int c = 0; c < version.length; c += 1) {
+                version[c] = get(row, c);
+            }
+            for (int i = 0; i < columns.length; i += 1) {
+                version[columns[i]] = values[i];
+            }
+            delete(row);
+            add(version);
+        }
+        return rows.length;
+    }
 
-        return true;
+    /** Mark row number ROW as deleted, if it is not already.  Its values
+     *  remain until the table is compacted, which starts in the
+     *  background once enough rows are dead. */
+    void delete(int row) {
+        if (isDeleted(row)) {
+            return;
+        }
+        for (View view : _views) {
+            view.deleted(this, row);
+        }
+        _deleted.add(row);
+        _dead += 1;
+        Stats.count("rows.deleted", 1);
+        if (_compaction == null && _dead >= COMPACT_MIN
+            && _dead >= _size * COMPACT_RATIO) {
+            _compaction = new Compaction(this);
+            Compactor.start(_compaction);
+        }
+    }
+
+    /** Return, in increasing order, the numbers of the live rows that
+     *  satisfy CONDITIONS. */
+    private int[] matching(List<Condition> conditions) {
+        List<Condition> residual = new ArrayList<>();
+        Bitmap rows = filter(conditions, 0, residual);
+        int[] result = new int[rows == null ? size() : rows.cardinality()];
+        int n = 0;
+        Cursor cursor = new Cursor(1);
+        for (int row = nextRow(rows, 0); row >= 0;
+             row = nextRow(rows, row + 1)) {
+            if (Condition.test(residual, cursor.at(row))) {
+                result[n] = row;
+                n += 1;
+            }
+        }
+        Stats.count("rows.scanned", n);
+        return Arrays.copyOf(result, n);
+    }
+
+    /** Return the number of times this table has been compacted.  Row
+     *  numbers change at each compaction. */
+    int compactions() {
+        return _compactions;
+    }
+
+    /** Arrange for VIEW to be told of each row added to or deleted from
+     *  this table. */
+    void addView(View view) {
+        _views.add(view);
+    }
+
+    /** Return the views told of changes to this table. */
+    List<View> getViews() {
+        return _views;
+    }
+
+    /** Build a bitmap index on the column named COLUMN that includes
+     *  the columns named INCLUDE, replacing any existing index on it.  The
+     *  index is maintained as rows are added. */
+    void createIndex(String column, String... include) {
+        int k = findColumn(column);
+        if (k == -1) {
+            throw error("unknown column: %s", column);
+        }
+        int[] columns = new int[include.length];
+        for (int i = 0; i < include.length; i += 1) {
+            columns[i] = findColumn(include[i]);
+            if (columns[i] == -1) {
+                throw error("unknown column: %s", include[i]);
+            }
+        }
+        _indexes[k] = new BitmapIndex(this, k, columns);
+    }
+
+    /** Return the bitmap index on column number K, or null if there is
+     *  none. */
+    BitmapIndex getIndex(int k) {
+        return _indexes[k];
+    }
+
+    /** Make INDEX, which must describe my current rows, the bitmap index
+     *  on its column. */
+    void setIndex(BitmapIndex index) {
+        _indexes[index.column()] = index;
+    }
+
+    /** Store my rows in N partitions by the hash of their values in the
+     *  column named COLUMN, so that looking up one value of that column
+     *  touches one partition, and a join on that column with a table
+     *  partitioned the same way runs partition by partition. */
+    void partition(String column, int n) {
+        int k = findColumn(column);
+        if (k == -1) {
+            throw error("unknown column: %s", column);
+        }
+        if (n < 1) {
+            throw error("a table must have at least one partition");
+        }
+        if (n > MAX_PARTITIONS) {
+            throw error("too many partitions: %d", n);
+        }
+        Bitmap[] partitions = new Bitmap[n];
+        for (int p = 0; p < n; p += 1) {
+            partitions[p] = new Bitmap();
+        }
+        for (int row = 0; row < size(); row += 1) {
+            partitions[partitionOf(get(row, k), n)].add(row);
+        }
+        setPartitions(k, partitions);
+    }
+
+    /** Return the number of the column by which my rows are partitioned,
+     *  or -1 if they are not. */
+    int partitionColumn() {
+        return _partitionColumn;
+    }
+
+    /** Return the rows of each of my partitions, including deleted rows,
+     *  or null if I am not partitioned. */
+    Bitmap[] getPartitions() {
+        return _partitions;
+    }
+
+    /** Make PARTITIONS, which must divide my current rows according to
+     *  their values in column number COLUMN, my partitions. */
+    void setPartitions(int column, Bitmap[] partitions) {
+        _partitionColumn = column;
+        _partitions = partitions;
+    }
+
+    /** Return the partition, among N, of rows whose partitioning column
+     *  holds VALUE. */
+    private static int partitionOf(String value, int n) {
+        return Math.floorMod(value.hashCode(), n);
+    }
+
+    /** Return a new table of the live rows of a sample of my blocks of
+     *  ZoneMap.BLOCK consecutive rows, in which each block is chosen
+     *  independently with probability FRACTION by a generator of random
+     *  numbers seeded with SEED.  Only the chosen blocks are read, so the
+     *  time taken is proportional to the size of the sample. */
+    Table sample(double fraction, long seed) {
+        long start = System.nanoTime();
+        Random random = new Random(seed);
+        int blocks = (_size + ZoneMap.BLOCK - 1) / ZoneMap.BLOCK;
+        boolean[] chosen = new boolean[blocks];
+        int numChosen = 0, n = 0;
+        for (int b = 0; b < blocks; b += 1) {
+            chosen[b] = random.nextDouble() < fraction;
+            if (chosen[b]) {
+                numChosen += 1;
+                n += Math.min(_size, (b + 1) * ZoneMap.BLOCK)
+                    - b * ZoneMap.BLOCK;
+            }
+        }
+        String[][] columns = new String[_rowSize][n];
+        int k = 0;
+        for (int b = 0; b < blocks; b += 1) {
+            if (!chosen[b]) {
+                continue;
+            }
+            int hi = Math.min(_size, (b + 1) * ZoneMap.BLOCK);
+            for (int row = b * ZoneMap.BLOCK; row < hi; row += 1) {
+                if (!isDeleted(row)) {
+                    for (int c = 0; c < _rowSize; c += 1) {
+                        columns[c][k] = get(row, c);
+                    }
+                    k += 1;
+                }
+            }
+        }
+        for (int c = 0; c < _rowSize; c += 1) {
+            columns[c] = Arrays.copyOf(columns[c], k);
+        }
+        Table result = new Table(_titles.clone());
+        result.append(columns);
+        result.setZones(null);
+        result._sampleFraction = _sampleFraction * fraction;
+        Stats.count("sample.blocks", numChosen);
+        Stats.time("op.sample", start);
+        Explain.note("sample: %d of %d blocks, %d rows", numChosen, blocks,
+                     k);
+        return result;
+    }
+
+    /** Return the fraction of the rows of the table I was sampled from
+     *  that I hold, if I am a sample, and 1 otherwise. */
+    double sampleFraction() {
+        return _sampleFraction;
+    }
+
+    /** Return the zone maps of my columns. */
+    ZoneMap getZones() {
+        return _zones;
+    }
+
+    /** Make ZONES, which must describe my current rows, my zone maps, or
+     *  rebuild my zone maps if ZONES is null. */
+    void setZones(ZoneMap zones) {
+        _zones = zones == null ? new ZoneMap(this) : zones;
+    }
+
+    /** Append the rows whose values in column number K are the elements
+     *  of COLUMNS[k] (all of the same length), without checking for
+     *  duplicates or updating indexes, zone maps, partitions, and views.
+     *  Used to restore rows that are known to be distinct. */
+    void append(String[][] columns) {
+        synchronized (this) {
+            for (int c = 0; c < columns(); c += 1) {
+                for (String value : columns[c]) {
+                    _columns[c].add(value);
+                }
+            }
+        }
+        _size += columns[0].length;
+        _distinct = null;
+        if (!_offHeap && _size >= OFF_HEAP_ROWS) {
+            setOffHeap(true);
+        }
+    }
+
+    /** Return the live row that holds VALUES, or -1 if there is none. */
+    int find(String[] values) {
+        return distinct().find(values);
+    }
+
+    /** Return the set of my live rows, building it if necessary. */
+    private RowSet distinct() {
+        RowSet distinct = _distinct;
+        if (distinct == null) {
+            synchronized (this) {
+                distinct = _distinct;
+                if (distinct == null) {
+                    distinct = _distinct = new RowSet(this);
+                }
+            }
+        }
+        return distinct;
+    }
+
+    /** Return true iff my columns are stored off the heap. */
+    boolean isOffHeap() {
+        return _offHeap;
+    }
+
+    /** Store my columns off the heap iff OFFHEAP, moving any rows I
+     *  already have. */
+    void setOffHeap(boolean offHeap) {
+        if (offHeap == _offHeap) {
+            return;
+        }
+        _offHeap = offHeap;
+        ColumnValues[] columns = new ColumnValues[columns()];
+        for (int c = 0; c < columns.length; c += 1) {
+            columns[c] = newColumn(_size);
+            for (int r = 0; r < _size; r += 1) {
+                columns[c].add(_columns[c].get(r));
+            }
+        }
+        synchronized (this) {
+            _columns = columns;
+        }
+        Stats.count(offHeap ? "offheap.moves" : "heap.moves", 1);
+    }
+
+    /** Return an empty column, with room for CAPACITY rows, of the kind
+     *  in which I store my values. */
+    private ColumnValues newColumn(int capacity) {
+        return _offHeap ? new OffHeapValues(capacity)
+            : new ValueList(capacity);
+    }
+
+    /** Return the live rows of this table that satisfy every condition
+     *  among CONDITIONS that compares an indexed column of this table (the
+     *  Kth table of the select) with a literal, computed by intersecting
+     *  index bitmaps without examining any row, and, if I am cracking,
+     *  every such condition on a column without an index, found by the
+     *  column's Cracker; and that lie in blocks whose zone maps (and
+     *  partitions) allow the other conditions comparing a column of this
+     *  table with a literal.  Add the conditions that do not use an index
+     *  or Cracker, including those that use zone maps, and like
+     *  conditions answered by a Cracker, to RESIDUAL.  Return null if no
+     *  condition can use an index or Cracker or eliminate a block. */
+    Bitmap filter(List<Condition> conditions, int k,
+                  List<Condition> residual) {
+        if (conditions == null) {
+            return null;
+        }
+        Bitmap result = null;
+        List<Condition> cracked = null;
+        for (Condition cond : conditions) {
+            Column col = cond.getColumn();
+            BitmapIndex index = null;
+            if (cond.getLiteral() != null && col.getTableIndex() == k
+                && col.getTable() == this) {
+                index = _indexes[col.getColumnIndex()];
+            }
+            if (index == null && cond.getLiteral() != null
+                && col.getTableIndex() == k && col.getTable() == this
+                && _crackers != null
+                && Cracker.range(cond.getRelation(), "") != null) {
+                if (cracked == null) {
+                    cracked = new ArrayList<>();
+                }
+                cracked.add(cond);
+                if (cond.getRelation().equals("like")) {
+                    residual.add(cond);
+                }
+            } else if (index == null) {
+                residual.add(cond);
+                if (cond.getLiteral() != null && col.getTableIndex() == k
+                    && col.getTable() == this) {
+                    result = narrow(result, cond);
+                }
+            } else {
+                Bitmap rows = index.lookup(cond.getRelation(),
+                                           cond.getLiteral());
+                result = result == null ? rows : Bitmap.and(result, rows);
+                Stats.count("index.lookups", 1);
+                if (Explain.active()) {
+                    Explain.note("index: %s %s '%s' matches %d rows",
+                                 col.getName(), cond.getRelation(),
+                                 cond.getLiteral(), rows.cardinality());
+                }
+            }
+        }
+        if (cracked != null) {
+            Bitmap rows = crack(cracked);
+            result = result == null ? rows : Bitmap.and(result, rows);
+        }
+        if (result != null && _dead > 0) {
+            result = Bitmap.andNot(result, _deleted);
+        }
+        return result;
+    }
+
+    /** Return the rows satisfying every one of CONDITIONS, each of which
+     *  compares one of my columns with a literal by a relation that
+     *  Cracker.range accepts, except that for like conditions they need
+     *  only have the pattern's prefix.  The conditions on each column are
+     *  combined into one range, which that column's Cracker looks up. */
+    private Bitmap crack(List<Condition> conditions) {
+        String[] lo = new String[_rowSize], hi = new String[_rowSize];
+        boolean[] used = new boolean[_rowSize];
+        for (Condition cond : conditions) {
+            int c = cond.getColumn().getColumnIndex();
+            String[] range =
+                Cracker.range(cond.getRelation(), cond.getLiteral());
+            if (range[0] != null
+                && (lo[c] == null || range[0].compareTo(lo[c]) > 0)) {
+                lo[c] = range[0];
+            }
+            if (range[1] != null
+                && (hi[c] == null || range[1].compareTo(hi[c]) < 0)) {
+                hi[c] = range[1];
+            }
+            used[c] = true;
+        }
+        Bitmap result = null;
+        for (int c = 0; c < _rowSize; c += 1) {
+            if (used[c]) {
+                Cracker cracker = cracker(c);
+                Bitmap rows = cracker.lookup(lo[c], hi[c]);
+                result = result == null ? rows : Bitmap.and(result, rows);
+                if (Explain.active()) {
+                    Explain.note("crack: %s matches %d rows", getTitle(c),
+                                 rows.cardinality());
+                }
+            }
+        }
+        return result;
+    }
+
+    /** Return the members of ROWS (all rows, if ROWS is null) that COND,
+     *  which compares one of my columns with a literal, does not rule out
+     *  by their partition or by the zone maps of their blocks, or ROWS
+     *  itself if it rules out none. */
+    private Bitmap narrow(Bitmap rows, Condition cond) {
+        int k = cond.getColumn().getColumnIndex();
+        String relation = cond.getRelation(), literal = cond.getLiteral();
+        Bitmap result = null;
+        if (k == _partitionColumn && relation.equals("=")) {
+            int p = partitionOf(literal, _partitions.length);
+            result = _partitions[p];
+            Stats.count("partition.lookups", 1);
+            Explain.note("partition: %s = '%s' touches partition %d of %d",
+                         getTitle(k), literal, p, _partitions.length);
+        }
+        Bitmap zones = _zones.lookup(k, relation, literal);
+        if (zones != null) {
+            result = result == null ? zones : Bitmap.and(result, zones);
+            if (Explain.active()) {
+                Explain.note("zone map: %s %s '%s' leaves %d of %d rows",
+                             getTitle(k), relation, literal,
+                             zones.cardinality(), size());
+            }
+        }
+        if (result == null) {
+            return rows;
+        }
+        return rows == null ? result : Bitmap.and(rows, result);
+    }
+
+    /** Return the first row number >= ROW that is in ROWS, or that is
+     *  less than size() and not deleted if ROWS is null; or -1 if there
+     *  is none.  ROWS must contain no deleted rows. */
+    int nextRow(Bitmap rows, int row) {
+        if (rows != null) {
+            return rows.next(row);
+        }
+        if (_dead > 0) {
+            while (row < size() && _deleted.contains(row)) {
+                row += 1;
+            }
+        }
+        return row < size() ? row : -1;
     }
 
     /** Add a new row whose column values are extracted by COLUMNS from
-     *  the rows indexed by ROWS, if no equal row already exists.
+     *  the rows at which ROWS stands, if no equal row already exists.
      *  Return true if anything was added, false otherwise. See
-     *  Column.getFrom(Integer...) for a description of how Columns
-     *  extract values. */
-    public boolean add(List<Column> columns, Integer... rows) {
+     *  Column.get(Cursor) for a description of how Columns extract
+     *  values. */
+    public boolean add(List<Column> columns, Cursor rows) {
         String[] values = new String[columns.size()];
         for (int i = 0; i < columns.size(); i++) {
-            values[i] = columns.get(i).getFrom(rows);
+            values[i] = columns.get(i).get(rows);
         }
         return add(values);
     }
 
     /** Read the contents of the file NAME.db, and return as a Table.
-     *  Format errors in the .db file cause a DBException. */
+     *  Format errors in the .db file cause a DBException.  If LAZY_LOAD,
+     *  only the header and the positions of the rows are read now, and
+     *  each column is decoded when a Column first refers to it (or when
+     *  some other operation first needs its values).  A file written by
+     *  a packed or compressed store is read as a PackedFile, decoding
+     *  each column lazily, or every column now if not LAZY_LOAD. */
     static Table readTable(String name) {
+        Storer.await(name + ".db");
+        if (PackedFile.isPacked(name + ".db")) {
+            Table table = readLazily(name, true);
+            for (int c = 0; !LAZY_LOAD && c < table._rowSize; c += 1) {
+                table.materialize(c);
+            }
+            return table;
+        }
+        if (LAZY_LOAD && DbFile.fits(name + ".db")) {
+            return readLazily(name, false);
+        }
         BufferedReader input;
         Table table;
         input = null;
         table = null;
+        long start = System.nanoTime();
         try {
             input = new BufferedReader(new FileReader(name + ".db"));
             String header = input.readLine();
@@ -146,7 +652,9 @@ class Table {
                 table.add(newRow);
                 line = input.readLine();
             }
-
+            Stats.count("load.bytes", new File(name + ".db").length());
+            Stats.count("load.rows", table.size());
+            Stats.time("op.load", start);
         } catch (FileNotFoundException e) {
             throw error("could not find %s.db", name);
         } catch (IOException e) {
@@ -163,91 +671,334 @@ class Table {
         return table;
     }
 
-    /** Write the contents of TABLE into the file NAME.db. Any I/O errors
-     *  cause a DBException. */
-    void writeTable(String name) {
-        PrintStream output;
-        output = null;
-        try {
-            String sep;
-            sep = "";
-            output = new PrintStream(name + ".db");
+    /** Return the table in NAME.db, which is a PackedFile iff PACKED and
+     *  otherwise a DbFile, with its columns left in the file until
+     *  needed. */
+    private static Table readLazily(String name, boolean packed) {
+        long start = System.nanoTime();
+        TableFile file = packed ? new PackedFile(name + ".db")
+            : new DbFile(name + ".db");
+        Table table = fromFile(file, file.rows() >= OFF_HEAP_ROWS);
+        Stats.count("load.bytes", file.length());
+        Stats.count("load.rows", table.size());
+        Stats.time("op.load", start);
+        return table;
+    }
 
+    /** Return a table holding the rows of FILE, with its columns left in
+     *  FILE until needed, and stored off the heap iff OFFHEAP once they
+     *  are decoded. */
+    static Table fromFile(TableFile file, boolean offHeap) {
+        Table table = new Table(file.titles());
+        table._size = file.rows();
+        table._offHeap = offHeap;
+        for (int c = 0; c < table._rowSize; c += 1) {
+            table._columns[c] = new LazyColumn(table, file, c);
+        }
+        table._zones = new ZoneMap(table);
+        return table;
+    }
 
-            int i = 0;
-            for (String n : _titles) {
-                sep += n;
-                if (i < columns() - 1) {
-                    sep += ",";
-                    i += 1;
-                }
-            }
-            sep += "\n";
-            for (int r = 0; r < size(); r++) {
-                for (int c = 0; c < columns(); c++) {
-                    sep += get(r, c);
-                    if (c < columns() - 1) {
-                        sep += ",";
+    /** Decode column number K from my file, if it has yet to be. */
+    void materialize(int k) {
+        if (_columns[k] instanceof LazyColumn) {
+            ColumnValues values = ((LazyColumn) _columns[k]).values();
+            synchronized (this) {
+                _columns[k] = values;
+            }
+        }
+    }
+
+    /** Add to me the rows of the file FILENAME, one per line with values
+     *  separated by commas, skipping any row equal to one I already have,
+     *  and return the number added.  If HEADER, the first line holds the
+     *  titles of my columns in the order of the values on each line;
+     *  otherwise, values are in the order of my columns.  Rows go
+     *  straight into my columns, which are first given room for as many
+     *  rows as the size of the file suggests, and my indexes are brought
+     *  up to date once, at the end, rather than row by row. */
+    int copy(String fileName, boolean header) {
+        Storer.await(fileName);
+        long start = System.nanoTime();
+        File file = new File(fileName);
+        int first = _size;
+        try (BufferedReader input =
+             new BufferedReader(new FileReader(file), 1 << 16)) {
+            int[] order = new int[_rowSize];
+            for (int c = 0; c < _rowSize; c += 1) {
+                order[c] = c;
+            }
+            String line = input.readLine();
+            int lineNum = 1;
+            if (header && line != null) {
+                order = fieldOrder(line.split(",", -1), fileName);
+                line = input.readLine();
+                lineNum += 1;
+            }
+            if (line != null) {
+                reserve(file.length() / (line.length() + 1));
+            }
+            String[] values = new String[_rowSize];
+            RowSet distinct = distinct();
+            for (; line != null; line = input.readLine(), lineNum += 1) {
+                if (line.isEmpty()) {
+                    continue;
+                }
+                String[] fields = line.split(",", -1);
+                if (fields.length != _rowSize) {
+                    throw error("%s:%d: expected %d values", fileName,
+                                lineNum, _rowSize);
+                }
+                for (int f = 0; f < _rowSize; f += 1) {
+                    values[order[f]] = fields[f];
+                }
+                long hash = RowSet.fingerprint(values);
+                if (distinct.find(values, hash) >= 0) {
+                    continue;
+                }
+                synchronized (this) {
+                    for (int c = 0; c < _rowSize; c += 1) {
+                        _columns[c].add(values[c]);
                     }
                 }
-                sep += "\n";
+                _size += 1;
+                distinct.add(_size - 1, hash);
+                _zones.add(values);
+                if (_partitions != null) {
+                    int p = partitionOf(values[_partitionColumn],
+                                        _partitions.length);
+                    _partitions[p].add(_size - 1);
+                }
             }
-            output.print(sep);
-
-
+            Stats.count("copy.bytes", file.length());
+        } catch (FileNotFoundException e) {
+            throw error("could not find %s", fileName);
         } catch (IOException e) {
-            throw error("trouble writing to %s.db", name);
+            throw error("problem reading from %s", fileName);
         } finally {
-            if (output != null) {
-                output.close();
+            copied(first);
+        }
+        Stats.count("copy.rows", _size - first);
+        Stats.time("op.copy", start);
+        return _size - first;
+    }
+
+    /** Return, for each of the column TITLES of a file being copied into
+     *  me from FILENAME, the number of my column with that title.  Each
+     *  of my columns must appear exactly once. */
+    private int[] fieldOrder(String[] titles, String fileName) {
+        if (titles.length != _rowSize) {
+            throw error("%s: expected %d column titles", fileName, _rowSize);
+        }
+        int[] order = new int[_rowSize];
+        boolean[] seen = new boolean[_rowSize];
+        for (int f = 0; f < _rowSize; f += 1) {
+            order[f] = findColumn(titles[f]);
+            if (order[f] < 0 || seen[order[f]]) {
+                throw error("%s: unknown or repeated column %s", fileName,
+                            titles[f]);
             }
+            seen[order[f]] = true;
         }
+        return order;
     }
 
-    /** Print my contents on the standard output, separated by spaces
-     *  and indented by two spaces. */
-    void print() {
-        if (size() == 0) {
+    /** Make room in my columns for about ROWS more rows, moving them off
+     *  the heap first if that many would take them past OFF_HEAP_ROWS. */
+    private void reserve(long rows) {
+        long capacity = Math.min(_size + rows, Integer.MAX_VALUE / 8);
+        if (!_offHeap && capacity >= OFF_HEAP_ROWS) {
+            setOffHeap(true);
+        }
+        synchronized (this) {
+            for (ColumnValues column : _columns) {
+                column.reserve((int) capacity);
+            }
+        }
+    }
+
+    /** Bring my storage kind, indexes, and views up to date with the rows
+     *  from number FIRST on, which have been appended to my columns, zone
+     *  maps, and partitions alone.  The new rows are added to all of my
+     *  indexes in one pass over them. */
+    private void copied(int first) {
+        if (_size == first) {
             return;
         }
-        for (int i = 0; i < size(); i++) {
-            int smallest = 0;
-            while (_index.contains(smallest) && smallest + 1 < size()) {
-                smallest += 1;
+        if (!_offHeap && _size >= OFF_HEAP_ROWS) {
+            setOffHeap(true);
+        }
+        if (_views.isEmpty()
+            && Arrays.stream(_indexes).allMatch(index -> index == null)) {
+            return;
+        }
+        String[] values = new String[_rowSize];
+        for (int row = first; row < _size; row += 1) {
+            for (int c = 0; c < _rowSize; c += 1) {
+                values[c] = get(row, c);
             }
-            for (int k = 0; k < size(); k++) {
-                if (_index.contains(k)) {
-                    continue;
-                }
-                if (compareRows(smallest, k) > 0) {
-                    smallest = k;
+            for (BitmapIndex index : _indexes) {
+                if (index != null) {
+                    index.add(values, row);
                 }
             }
-            _index.add(smallest);
+            for (View view : _views) {
+                view.inserted(this, row);
+            }
+        }
+    }
+
+    /** Write the contents of TABLE into the file NAME.db. Any I/O errors
+     *  cause a DBException. */
+    void writeTable(String name) {
+        snapshot().write(name, "text");
+    }
+
+    /** Return a snapshot of my current live rows. */
+    Snapshot snapshot() {
+        return new Snapshot(this);
+    }
+
+    /** Print my contents on the standard output, separated by spaces
+     *  and indented by two spaces. */
+    void print() {
+        print(System.out);
+    }
+
+    /** Print my contents on OUTPUT, as for print().  Rows in the database
+     *  are supposed to be sorted.  To do so, we build a list whose kth
+     *  element is the row number of the kth row in lexicographic order,
+     *  with a single O(n log n) sort rather than maintaining it on every
+     *  insertion, and leave it in insertion order when _ordered is set.
+     *  The list is local, so that several threads may print me at once. */
+    void print(PrintStream output) {
+        ArrayList<Integer> index = new ArrayList<>(liveRows());
+        for (int r = nextRow(null, 0); r >= 0; r = nextRow(null, r + 1)) {
+            index.add(r);
+        }
+        if (!_ordered) {
+            index.sort(this::compareRows);
         }
-        String sep = "  ";
-        for (int r = 0; r < _index.size(); r++) {
+        StringBuilder out = new StringBuilder();
+        for (int r : index) {
+            out.append("  ");
             for (int c = 0; c < columns(); c++) {
-                sep += get(_index.get(r), c);
+                out.append(get(r, c));
                 if (c < columns() - 1) {
-                    sep += " ";
+                    out.append(" ");
                 }
             }
-            sep += "\n";
-            if (r < size() - 1) {
-                sep += "  ";
+            out.append("\n");
+        }
+        output.print(out);
+    }
+
+    /** Return an estimate of the number of heap bytes occupied by my
+     *  values, counting each value as a separate String.  Like a
+     *  Snapshot, this takes my columns and their sizes under my lock, so
+     *  that it may run while rows are being added on another thread. */
+    long memory() {
+        ColumnValues[] columns;
+        int[] sizes;
+        synchronized (this) {
+            columns = _columns.clone();
+            sizes = new int[columns.length];
+            for (int c = 0; c < columns.length; c += 1) {
+                sizes[c] = columns[c].size();
             }
         }
-        System.out.print(sep);
+        long bytes = 0;
+        for (int c = 0; c < columns.length; c += 1) {
+            bytes += columns[c].memory(sizes[c]);
+        }
+        return bytes;
+    }
+
+    /** Return the number of bytes occupied by my values outside the
+     *  heap. */
+    long offHeapMemory() {
+        ColumnValues[] columns;
+        synchronized (this) {
+            columns = _columns.clone();
+        }
+        long bytes = 0;
+        for (ColumnValues column : columns) {
+            bytes += column.offHeapMemory();
+        }
+        return bytes;
+    }
+
+    /** Return true iff my rows print in the order they were added, rather
+     *  than in lexicographic order. */
+    boolean isOrdered() {
+        return _ordered;
+    }
+
+    /** Make my rows print in the order they were added iff ORDERED. */
+    void setOrdered(boolean ordered) {
+        _ordered = ordered;
+    }
+
+    /** Return true iff conditions on my columns crack them (see
+     *  Cracker). */
+    boolean isCracking() {
+        return _crackers != null;
+    }
+
+    /** Have conditions comparing my columns with literals crack them iff
+     *  CRACKING, starting each column's Cracker when it is first used.
+     *  Turning cracking off discards the Crackers. */
+    synchronized void setCracking(boolean cracking) {
+        if (cracking != isCracking()) {
+            _crackers = cracking ? new Cracker[_rowSize] : null;
+        }
     }
 
+    /** Return the Cracker of each of my columns (null for columns not yet
+     *  cracked), or null if I am not cracking. */
+    Cracker[] crackers() {
+        return _crackers;
+    }
+
+    /** Return the Cracker of column number K, starting it if need be, or
+     *  null if I am not cracking. */
+    private synchronized Cracker cracker(int k) {
+        if (_crackers == null) {
+            return null;
+        }
+        if (_crackers[k] == null) {
+            _crackers[k] = new Cracker(this, k);
+        }
+        return _crackers[k];
+    }
 
     /** Return a new Table whose columns are COLUMNNAMES, selected from
      *  rows of this table that satisfy CONDITIONS. */
     Table select(List<String> columnNames, List<Condition> conditions) {
+        return select(columnNames, conditions, -1);
+    }
+
+    /** As for select(COLUMNNAMES, CONDITIONS), but if LIMIT is
+     *  non-negative, stop scanning as soon as the result has LIMIT rows. */
+    Table select(List<String> columnNames, List<Condition> conditions,
+                 int limit) {
+        long start = System.nanoTime();
+        BitmapIndex covering = coveringIndex(columnNames, conditions);
+        if (covering != null) {
+            Table result =
+                indexOnlySelect(covering, columnNames, conditions, limit);
+            Stats.time("op.select", start);
+            return result;
+        }
         Table result = new Table(columnNames);
-        for (int row = 0; row < size(); row++) {
-            if (conditions == null || Condition.test(conditions, row)) {
+        List<Condition> residual = new ArrayList<>();
+        Bitmap rows = filter(conditions, 0, residual);
+        long scanned = 0;
+        Cursor cursor = new Cursor(1);
+        for (int row = nextRow(rows, 0); row >= 0 && result.size() != limit;
+             row = nextRow(rows, row + 1)) {
+            scanned += 1;
+            if (Condition.test(residual, cursor.at(row))) {
                 String[] newRow = new String[columnNames.size()];
                 for (int i = 0; i < columnNames.size(); i += 1) {
                     newRow[i] = get(row, findColumn(columnNames.get(i)));
@@ -255,8 +1006,136 @@ class Table {
                 result.add(newRow);
             }
         }
+        Stats.count("rows.scanned", scanned);
+        Stats.count("rows.emitted", result.size());
+        Stats.time("op.select", start);
+        Explain.note("scan: examined %d of %d rows, selected %d", scanned,
+                     size(), result.size());
         return result;
+    }
 
+    /** Return an index of mine whose indexed and included columns
+     *  include all of COLUMNNAMES and all columns used in CONDITIONS,
+     *  preferring one whose indexed column CONDITIONS compare with a
+     *  literal; or null if there is none. */
+    private BitmapIndex coveringIndex(List<String> columnNames,
+                                      List<Condition> conditions) {
+        BitmapIndex result = null;
+        for (BitmapIndex index : _indexes) {
+            if (index == null || !covers(index, columnNames, conditions)) {
+                continue;
+            }
+            if (result == null) {
+                result = index;
+            }
+            for (Condition cond : conditions) {
+                if (cond.getLiteral() != null
+                    && cond.getColumn().getColumnIndex() == index.column()) {
+                    return index;
+                }
+            }
+        }
+        return result;
+    }
+
+    /** Return true iff the indexed and included columns of INDEX include
+     *  all of COLUMNNAMES and all columns used in CONDITIONS. */
+    private boolean covers(BitmapIndex index, List<String> columnNames,
+                           List<Condition> conditions) {
+        for (String name : columnNames) {
+            int k = findColumn(name);
+            if (k == -1 || !index.covers(k)) {
+                return false;
+            }
+        }
+        for (Condition cond : conditions) {
+            Column col2 = cond.getColumn2();
+            if (cond.getColumn().getTable() != this
+                || !index.covers(cond.getColumn().getColumnIndex())
+                || col2 != null && (col2.getTable() != this
+                                    || !index.covers(col2.getColumnIndex()))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Return a new Table whose columns are COLUMNNAMES, selected from
+     *  the live rows that satisfy CONDITIONS, using only the values held by
+     *  INDEX, which covers COLUMNNAMES and CONDITIONS, and no column of
+     *  mine.  If LIMIT is non-negative, stop as soon as the result has
+     *  LIMIT rows. */
+    private Table indexOnlySelect(BitmapIndex index, List<String> columnNames,
+                                  List<Condition> conditions, int limit) {
+        Table result = new Table(columnNames);
+        int[] include = index.include();
+        int[] slot = new int[columns()];
+        slot[index.column()] = 0;
+        for (int i = 0; i < include.length; i += 1) {
+            slot[include[i]] = i + 1;
+        }
+        Collection<String> keys = index.values();
+        for (Condition cond : conditions) {
+            if (cond.getLiteral() != null
+                && cond.getColumn().getColumnIndex() == index.column()) {
+                keys = index.values(cond.getRelation(), cond.getLiteral());
+                break;
+            }
+        }
+        String[] entry = new String[include.length + 1];
+        long examined = 0;
+        Iterator<String> values = keys.iterator();
+        while (values.hasNext() && result.size() != limit) {
+            entry[0] = values.next();
+            Bitmap rows = index.rows(entry[0]);
+            List<String[]> included = index.included(entry[0]);
+            int i = 0;
+            for (int row = rows.next(0); row >= 0 && result.size() != limit;
+                 row = rows.next(row + 1)) {
+                if (include.length > 0) {
+                    System.arraycopy(included.get(i), 0, entry, 1,
+                                     include.length);
+                }
+                i += 1;
+                if (_dead > 0 && _deleted.contains(row)) {
+                    continue;
+                }
+                examined += 1;
+                if (holds(conditions, slot, entry)) {
+                    String[] newRow = new String[columnNames.size()];
+                    for (int c = 0; c < newRow.length; c += 1) {
+                        newRow[c] = entry[slot[findColumn(columnNames
+                                                          .get(c))]];
+                    }
+                    result.add(newRow);
+                }
+            }
+        }
+        Stats.count("index.covering", 1);
+        Stats.count("index.entries", examined);
+        Stats.count("rows.emitted", result.size());
+        Explain.note("index-only scan: index on %s covers the select",
+                     getTitle(index.column()));
+        Explain.note("scan: examined %d index entries, selected %d",
+                     examined, result.size());
+        return result;
+    }
+
+    /** Return true iff every one of CONDITIONS, each comparing columns of
+     *  mine with each other or with literals, holds when the value of
+     *  each of my columns c is ENTRY[SLOT[c]]. */
+    private static boolean holds(List<Condition> conditions, int[] slot,
+                                 String[] entry) {
+        for (Condition cond : conditions) {
+            Column col2 = cond.getColumn2();
+            String value2 = col2 == null ? cond.getLiteral()
+                : entry[slot[col2.getColumnIndex()]];
+            if (!cond.holds(entry[slot[cond.getColumn().getColumnIndex()]],
+                            value2)) {
+                return false;
+            }
+        }
+        return true;
     }
 
     /** Return a new Table whose columns are COLUMNNAMES, selected
@@ -264,12 +1143,67 @@ class Table {
      *  on all columns with identical names and satisfy CONDITIONS. */
     Table select(Table table2, List<String> columnNames,
                  List<Condition> conditions) {
+        return select(table2, columnNames, conditions, -1);
+    }
+
+    /** As for select(TABLE2, COLUMNNAMES, CONDITIONS), but if LIMIT is
+     *  non-negative, stop scanning as soon as the result has LIMIT rows. */
+    Table select(Table table2, List<String> columnNames,
+                 List<Condition> conditions, int limit) {
         Table result = new Table(columnNames);
         List<Column> columns = new ArrayList<>();
         for (String colName : columnNames) {
             Column c1 = new Column(colName, this, table2);
             columns.add(c1);
         }
+        if (limit == 0) {
+            return result;
+        }
+        long start = System.nanoTime();
+        scan(table2, conditions, rows -> {
+            String[] newRow = new String[columnNames.size()];
+            for (int i = 0; i < newRow.length; i += 1) {
+                newRow[i] = columns.get(i).get(rows);
+            }
+            result.add(newRow);
+            return result.size() != limit;
+        });
+        Stats.count("rows.emitted", result.size());
+        Stats.time("op.join", start);
+        return result;
+    }
+
+    /** Call VISITOR on each pair of rows from this table and from TABLE2
+     *  that match on all columns with identical names and satisfy
+     *  CONDITIONS (if non-null), stopping early if VISITOR returns
+     *  false.  Conditions answerable from either table's bitmap indexes
+     *  restrict the rows of that table before any pair is formed, as do
+     *  conditions that mention only one of the tables.  When one side is
+     *  then much smaller than the other, a BloomFilter over its join keys
+     *  discards rows of the other side that cannot match.  Tables with
+     *  common columns are then joined by a HashJoin, and others by a
+     *  nested loop. */
+    void scan(Table table2, List<Condition> conditions, RowVisitor visitor) {
+        List<Condition> rest = new ArrayList<>();
+        List<Condition> residual = new ArrayList<>();
+        Bitmap bits1 = filter(conditions, 0, rest);
+        Bitmap bits2 = table2.filter(rest, 1, residual);
+        List<Condition> local1 = new ArrayList<>();
+        List<Condition> local2 = new ArrayList<>();
+        List<Condition> cross = new ArrayList<>();
+        for (Condition cond : residual) {
+            switch (cond.tables()) {
+            case 1:
+                local1.add(cond);
+                break;
+            case 2:
+                local2.add(cond);
+                break;
+            default:
+                cross.add(cond);
+                break;
+            }
+        }
         List<String> commonColName = new ArrayList<>();
         for (int i = 0; i < this.columns(); i += 1) {
             for (int j = 0; j < table2.columns(); j += 1) {
@@ -288,23 +1222,175 @@ class Table {
             common1.add(c1);
             common2.add(c2);
         }
-        for (int row1 = 0; row1 < this.size(); row1++) {
-            for (int row2 = 0; row2 < table2.size(); row2++) {
-                if (equijoin(common1, common2, row1, row2)) {
-                    if (conditions == null
-                            || Condition.test(conditions, row1, row2)) {
-                        String[] newRow = new String[columnNames.size()];
-                        for (int i = 0; i < newRow.length; i += 1) {
-                            Column c1 = columns.get(i);
-                            newRow[i] = c1.getFrom(row1, row2);
+        if (_partitions != null && table2._partitions != null
+            && _partitions.length == table2._partitions.length
+            && commonColName.contains(getTitle(_partitionColumn))
+            && getTitle(_partitionColumn).equals(
+                   table2.getTitle(table2._partitionColumn))) {
+            partitionJoin(table2, bits1, local1, bits2, local2,
+                          common1, common2, cross, visitor);
+            return;
+        }
+        int[] rows1 = candidates(bits1, local1, 0);
+        int[] rows2 = table2.candidates(bits2, local2, 1);
+        Explain.note("join: %d of %d rows of the first table, "
+                     + "%d of %d rows of the second", rows1.length, size(),
+                     rows2.length, table2.size());
+        if (!common1.isEmpty() && rows1.length > 0 && rows2.length > 0) {
+            if (rows1.length * BLOOM_RATIO <= rows2.length) {
+                rows2 = semijoin(common1, rows1, common2, rows2, "first");
+            } else if (rows2.length * BLOOM_RATIO <= rows1.length) {
+                rows1 = semijoin(common2, rows2, common1, rows1, "second");
+            }
+        }
+        if (!common1.isEmpty()) {
+            new HashJoin(common1, common2, cross, visitor,
+                         HashJoin.MEMORY_BUDGET).join(rows1, rows2);
+            return;
+        }
+        long pairs = 0;
+        Cursor cursor = new Cursor(2);
+        try {
+            for (int row1 : rows1) {
+                for (int row2 : rows2) {
+                    pairs += 1;
+                    if (Condition.test(cross, cursor.at(row1, row2))) {
+                        if (!visitor.visit(cursor)) {
+                            return;
                         }
-                        result.add(newRow);
                     }
                 }
             }
+        } finally {
+            Stats.count("rows.scanned", pairs);
+            Explain.note("nested loop: %d pairs", pairs);
         }
+    }
 
-        return result;
+    /** Join the rows of this table that are in BITS1 (all rows, if it is
+     *  null) and satisfy LOCAL1 with the rows of TABLE2 that are in BITS2
+     *  and satisfy LOCAL2, where both tables are partitioned alike on one
+     *  of the common columns COMMON1 and COMMON2, passing each pair that
+     *  agrees on the common columns and satisfies CROSS to VISITOR.  Only
+     *  rows in corresponding partitions can match, so each pair of
+     *  partitions is joined on its own, in parallel, and the pairs found
+     *  are then visited in turn. */
+    private void partitionJoin(Table table2, Bitmap bits1,
+                               List<Condition> local1, Bitmap bits2,
+                               List<Condition> local2, List<Column> common1,
+                               List<Column> common2, List<Condition> cross,
+                               RowVisitor visitor) {
+        int n = _partitions.length;
+        long budget = HashJoin.MEMORY_BUDGET
+            / Math.min(n, Runtime.getRuntime().availableProcessors());
+        long[] sizes = new long[2];
+        List<String> notes = Explain.suspend();
+        RowPairs[] parts;
+        try {
+            parts = IntStream.range(0, n).parallel()
+                .mapToObj(p -> {
+                    int[] rows1 = candidates(partition(bits1, p), local1, 0);
+                    int[] rows2 =
+                        table2.candidates(table2.partition(bits2, p),
+                                          local2, 1);
+                    synchronized (sizes) {
+                        sizes[0] += rows1.length;
+                        sizes[1] += rows2.length;
+                    }
+                    RowPairs pairs = new RowPairs();
+                    new HashJoin(common1, common2, cross, pairs, budget)
+                        .join(rows1, rows2);
+                    return pairs;
+                })
+                .toArray(RowPairs[]::new);
+        } finally {
+            Explain.resume(notes);
+        }
+        Stats.count("join.partitioned", 1);
+        Stats.count("join.partitions", n);
+        Explain.note("join: %d of %d rows of the first table, "
+                     + "%d of %d rows of the second", sizes[0], size(),
+                     sizes[1], table2.size());
+        Explain.note("partition-wise hash join: %d partitions on %s", n,
+                     getTitle(_partitionColumn));
+        Cursor cursor = new Cursor(2);
+        for (RowPairs pairs : parts) {
+            for (int i = 0; i < pairs._size; i += 2) {
+                if (!visitor.visit(cursor.at(pairs._rows[i],
+                                             pairs._rows[i + 1]))) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /** Return the live rows of partition number P that are in ROWS (all
+     *  rows, if ROWS is null). */
+    private Bitmap partition(Bitmap rows, int p) {
+        if (rows != null) {
+            return Bitmap.and(rows, _partitions[p]);
+        }
+        return _dead == 0 ? _partitions[p]
+            : Bitmap.andNot(_partitions[p], _deleted);
+    }
+
+    /** Return, in increasing order, the numbers of the rows of this
+     *  table, the Kth (0 or 1) of a join, that are in ROWS (or all rows,
+     *  if ROWS is null) and satisfy CONDITIONS, which mention only this
+     *  table. */
+    private int[] candidates(Bitmap rows, List<Condition> conditions,
+                             int k) {
+        int[] result = new int[rows == null ? size() : rows.cardinality()];
+        int n = 0;
+        /* The row number of the other table is never examined. */
+        Cursor cursor = new Cursor(2);
+        for (int row = nextRow(rows, 0); row >= 0;
+             row = nextRow(rows, row + 1)) {
+            if (Condition.test(conditions, cursor.set(k, row))) {
+                result[n] = row;
+                n += 1;
+            }
+        }
+        Stats.count("rows.scanned", result.length);
+        return Arrays.copyOf(result, n);
+    }
+
+    /** Return the rows among PROBE whose values in the columns PROBEKEYS
+     *  might equal, column for column, the values in the columns
+     *  BUILDKEYS of one of the rows BUILD, using a BloomFilter sized for
+     *  BUILD.  SIDE names the build side in explain output. */
+    private static int[] semijoin(List<Column> buildKeys, int[] build,
+                                  List<Column> probeKeys, int[] probe,
+                                  String side) {
+        BloomFilter bloom = new BloomFilter(build.length, BLOOM_FPP);
+        for (int row : build) {
+            bloom.add(keyHash(buildKeys, row));
+        }
+        int[] result = new int[probe.length];
+        int n = 0;
+        for (int row : probe) {
+            if (bloom.mightContain(keyHash(probeKeys, row))) {
+                result[n] = row;
+                n += 1;
+            }
+        }
+        Stats.count("join.bloom.filters", 1);
+        Stats.count("join.bloom.discarded", probe.length - n);
+        Explain.note("bloom filter: built on %d rows of the %s table "
+                     + "(%d bits, %d hashes), kept %d of %d probe rows",
+                     build.length, side, bloom.bits(), bloom.hashes(), n,
+                     probe.length);
+        return Arrays.copyOf(result, n);
+    }
+
+    /** Return a hash of the values of the columns KEYS in ROW of their
+     *  table. */
+    static long keyHash(List<Column> keys, int row) {
+        long h = 0;
+        for (Column key : keys) {
+            h = h * 0x9e3779b97f4a7c15L + key.get(row).hashCode();
+        }
+        return h;
     }
 
     /** Return <0, 0, or >0 depending on whether the row formed from
@@ -312,7 +1398,7 @@ class Table {
      *  is less than, equal to, or greater than that formed from elememts
      *  _columns[0].get(K1), _columns[1].get(K1), ....  This method ignores
      *  the _index. */
-    private int compareRows(int k0, int k1) {
+    int compareRows(int k0, int k1) {
         for (int i = 0; i < _columns.length; i += 1) {
             int c = _columns[i].get(k0).compareTo(_columns[i].get(k1));
             if (c != 0) {
@@ -328,13 +1414,13 @@ class Table {
      *  that the columns in COMMON1 apply to this table, those in
      *  COMMON2 to another, and that ROW1 and ROW2 are indices, respectively,
      *  into those tables. */
-    private static boolean equijoin(List<Column> common1, List<Column> common2,
-                                    int row1, int row2) {
+    static boolean equijoin(List<Column> common1, List<Column> common2,
+                            int row1, int row2) {
         for (int i = 0; i < common1.size(); i += 1) {
             Column c1 = common1.get(i);
-            String elem1 = c1.getFrom(row1);
+            String elem1 = c1.get(row1);
             Column c2 = common2.get(i);
-            String elem2 = c2.getFrom(row2);
+            String elem2 = c2.get(row2);
             if (!elem1.equals(elem2)) {
                 return false;
             }
@@ -342,6 +1428,33 @@ class Table {
         return true;
     }
 
+    /** Receives each combination of rows produced by a scan. */
+    interface RowVisitor {
+        /** Process the combination of rows at which ROWS stands, where
+         *  ROWS.row(k) is a row number in the kth table of the scan.  ROWS
+         *  moves on once I return, so it must not be kept.  Return false
+         *  to end the scan. */
+        boolean visit(Cursor rows);
+    }
+
+    /** A RowVisitor that records the pairs of rows it visits. */
+    private static class RowPairs implements RowVisitor {
+        @Override
+        public boolean visit(Cursor rows) {
+            if (_size == _rows.length) {
+                _rows = Arrays.copyOf(_rows, 2 * _rows.length);
+            }
+            _rows[_size] = rows.row(0);
+            _rows[_size + 1] = rows.row(1);
+            _size += 2;
+            return true;
+        }
+
+        /** The rows visited, as consecutive pairs in _rows[0 .. _size-1]. */
+        private int[] _rows = new int[16];
+        private int _size;
+    }
+
     /** A class that is essentially ArrayList<String>.  For technical reasons,
      *  we need to encapsulate ArrayList<String> like this because the
      *  underlying design of Java does not properly distinguish between
@@ -351,27 +1464,427 @@ class Table {
      *  ArrayList<Integer>, or ArrayList<Object>).  This leads to annoying
      *  compiler warnings.  The trick of defining a new type avoids this
      *  issue. */
-    private static class ValueList extends ArrayList<String> {
+    private static class ValueList extends ArrayList<String>
+        implements ColumnValues {
+
+        /** An empty list with room for CAPACITY values. */
+        ValueList(int capacity) {
+            super(capacity);
+        }
+
+        @Override
+        public void reserve(int capacity) {
+            ensureCapacity(capacity);
+        }
+
+        @Override
+        public long memory(int rows) {
+            long bytes = ARRAY_BYTES + REFERENCE_BYTES * rows;
+            for (int r = 0; r < rows; r += 1) {
+                bytes += STRING_BYTES + get(r).length();
+            }
+            return bytes;
+        }
+
+        @Override
+        public long offHeapMemory() {
+            return 0;
+        }
+    }
+
+    /** A column of a table loaded from a TableFile, whose values are
+     *  decoded from the file the first time any of them is needed. */
+    private static class LazyColumn implements ColumnValues {
+
+        /** Column number COLUMN of FILE, which is loaded into TABLE. */
+        LazyColumn(Table table, TableFile file, int column) {
+            _table = table;
+            _file = file;
+            _column = column;
+        }
+
+        /** Return my values, decoding them if necessary. */
+        ColumnValues values() {
+            ColumnValues values = _values;
+            if (values == null) {
+                synchronized (this) {
+                    values = _values;
+                    if (values == null) {
+                        values = _table.newColumn(_file.rows());
+                        _file.decode(_column, values);
+                        _values = values;
+                    }
+                }
+            }
+            return values;
+        }
+
+        @Override
+        public String get(int row) {
+            return values().get(row);
+        }
+
+        @Override
+        public boolean add(String value) {
+            return values().add(value);
+        }
+
+        @Override
+        public void reserve(int capacity) {
+            values().reserve(capacity);
+        }
+
+        @Override
+        public int size() {
+            ColumnValues values = _values;
+            return values == null ? _file.rows() : values.size();
+        }
+
+        @Override
+        public long memory(int rows) {
+            ColumnValues values = _values;
+            return values == null ? 0 : values.memory(rows);
+        }
+
+        @Override
+        public long offHeapMemory() {
+            ColumnValues values = _values;
+            return values == null ? 0 : values.offHeapMemory();
+        }
+
+        /** The table I belong to. */
+        private final Table _table;
+        /** The file holding my values. */
+        private final TableFile _file;
+        /** My column number in _file. */
+        private final int _column;
+        /** My values, once decoded. */
+        private volatile ColumnValues _values;
+    }
+
+    /** The live rows of a table at some moment, which can be written to
+     *  a .db file while the table goes on changing.  Taking one is cheap:
+     *  values are never changed once added to a column, and a compaction
+     *  replaces a table's columns rather than changing them, so it is
+     *  enough to hold on to the table's current columns, its number of
+     *  rows, and a copy of its deleted rows. */
+    static class Snapshot {
+
+        /** A snapshot of TABLE's current live rows. */
+        Snapshot(Table table) {
+            _table = table;
+            synchronized (table) {
+                _columns = table._columns.clone();
+            }
+            _rows = table._size;
+            _deleted = Bitmap.or(new Bitmap(), table._deleted);
+        }
+
+        /** Write my rows to NAME.db in FORMAT, replacing the file only
+         *  once the new contents are complete, so that a reader (including
+         *  a lazily loaded table) never sees a partly written file.
+         *  FORMAT is "text", for lines of values separated by commas,
+         *  "packed", for a PackedFile, or "compressed", for a PackedFile
+         *  whose blocks are deflated.  Any I/O errors cause a
+         *  DBException. */
+        void write(String name, String format) {
+            long start = System.nanoTime();
+            File file = new File(name + ".db");
+            File temp = new File(name + ".db.tmp");
+            try {
+                int live;
+                if (format.equals("text")) {
+                    live = writeText(temp);
+                } else {
+                    live = writePacked(temp, format.equals("compressed"));
+                }
+                Files.move(temp.toPath(), file.toPath(),
+                           StandardCopyOption.REPLACE_EXISTING,
+                           StandardCopyOption.ATOMIC_MOVE);
+                Stats.count("store.bytes", file.length());
+                Stats.count("store.rows", live);
+                Stats.time("op.store", start);
+            } catch (IOException e) {
+                temp.delete();
+                throw error("trouble writing to %s.db", name);
+            }
+        }
+
+        /** Write my rows to FILE as text, returning their number. */
+        private int writeText(File file) throws IOException {
+            try (Writer output =
+                 new BufferedWriter(new FileWriter(file), 1 << 16)) {
+                output.write(String.join(",", _table._titles));
+                output.write("\n");
+                StringBuilder line = new StringBuilder();
+                int live = 0;
+                for (int lo = 0; lo < _rows; lo += COMPACT_CHUNK) {
+                    int hi = Math.min(_rows, lo + COMPACT_CHUNK);
+                    line.setLength(0);
+                    synchronized (_table) {
+                        for (int r = lo; r < hi; r += 1) {
+                            if (_deleted.contains(r)) {
+                                continue;
+                            }
+                            for (int c = 0; c < _columns.length; c += 1) {
+                                if (c > 0) {
+                                    line.append(',');
+                                }
+                                line.append(_columns[c].get(r));
+                            }
+                            line.append('\n');
+                            live += 1;
+                        }
+                    }
+                    output.append(line);
+                }
+                return live;
+            }
+        }
+
+        /** Write my rows to FILE as a PackedFile, deflating its blocks iff
+         *  DEFLATE, and return their number.  Each column is
+         *  dictionary-encoded in turn, reading COMPACT_CHUNK rows at a
+         *  time. */
+        private int writePacked(File file, boolean deflate)
+            throws IOException {
+            int live = 0;
+            for (int r = 0; r < _rows; r += 1) {
+                if (!_deleted.contains(r)) {
+                    live += 1;
+                }
+            }
+            try (DataOutputStream out = new DataOutputStream(
+                     new BufferedOutputStream(new FileOutputStream(file),
+                                              1 << 16))) {
+                PackedFile.writeHeader(out, _table._titles, live);
+                for (ColumnValues column : _columns) {
+                    Map<String, Integer> codes = new HashMap<>();
+                    List<String> dictionary = new ArrayList<>();
+                    int[] rows = new int[live];
+                    int i = 0;
+                    for (int lo = 0; lo < _rows; lo += COMPACT_CHUNK) {
+                        int hi = Math.min(_rows, lo + COMPACT_CHUNK);
+                        synchronized (_table) {
+                            for (int r = lo; r < hi; r += 1) {
+                                if (_deleted.contains(r)) {
+                                    continue;
+                                }
+                                String value = column.get(r);
+                                Integer code = codes.get(value);
+                                if (code == null) {
+                                    code = dictionary.size();
+                                    codes.put(value, code);
+                                    dictionary.add(value);
+                                }
+                                rows[i] = code;
+                                i += 1;
+                            }
+                        }
+                    }
+                    PackedFile.writeColumn(out,
+                                           dictionary.toArray(new String[0]),
+                                           rows, deflate);
+                }
+            }
+            return live;
+        }
+
+        /** The table. */
+        private final Table _table;
+        /** Its columns when I was taken. */
+        private final ColumnValues[] _columns;
+        /** Its number of rows when I was taken. */
+        private final int _rows;
+        /** Its deleted rows when I was taken. */
+        private final Bitmap _deleted;
+    }
+
+    /** A rewrite of a table's columns without its deleted rows.  It is
+     *  built by the Compactor's thread from the rows that existed when it
+     *  was created, while the table remains in use, and installed between
+     *  statements. */
+    static class Compaction implements Runnable {
+
+        /** A compaction of TABLE's current rows. */
+        Compaction(Table table) {
+            _table = table;
+            _rows = table._size;
+            _deleted = Bitmap.or(new Bitmap(), table._deleted);
+        }
+
+        /** Return the table I compact. */
+        Table table() {
+            return _table;
+        }
+
+        @Override
+        public void run() {
+            long start = System.nanoTime();
+            int live = _rows - _deleted.cardinality();
+            ColumnValues[] columns = new ColumnValues[_table.columns()];
+            for (int c = 0; c < columns.length; c += 1) {
+                columns[c] = _table.newColumn(live);
+            }
+            int[] map = new int[_rows];
+            int n = 0;
+            for (int lo = 0; lo < _rows; lo += COMPACT_CHUNK) {
+                int hi = Math.min(_rows, lo + COMPACT_CHUNK);
+                synchronized (_table) {
+                    for (int r = lo; r < hi; r += 1) {
+                        if (_deleted.contains(r)) {
+                            map[r] = -1;
+                        } else {
+                            for (int c = 0; c < columns.length; c += 1) {
+                                columns[c].add(_table._columns[c].get(r));
+                            }
+                            map[r] = n;
+                            n += 1;
+                        }
+                    }
+                }
+            }
+            _map = map;
+            _columns = columns;
+            Stats.time("op.compact", start);
+        }
+
+        /** Give my table the compacted columns, together with the rows
+         *  added since I was created, and renumber its deleted rows and
+         *  indexes to match.  The compaction is abandoned if the table's
+         *  columns have since moved on or off the heap.  Must not be called
+         *  while the table is being read. */
+        void install() {
+            Table table = _table;
+            table._compaction = null;
+            if (_columns == null
+                || (_columns[0] instanceof OffHeapValues) != table._offHeap) {
+                return;
+            }
+            int live = _columns[0].size();
+            for (int r = _rows; r < table._size; r += 1) {
+                for (int c = 0; c < _columns.length; c += 1) {
+                    _columns[c].add(table._columns[c].get(r));
+                }
+            }
+            Bitmap deleted = new Bitmap();
+            for (int r = table._deleted.next(0); r >= 0;
+                 r = table._deleted.next(r + 1)) {
+                int row = r < _rows ? _map[r] : r - _rows + live;
+                if (row >= 0) {
+                    deleted.add(row);
+                }
+            }
+            Stats.count("compaction.rows", table._size - _columns[0].size());
+            Stats.count("compaction.runs", 1);
+            table._columns = _columns;
+            table._size = _columns[0].size();
+            table._deleted = deleted;
+            table._dead = deleted.cardinality();
+            table._zones = new ZoneMap(table);
+            table._distinct = null;
+            if (table._crackers != null) {
+                table._crackers = new Cracker[table._rowSize];
+            }
+            if (table._partitions != null) {
+                table.partition(table.getTitle(table._partitionColumn),
+                                table._partitions.length);
+            }
+            for (int k = 0; k < table._indexes.length; k += 1) {
+                if (table._indexes[k] != null) {
+                    table._indexes[k] =
+                        new BitmapIndex(table, k, table._indexes[k].include());
+                }
+            }
+            table._compactions += 1;
+        }
+
+        /** The table being compacted. */
+        private final Table _table;
+        /** Number of rows in the table when I was created. */
+        private final int _rows;
+        /** The deleted rows of the table when I was created. */
+        private final Bitmap _deleted;
+        /** The compacted columns, or null if I have not been run. */
+        private ColumnValues[] _columns;
+        /** The new number of each of the first _rows rows (-1 for deleted
+         *  rows). */
+        private int[] _map;
     }
 
+    /** Approximate heap overhead of an array, of a reference, and of a
+     *  String apart from its characters (with compact Latin-1 strings). */
+    private static final int
+        ARRAY_BYTES = 16, REFERENCE_BYTES = 8, STRING_BYTES = 40;
+
+    /** A join builds a BloomFilter on one side's keys when that side has
+     *  at most 1/BLOOM_RATIO as many rows as the other; the filter's
+     *  false-positive rate is about BLOOM_FPP. */
+    private static final int BLOOM_RATIO = 4;
+    private static final double BLOOM_FPP = 0.01;
+
+    /** A table is compacted once at least COMPACT_MIN of its rows, and at
+     *  least the fraction COMPACT_RATIO of them, are deleted. */
+    static final int COMPACT_MIN = 1024;
+    static final double COMPACT_RATIO = 0.25;
+    /** Number of rows a compaction copies, or a snapshot writes, while
+     *  holding the table's lock, which add() needs in order to append. */
+    private static final int COMPACT_CHUNK = 4096;
+
+    /** A table's columns move off the heap once it has this many rows
+     *  (the system property db61b.offHeapRows). */
+    static final int OFF_HEAP_ROWS =
+        Integer.getInteger("db61b.offHeapRows", 1 << 20);
+
+    /** Largest number of partitions of a table (the system property
+     *  db61b.maxPartitions).  The default does not depend on the host, so
+     *  that a script that partitions a table runs the same everywhere. */
+    static final int MAX_PARTITIONS =
+        Integer.getInteger("db61b.maxPartitions", 256);
+
+    /** True iff load leaves columns in their files until they are needed
+     *  (the system property db61b.lazyLoad, true unless set to false). */
+    static final boolean LAZY_LOAD =
+        !"false".equals(System.getProperty("db61b.lazyLoad"));
+
     /** My column titles. */
     private final String[] _titles;
-    /** My columns. Row i consists of _columns[k].get(i) for all k. */
-    private final ValueList[] _columns;
-
-    /** Rows in the database are supposed to be sorted. To do so, we
-     *  have a list whose kth element is the index in each column
-     *  of the value of that column for the kth row in lexicographic order.
-     *  That is, the first row (smallest in lexicographic order)
-     *  is at position _index.get(0) in _columns[0], _columns[1], ...
-     *  and the kth row in lexicographic order in at position _index.get(k).
-     *  When a new row is inserted, insert its index at the appropriate
-     *  place in this list.
-     *  (Alternatively, we could simply keep each column in the proper order
-     *  so that we would not need _index.  But that would mean that inserting
-     *  a new row would require rearranging _rowSize lists (each list in
-     *  _columns) rather than just one. */
-    private final ArrayList<Integer> _index = new ArrayList<>();
+    /** My columns. Row i consists of _columns[k].get(i) for all k.
+     *  Values are never changed once added, and the columns are replaced
+     *  only by a compaction. */
+    private ColumnValues[] _columns;
+    /** Bitmap index on each column (null where there is none). */
+    private final BitmapIndex[] _indexes;
+    /** The column by which my rows are partitioned (-1 if none), and the
+     *  rows of each partition (null if none). */
+    private int _partitionColumn = -1;
+    private Bitmap[] _partitions;
+    /** My live rows, by their values, or null if the set has yet to be
+     *  built. */
+    private volatile RowSet _distinct;
+    /** Minimum and maximum values of each block of my rows. */
+    private ZoneMap _zones;
+    /** The probability with which each of my rows was sampled from some
+     *  larger table (1 if I am not a sample). */
+    private double _sampleFraction = 1.0;
+    /** Materialized views defined on this table. */
+    private final List<View> _views = new ArrayList<>();
+    /** The deleted rows, and their number. */
+    private Bitmap _deleted = new Bitmap();
+    private int _dead;
+    /** The compaction of this table in progress, or null. */
+    private Compaction _compaction;
+    /** Number of compactions installed. */
+    private int _compactions;
+
+    /** True iff my rows print in the order they were added. */
+    private boolean _ordered;
+
+    /** True iff my columns are OffHeapValues rather than ValueLists. */
+    private boolean _offHeap;
+
+    /** The Cracker of each column, or null if I am not cracking. */
+    private Cracker[] _crackers;
 
     /** My number of rows (redundant, but convenient). */
     private int _size;
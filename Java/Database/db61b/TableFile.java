@@ -0,0 +1,21 @@
+package db61b;
+
+/** A stored table from which the values of one column at a time can be
+ *  decoded, so that a table loaded from it need only decode the columns
+ *  it uses.  The file must not change while it is in use.
+ *  @author Wenqu Wang */
+interface TableFile {
+
+    /** Return the column titles. */
+    String[] titles();
+
+    /** Return the number of distinct rows. */
+    int rows();
+
+    /** Return the size of the file in bytes. */
+    long length();
+
+    /** Append the value in column number COLUMN of each row, in order, to
+     *  VALUES. */
+    void decode(int column, ColumnValues values);
+}
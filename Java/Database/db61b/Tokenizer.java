@@ -18,22 +18,28 @@ class Tokenizer {
     private static final String
         LITERAL_TEXT = "'(?:[^,'\n\r]*)'?",
         IDENTIFIER_TEXT = "[\\p{Alpha}_]\\w*",
+        NUMBER_TEXT = "\\d+",
+        DECIMAL_TEXT = "\\d+(?:\\.\\d+)?",
         COMMENT_TEXT = "(?:/\\*.*?\\*/|/\\*.*)";
     /** Matches potential tokens, including valid or unterminated
-     *  literals, valid or unterminated comments, identifiers,
-     *  relation symbols (=, <, <=, >=, and !=), end-of-line
-     *  sequences, or other single characters.  The pattern matches a
-     *  prefix of any string. */
+     *  literals, valid or unterminated comments, identifiers, unsigned
+     *  integers and decimals (whose point and digits must be adjacent),
+     *  relation symbols (=, <, <=, >=, and !=), end-of-line sequences,
+     *  or other single characters.  The pattern matches a prefix of any
+     *  string. */
     private static final Pattern
-        TOKEN_PATN = mkPatn("(?s)[<>!]?=|%s|%s|%s|\r?\n|\\S",
-                            LITERAL_TEXT, IDENTIFIER_TEXT, COMMENT_TEXT);
+        TOKEN_PATN = mkPatn("(?s)[<>!]?=|%s|%s|%s|%s|\r?\n|\\S",
+                            LITERAL_TEXT, IDENTIFIER_TEXT, DECIMAL_TEXT,
+                            COMMENT_TEXT);
 
     /** Patterns matching specific kinds of token.  These are intended
      *  to be used with methods such as CommandInterpreter.name. */
     static final Pattern
         IDENTIFIER = mkPatn(IDENTIFIER_TEXT),
         LITERAL = mkPatn("'.*"),
-        RELATION = mkPatn("[<>!]?=|[<>]");
+        NUMBER = mkPatn(NUMBER_TEXT),
+        DECIMAL = mkPatn(DECIMAL_TEXT),
+        RELATION = mkPatn("[<>!]?=|[<>]|like");
 
     /** A Tokenizer that reads tokens from S, and prompts on PROMPTER,
      *  if it is non-null. */
@@ -2,8 +2,17 @@ package db61b;
 
 import org.junit.Test;
 
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.RandomAccessFile;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Random;
+import java.util.Scanner;
+import java.util.Set;
 import ucb.junit.textui;
 
 import static org.junit.Assert.assertEquals;
@@ -78,8 +87,7 @@ public class UnitTest {
         List<Column> x = new ArrayList<Column>();
         x.add(c1);
         x.add(c3);
-        Integer[] i = new Integer[]{0, 0};
-        t1.add(x, i);
+        t1.add(x, new Cursor(2).at(0, 0));
         assertEquals("3", t1.get(1, 1));
     }
 
@@ -122,6 +130,743 @@ public class UnitTest {
         assertEquals("3", t2.get(0, 0));
     }
 
+    @Test
+    public void testAggregate() {
+        String[] a = new String[]{"key", "val"};
+        Table t1 = new Table(a);
+        t1.add(new String[]{"x", "1"});
+        t1.add(new String[]{"y", "5"});
+        t1.add(new String[]{"x", "3"});
+        List<String> names = new ArrayList<>();
+        names.add("key");
+        names.add("count");
+        names.add("sum_val");
+        names.add("max_val");
+        List<String> groupBy = new ArrayList<>();
+        groupBy.add("key");
+        List<Aggregate> aggs = new ArrayList<>();
+        aggs.add(new Aggregate("count", null));
+        aggs.add(new Aggregate("sum", "val"));
+        aggs.add(new Aggregate("max", "val"));
+        Table t2 = Aggregation.aggregate(t1, names, groupBy, aggs,
+                                         new ArrayList<Condition>());
+        assertEquals(2, t2.size());
+        assertEquals("x", t2.get(0, 0));
+        assertEquals("2", t2.get(0, 1));
+        assertEquals("4", t2.get(0, 2));
+        assertEquals("3", t2.get(0, 3));
+        assertEquals("1", t2.get(1, 1));
+        Table t3 = new Table(a);
+        for (int v = 1; v <= 10; v += 1) {
+            t3.add(new String[]{"a", Integer.toString(v)});
+        }
+        names.add("min_val");
+        aggs.add(new Aggregate("min", "val"));
+        Table t4 = Aggregation.aggregate(t3, names, groupBy, aggs,
+                                         new ArrayList<Condition>());
+        assertEquals("10", t4.get(0, 1));
+        assertEquals("55", t4.get(0, 2));
+        assertEquals("10", t4.get(0, 3));
+        assertEquals("1", t4.get(0, 4));
+    }
+
+    @Test
+    public void testSort() {
+        String[] a = new String[]{"first", "second"};
+        Table t1 = new Table(a);
+        t1.add(new String[]{"1", "b"});
+        t1.add(new String[]{"2", "a"});
+        t1.add(new String[]{"3", "c"});
+        List<String> keys = new ArrayList<>();
+        keys.add("second");
+        Table t2 = Sorter.sort(t1, keys, new boolean[]{true},
+                               new boolean[]{false}, 2);
+        assertEquals(2, t2.size());
+        assertEquals("3", t2.get(0, 0));
+        assertEquals("1", t2.get(1, 0));
+        Table t3 = Sorter.sort(t1, keys, new boolean[]{false},
+                               new boolean[]{false}, -1);
+        assertEquals("2", t3.get(0, 0));
+        assertEquals("3", t3.get(2, 0));
+        Table counts = new Table(new String[]{"key", "count"});
+        counts.add(new String[]{"a", "10"});
+        counts.add(new String[]{"b", "9"});
+        counts.add(new String[]{"c", "11"});
+        counts.add(new String[]{"d", "2"});
+        keys.set(0, "count");
+        Table t4 = Sorter.sort(counts, keys, new boolean[]{true},
+                               new boolean[]{true}, 1);
+        assertEquals("c", t4.get(0, 0));
+        Table t5 = Sorter.sort(counts, keys, new boolean[]{false},
+                               new boolean[]{true}, -1);
+        assertEquals("d", t5.get(0, 0));
+        assertEquals("b", t5.get(1, 0));
+        assertEquals("a", t5.get(2, 0));
+        assertEquals("c", t5.get(3, 0));
+        assertEquals(-1, Aggregate.compare("9 +/- 3", "10 +/- 2"));
+        assertEquals(-1, Aggregate.compare("10", "1d"));
+    }
+
+    @Test
+    public void testHistogram() {
+        Histogram h = new Histogram();
+        for (long v = 1; v <= 1000; v += 1) {
+            h.record(v);
+        }
+        assertEquals(1000, h.count());
+        assertEquals(1000, h.max());
+        assertEquals(500500, h.total());
+        long p50 = h.percentile(50);
+        assertEquals(true, p50 >= 500 && p50 <= 500 * 9 / 8 + 1);
+        assertEquals(1000, h.percentile(100));
+    }
+
+    @Test
+    public void testBitmap() {
+        Bitmap evens = new Bitmap();
+        for (int i = 0; i < 200000; i += 2) {
+            evens.add(i);
+        }
+        Bitmap all = Bitmap.range(200000);
+        assertEquals(100000, evens.cardinality());
+        assertEquals(true, evens.contains(70000));
+        assertEquals(false, evens.contains(70001));
+        assertEquals(70002, evens.next(70001));
+        Bitmap odds = Bitmap.andNot(all, evens);
+        assertEquals(100000, odds.cardinality());
+        assertEquals(0, Bitmap.and(odds, evens).cardinality());
+        assertEquals(200000, Bitmap.or(odds, evens).cardinality());
+
+        Table t1 = new Table(new String[]{"key", "val"});
+        t1.add(new String[]{"x", "1"});
+        t1.add(new String[]{"y", "2"});
+        t1.createIndex("key");
+        t1.add(new String[]{"x", "3"});
+        Table[] a1 = new Table[]{t1};
+        List<Condition> conds = new ArrayList<>();
+        conds.add(new Condition(new Column("key", a1), "=", "x"));
+        List<String> names = new ArrayList<>();
+        names.add("val");
+        Table t2 = t1.select(names, conds);
+        assertEquals(2, t2.size());
+        assertEquals("1", t2.get(0, 0));
+        assertEquals("3", t2.get(1, 0));
+    }
+
+    @Test
+    public void testBloomFilter() {
+        BloomFilter bloom = new BloomFilter(1000, 0.01);
+        for (long k = 0; k < 1000; k += 1) {
+            bloom.add(k);
+        }
+        int falsePositives = 0;
+        for (long k = 0; k < 2000; k += 1) {
+            if (k < 1000) {
+                assertEquals(true, bloom.mightContain(k));
+            } else if (bloom.mightContain(k)) {
+                falsePositives += 1;
+            }
+        }
+        assertEquals(true, falsePositives < 50);
+    }
+
+    @Test
+    public void testHashJoin() {
+        Table t1 = new Table(new String[]{"key", "a"});
+        Table t2 = new Table(new String[]{"key", "b"});
+        for (int i = 0; i < 100; i += 1) {
+            t1.add(new String[]{Integer.toString(i % 10),
+                                Integer.toString(i)});
+            t2.add(new String[]{Integer.toString(i % 20),
+                                Integer.toString(i)});
+        }
+        List<Column> keys1 = new ArrayList<>();
+        keys1.add(new Column("key", t1));
+        List<Column> keys2 = new ArrayList<>();
+        keys2.add(new Column("key", t2));
+        int[] rows = new int[100];
+        for (int i = 0; i < rows.length; i += 1) {
+            rows[i] = i;
+        }
+        for (long budget : new long[]{1 << 20, 240, 1}) {
+            List<Integer> pairs = new ArrayList<>();
+            HashJoin join =
+                new HashJoin(keys1, keys2, new ArrayList<Condition>(),
+                             r -> {
+                                 pairs.add(r.row(0) * 100 + r.row(1));
+                                 return true;
+                             }, budget);
+            join.join(rows, rows);
+            assertEquals(500, pairs.size());
+            for (int p : pairs) {
+                assertEquals(t1.get(p / 100, 0), t2.get(p % 100, 0));
+            }
+        }
+    }
+
+    @Test
+    public void testView() {
+        Table t1 = new Table(new String[]{"key", "a"});
+        Table t2 = new Table(new String[]{"key", "b"});
+        t1.add(new String[]{"1", "x"});
+        t2.add(new String[]{"1", "y"});
+        List<String> names = new ArrayList<>();
+        names.add("a");
+        names.add("b");
+        View view = new View(names, t1, t2, new ArrayList<Condition>());
+        assertEquals(1, view.table().size());
+        t1.add(new String[]{"2", "z"});
+        assertEquals(1, view.table().size());
+        t2.add(new String[]{"2", "w"});
+        t2.add(new String[]{"1", "v"});
+        assertEquals(3, view.table().size());
+        assertEquals("z", view.table().get(1, 0));
+        assertEquals("w", view.table().get(1, 1));
+        assertEquals("v", view.table().get(2, 1));
+    }
+    @Test
+    public void testCompaction() {
+        Table t1 = new Table(new String[]{"key", "parity"});
+        for (int i = 0; i < 4000; i += 1) {
+            t1.add(new String[]{Integer.toString(i),
+                                i % 2 == 0 ? "even" : "odd"});
+        }
+        t1.createIndex("parity");
+        Table[] a1 = new Table[]{t1};
+        List<String> names = new ArrayList<>();
+        names.add("key");
+        List<Condition> odd = new ArrayList<>();
+        odd.add(new Condition(new Column("parity", a1), "=", "odd"));
+        View view = new View(names, t1, null, odd);
+        List<Condition> even = new ArrayList<>();
+        even.add(new Condition(new Column("parity", a1), "=", "even"));
+        assertEquals(2000, t1.delete(even));
+        assertEquals(4000, t1.size());
+        assertEquals(0, t1.select(names, even).size());
+        assertEquals(2000, t1.liveRows());
+        Compactor.finish();
+        assertEquals(1, t1.compactions());
+        assertEquals(true, t1.size() < 4000);
+        assertEquals(2000, t1.liveRows());
+        assertEquals("1", t1.get(0, 0));
+        List<Condition> one = new ArrayList<>();
+        one.add(new Condition(new Column("key", a1), "=", "1"));
+        t1.update(new int[]{1}, new String[]{"even"}, one);
+        assertEquals(1999, t1.select(names, odd).size());
+        assertEquals(1999, view.table().liveRows());
+    }
+
+    @Test
+    public void testCheckpoint() {
+        Table t1 = new Table(new String[]{"key", "parity"});
+        for (int i = 0; i < 1000; i += 1) {
+            t1.add(new String[]{Integer.toString(i),
+                                i % 2 == 0 ? "even" : "odd"});
+        }
+        t1.createIndex("parity");
+        Table[] a1 = new Table[]{t1};
+        List<Condition> small = new ArrayList<>();
+        small.add(new Condition(new Column("key", a1), "<", "5"));
+        t1.delete(small);
+        List<Condition> even = new ArrayList<>();
+        even.add(new Condition(new Column("parity", a1), "=", "even"));
+        View view = new View(List.of("key"), t1, null, even);
+        Database db = new Database();
+        db.put("numbers", t1);
+        db.put("evens", view.table());
+        Table spare = new Table(new String[]{"x"});
+        spare.add(new String[]{"a"});
+        spare.add(new String[]{"b"});
+        db.put("spare", spare);
+        String name = new File(System.getProperty("java.io.tmpdir"),
+                               "unittest").getPath();
+        Checkpoint.write(db, name);
+        Database restored = new Database();
+        restored.put("scratch", t1);
+        Checkpoint.read(restored, name);
+        assertEquals(null, restored.get("scratch"));
+        Table t2 = restored.get("numbers");
+        Table evens = restored.get("evens");
+        assertEquals(0, restored.get("spare").memory());
+        assertEquals("b", restored.get("spare").get(1, 0));
+        assertEquals(t1.liveRows(), t2.size());
+        assertEquals("5", t2.get(0, 0));
+        assertEquals(t1.getIndex(1).distinctValues(),
+                     t2.getIndex(1).distinctValues());
+        List<String> names = new ArrayList<>();
+        names.add("key");
+        List<Condition> odd = new ArrayList<>();
+        odd.add(new Condition(new Column("parity", t2), "=", "odd"));
+        assertEquals(278, t2.select(names, odd).size());
+        int n = view.table().liveRows();
+        assertEquals(n, evens.liveRows());
+        t2.add(new String[]{"1000", "even"});
+        t2.delete(odd);
+        assertEquals(n + 1, evens.liveRows());
+        new File(name + ".img").delete();
+    }
+
+
+    @Test
+    public void testZoneMap() {
+        Table t1 = new Table(new String[]{"key", "parity"});
+        for (int i = 0; i < 4000; i += 1) {
+            t1.add(new String[]{String.format("%05d", i),
+                                i % 2 == 0 ? "even" : "odd"});
+        }
+        Bitmap rows = t1.getZones().lookup(0, "<", "01000");
+        assertEquals(ZoneMap.BLOCK, rows.cardinality());
+        assertEquals(null, t1.getZones().lookup(1, "=", "odd"));
+        assertEquals(0, t1.getZones().lookup(1, ">", "odd").cardinality());
+        Table[] a1 = new Table[]{t1};
+        List<Condition> conds = new ArrayList<>();
+        conds.add(new Condition(new Column("key", a1), ">=", "03500"));
+        conds.add(new Condition(new Column("parity", a1), "=", "even"));
+        List<String> names = new ArrayList<>();
+        names.add("key");
+        assertEquals(250, t1.select(names, conds).size());
+    }
+
+    @Test
+    public void testPartitionJoin() {
+        Table t1 = new Table(new String[]{"id", "name"});
+        Table t2 = new Table(new String[]{"id", "course"});
+        Table t3 = new Table(new String[]{"id", "course"});
+        for (int i = 0; i < 2000; i += 1) {
+            t1.add(new String[]{Integer.toString(i), "n" + i});
+            t2.add(new String[]{Integer.toString(i % 500), "c" + i});
+            t3.add(new String[]{Integer.toString(i % 500), "c" + i});
+        }
+        t1.partition("id", 8);
+        t2.partition("id", 8);
+        List<String> names = new ArrayList<>();
+        names.add("name");
+        names.add("course");
+        List<Condition> none = new ArrayList<>();
+        assertEquals(2000, t1.select(t2, names, none).size());
+        assertEquals(2000, t1.select(t3, names, none).size());
+        Table[] a1 = new Table[]{t1};
+        List<Condition> small = new ArrayList<>();
+        small.add(new Condition(new Column("id", a1), "<", "2"));
+        t1.delete(small);
+        Compactor.finish();
+        assertEquals(1, t1.compactions());
+        Table[] a12 = new Table[]{t1, t2};
+        List<Condition> one = new ArrayList<>();
+        one.add(new Condition(new Column("id", a12), "=", "250"));
+        assertEquals(4, t1.select(t2, names, one).size());
+        assertEquals(1552, t1.select(t2, names, none).size());
+    }
+
+    @Test
+    public void testOffHeapValues() {
+        OffHeapValues column = new OffHeapValues(0);
+        for (int i = 0; i < 5000; i += 1) {
+            column.add("v\u00e9" + (i % 1500));
+        }
+        assertEquals(5000, column.size());
+        assertEquals("v\u00e90", column.get(0));
+        assertEquals("v\u00e91499", column.get(4499));
+        assertEquals("v\u00e9500", column.get(3500));
+        assertEquals(true, column.offHeapMemory() > 5000 * 4);
+        Table t1 = new Table(new String[]{"key", "parity"});
+        for (int i = 0; i < 100; i += 1) {
+            t1.add(new String[]{Integer.toString(i),
+                                i % 2 == 0 ? "even" : "odd"});
+        }
+        long heap = t1.memory();
+        t1.setOffHeap(true);
+        assertEquals(true, t1.memory() < heap);
+        assertEquals(false, t1.add(new String[]{"7", "odd"}));
+        assertEquals(true, t1.add(new String[]{"7", "even"}));
+        assertEquals("even", t1.get(100, 1));
+        assertEquals("98", t1.get(98, 0));
+    }
+
+    @Test
+    public void testCoveringIndex() {
+        Table t1 = new Table(new String[]{"a", "b", "c"});
+        Table t2 = new Table(new String[]{"a", "b", "c"});
+        for (int i = 0; i < 3000; i += 1) {
+            String[] row = new String[]{Integer.toString(i % 37),
+                                        Integer.toString(i % 11),
+                                        Integer.toString(i)};
+            t1.add(row);
+            t2.add(row);
+        }
+        t1.createIndex("a", "b");
+        Table[] a1 = new Table[]{t1};
+        Table[] a2 = new Table[]{t2};
+        List<Condition> c1 = new ArrayList<>();
+        List<Condition> c2 = new ArrayList<>();
+        c1.add(new Condition(new Column("c", a1), "<", "2"));
+        c2.add(new Condition(new Column("c", a2), "<", "2"));
+        assertEquals(t1.delete(c1), t2.delete(c2));
+        Compactor.finish();
+        List<String> names = new ArrayList<>();
+        names.add("b");
+        names.add("a");
+        c1.clear();
+        c2.clear();
+        c1.add(new Condition(new Column("a", a1), ">=", "30"));
+        c2.add(new Condition(new Column("a", a2), ">=", "30"));
+        c1.add(new Condition(new Column("b", a1), "!=", new Column("a", a1)));
+        c2.add(new Condition(new Column("b", a2), "!=", new Column("a", a2)));
+        t1.delete(c1.subList(0, 1));
+        t2.delete(c2.subList(0, 1));
+        c1.set(0, new Condition(new Column("a", a1), ">=", "20"));
+        c2.set(0, new Condition(new Column("a", a2), ">=", "20"));
+        long before = Stats.counter("index.covering");
+        Table r1 = t1.select(names, c1);
+        Table r2 = t2.select(names, c2);
+        assertEquals(before + 1, Stats.counter("index.covering"));
+        assertEquals(120, r1.size());
+        assertEquals(r2.size(), r1.size());
+        Set<String> rows = new HashSet<>();
+        for (int r = 0; r < r2.size(); r += 1) {
+            rows.add(r2.get(r, 0) + " " + r2.get(r, 1));
+        }
+        for (int r = 0; r < r1.size(); r += 1) {
+            assertEquals(true, rows.contains(r1.get(r, 0) + " "
+                                             + r1.get(r, 1)));
+        }
+    }
+
+    @Test
+    public void testSetOperations() {
+        Table sorted1 = new Table(new String[]{"k"});
+        Table sorted2 = new Table(new String[]{"k"});
+        Table shuffled1 = new Table(new String[]{"k"});
+        Table shuffled2 = new Table(new String[]{"k"});
+        for (int i = 0; i < 1000; i += 1) {
+            sorted1.add(new String[]{String.format("%04d", 2 * i)});
+            sorted2.add(new String[]{String.format("%04d", 3 * i)});
+            shuffled1.add(new String[]{
+                String.format("%04d", 2 * (i * 7 % 1000))});
+            shuffled2.add(new String[]{
+                String.format("%04d", 3 * (i * 7 % 1000))});
+        }
+        assertEquals(false, shuffled1.add(new String[]{"0014"}));
+        assertEquals(1, shuffled1.find(new String[]{"0014"}));
+        assertEquals(-1, shuffled1.find(new String[]{"0015"}));
+        long merges = Stats.counter("set.merge");
+        assertEquals(1666, SetOperation.apply("union", sorted1,
+                                              sorted2).size());
+        assertEquals(334, SetOperation.apply("intersect", sorted1,
+                                             sorted2).size());
+        assertEquals(666, SetOperation.apply("except", sorted1,
+                                             sorted2).size());
+        assertEquals(merges + 3, Stats.counter("set.merge"));
+        long hashes = Stats.counter("set.hash");
+        assertEquals(1666, SetOperation.apply("union", shuffled1,
+                                              shuffled2).size());
+        assertEquals(334, SetOperation.apply("intersect", shuffled1,
+                                             shuffled2).size());
+        assertEquals(666, SetOperation.apply("except", shuffled1,
+                                             shuffled2).size());
+        assertEquals(hashes + 3, Stats.counter("set.hash"));
+    }
+
+    @Test
+    public void testLike() {
+        assertEquals(true, Condition.like("Chan", "Ch%"));
+        assertEquals(true, Condition.like("Chan", "%a%"));
+        assertEquals(true, Condition.like("Chan", "C_a_"));
+        assertEquals(true, Condition.like("Chan", "%%n"));
+        assertEquals(true, Condition.like("", "%"));
+        assertEquals(false, Condition.like("Chan", "Ch"));
+        assertEquals(false, Condition.like("Chan", "_han_"));
+        assertEquals(false, Condition.like("Chan", "%x%"));
+        assertEquals("Ch", Condition.prefix("Ch%n_"));
+        assertEquals("Ci", Condition.successor("Ch"));
+        assertEquals(null, Condition.successor(""));
+        Table t1 = new Table(new String[]{"name"});
+        String[] names = {"Ch", "Chan", "Chang", "Chen", "Ci", "Cg", "Bo"};
+        for (String name : names) {
+            t1.add(new String[]{name});
+        }
+        t1.createIndex("name");
+        assertEquals(3, t1.getIndex(0).lookup("like", "Ch%n%")
+                     .cardinality());
+        assertEquals(4, t1.getIndex(0).values("like", "Ch%").size());
+    }
+
+    @Test
+    public void testSampling() {
+        HyperLogLog sketch = new HyperLogLog(), other = new HyperLogLog();
+        for (int i = 0; i < 50000; i += 1) {
+            (i % 2 == 0 ? sketch : other).add("v" + i % 30000);
+        }
+        sketch.merge(other);
+        assertEquals(true, Math.abs(sketch.estimate() - 30000) < 1500);
+        Table t1 = new Table(new String[]{"id", "parity"});
+        int n = 10 * ZoneMap.BLOCK;
+        for (int i = 0; i < n; i += 1) {
+            t1.add(new String[]{Integer.toString(i), "p" + i % 2});
+        }
+        Table sample = t1.sample(0.5, 61);
+        t1.delete(0);
+        assertEquals(n - 1, t1.sample(1.0, 1).size());
+        assertEquals(0, t1.sample(0.0, 1).size());
+        assertEquals(0.5, sample.sampleFraction(), 0.0);
+        assertEquals(0, sample.size() % ZoneMap.BLOCK);
+        List<String> titles = List.of("parity", "approx_count");
+        Table counts =
+            Aggregation.aggregate(sample, titles, List.of("parity"),
+                                  List.of(new Aggregate("approx_count",
+                                                        null)),
+                                  new ArrayList<>());
+        String estimate = Long.toString(sample.size());
+        assertEquals(estimate + " +/- " + Math.round(3.92 * Math.sqrt(
+                         sample.size() / 4.0)),
+                     counts.get(0, 1));
+        Table distinct =
+            Aggregation.aggregate(t1, List.of("approx_count_distinct_id"),
+                                  new ArrayList<>(),
+                                  List.of(new Aggregate(
+                                      "approx_count_distinct", "id")),
+                                  new ArrayList<>());
+        long d = Long.parseLong(distinct.get(0, 0));
+        assertEquals(true, Math.abs(d - (n - 1)) < n / 20);
+    }
+
+    @Test
+    public void testCopy() throws IOException {
+        Table t1 = new Table(new String[]{"a", "b"});
+        t1.add(new String[]{"1", "x"});
+        t1.createIndex("a");
+        File file = new File(System.getProperty("java.io.tmpdir"),
+                             "unittest.csv");
+        try (PrintStream out = new PrintStream(file)) {
+            out.println("b,a");
+            out.println("x,1");
+            out.println("y,2");
+            out.println("");
+            out.println("y,2");
+            out.println("z,1");
+        }
+        assertEquals(2, t1.copy(file.getPath(), true));
+        assertEquals(3, t1.size());
+        assertEquals("2", t1.get(1, 0));
+        assertEquals("y", t1.get(1, 1));
+        assertEquals(2, t1.getIndex(0).lookup("=", "1").cardinality());
+        try (PrintStream out = new PrintStream(file)) {
+            out.println("3,w");
+            out.println("4");
+        }
+        String message = null;
+        try {
+            t1.copy(file.getPath(), false);
+        } catch (DBException excp) {
+            message = excp.getMessage();
+        }
+        assertEquals(file.getPath() + ":2: expected 2 values", message);
+        file.delete();
+        assertEquals(4, t1.size());
+        assertEquals(1, t1.getIndex(0).lookup("=", "3").cardinality());
+    }
+
+    @Test
+    public void testLazyLoad() throws IOException {
+        String name = new File(System.getProperty("java.io.tmpdir"),
+                               "unittest").getPath();
+        try (PrintStream out = new PrintStream(name + ".db")) {
+            out.print("a,b,c\r\n1,x,p\r\n2,y,q,,\n1,x,p\n2,y,q\n3,,r");
+        }
+        Table t1 = Table.readTable(name);
+        new File(name + ".db").delete();
+        assertEquals(3, t1.size());
+        assertEquals(0, t1.memory());
+        Column b = new Column("b", t1);
+        assertEquals(true, t1.memory() > 0);
+        assertEquals("y", b.get(1));
+        assertEquals("", b.get(2));
+        assertEquals("r", t1.get(2, 2));
+        assertEquals(1, t1.find(new String[]{"2", "y", "q"}));
+    }
+
+    @Test
+    public void testBatch() {
+        String script = "create table a (x);\n"
+            + "create table b (y);\n"
+            + "insert into a values ('1'), ('2');\n"
+            + "insert into b values ('3');\n"
+            + "create table c as select x, y from a, b;\n"
+            + "select z from a;\n"
+            + "select x from c where y = 'oops;\n"
+            + "select x from a;\n"
+            + "print c;\n"
+            + "quit;\n"
+            + "print a;\n";
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        PrintStream out = new PrintStream(bytes);
+        Batch.run(List.of(new Scanner(script)), out);
+        String nl = System.lineSeparator();
+        assertEquals("Error: invalid row or column" + nl
+                     + "Error: unterminated literal constant" + nl
+                     + "Contents of c:" + nl + "  1 3\n  2 3\n",
+                     bytes.toString());
+    }
+
+    @Test
+    public void testBatchZoneMaps() {
+        int columns = 16, rows = 64 * ZoneMap.BLOCK;
+        StringBuilder script = new StringBuilder("create table t (c0");
+        for (int c = 1; c < columns; c += 1) {
+            script.append(", c").append(c);
+        }
+        script.append(");\ninsert into t values ");
+        for (int r = 0; r < rows; r += 1) {
+            script.append(r == 0 ? "(" : ", (");
+            for (int c = 0; c < columns; c += 1) {
+                script.append(c == 0 ? "" : ", ")
+                    .append(String.format("'%05d'", r));
+            }
+            script.append(")");
+        }
+        script.append(";\n");
+        for (int k = 0; k < 2 * columns; k += 1) {
+            script.append(String.format(
+                "select count(*) from t where c%d >= '%05d';%n",
+                k % columns, rows - 10));
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        Batch.run(List.of(new Scanner(script.toString())),
+                  new PrintStream(bytes));
+        String nl = System.lineSeparator();
+        assertEquals(("Search results:" + nl + "  10\n")
+                     .repeat(2 * columns), bytes.toString());
+    }
+
+    @Test
+    public void testSnapshotStore() {
+        Table t1 = new Table(new String[]{"k"});
+        for (int i = 0; i < 10000; i += 1) {
+            t1.add(new String[]{Integer.toString(i)});
+        }
+        t1.delete(0);
+        String name = new File(System.getProperty("java.io.tmpdir"),
+                               "unittest").getPath();
+        Storer.start(name, t1.snapshot(), "text");
+        t1.delete(1);
+        t1.add(new String[]{"new"});
+        Table t2 = Table.readTable(name);
+        new File(name + ".db").delete();
+        assertEquals(9999, t2.size());
+        assertEquals(-1, t2.find(new String[]{"0"}));
+        assertEquals(-1, t2.find(new String[]{"new"}));
+        assertEquals(true, t2.find(new String[]{"1"}) >= 0);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        Storer.finish(new PrintStream(bytes), true);
+        assertEquals("Stored " + name + ".db" + System.lineSeparator(),
+                     bytes.toString());
+    }
+
+    @Test
+    public void testPackedStore() throws IOException {
+        Table t1 = new Table(new String[]{"k", "term", "grade"});
+        for (int i = 0; i < 50000; i += 1) {
+            t1.add(new String[]{Integer.toString(i), "T" + i / 10000,
+                                "ABCDF".substring(i * 7 % 5, i * 7 % 5 + 1)});
+        }
+        t1.delete(3);
+        String name = new File(System.getProperty("java.io.tmpdir"),
+                               "unittest").getPath();
+        t1.writeTable(name);
+        long size = new File(name + ".db").length();
+        for (String format : new String[]{"packed", "compressed"}) {
+            t1.snapshot().write(name, format);
+            assertEquals(true, new File(name + ".db").length() < size);
+            size = new File(name + ".db").length();
+            Table t2 = Table.readTable(name);
+            assertEquals(49999, t2.size());
+            for (int r = 0; r < t2.size(); r += 1) {
+                int r1 = r < 3 ? r : r + 1;
+                for (int c = 0; c < 3; c += 1) {
+                    assertEquals(t1.get(r1, c), t2.get(r, c));
+                }
+            }
+        }
+        try (RandomAccessFile file = new RandomAccessFile(name + ".db",
+                                                          "rw")) {
+            file.seek(file.length() - 10);
+            file.write(~file.read());
+        }
+        Table t3 = Table.readTable(name);
+        String message = null;
+        try {
+            t3.get(0, 2);
+        } catch (DBException excp) {
+            message = excp.getMessage();
+        }
+        new File(name + ".db").delete();
+        assertEquals(name + ".db is damaged", message);
+        assertEquals("0", t3.get(0, 0));
+    }
+
+    @Test
+    public void testCursor() {
+        Table t1 = new Table(new String[]{"a", "b"});
+        Table t2 = new Table(new String[]{"b", "c"});
+        t1.add(new String[]{"1", "x"});
+        t1.add(new String[]{"2", "y"});
+        t2.add(new String[]{"y", "2"});
+        Column a = new Column("a", t1, t2);
+        Column c = new Column("c", t1, t2);
+        Condition cond = new Condition(a, "=", c);
+        Cursor rows = new Cursor(2);
+        assertEquals(false, cond.test(rows.at(0, 0)));
+        assertEquals("1", a.get(rows));
+        assertEquals(true, cond.test(rows.set(0, 1)));
+        assertEquals("2", a.get(rows));
+        assertEquals("2", c.get(rows));
+        assertEquals(0, rows.row(1));
+    }
+
+    @Test
+    public void testCracker() {
+        Table t1 = new Table(new String[]{"k", "v"});
+        Table t2 = new Table(new String[]{"k", "v"});
+        t2.setCracking(true);
+        Random random = new Random(61);
+        String[] relations = {"=", "<", "<=", ">", ">=", "like", "!="};
+        Table[] tables = {t1, t2};
+        for (int i = 0; i < 300; i += 1) {
+            for (int n = 0; n < 100; n += 1) {
+                String[] row = {Integer.toString(i * 100 + n),
+                                Integer.toString(random.nextInt(1000))};
+                t1.add(row);
+                t2.add(row);
+            }
+            if (i % 50 == 49) {
+                t1.delete(i);
+                t2.delete(i);
+            }
+            String literal = Integer.toString(random.nextInt(1000));
+            String relation = relations[i % relations.length];
+            if (relation.equals("like")) {
+                literal = literal.substring(0, 1) + "%";
+            }
+            Table[] results = new Table[2];
+            for (int t = 0; t < 2; t += 1) {
+                Table[] base = {tables[t]};
+                List<Condition> conds = new ArrayList<>();
+                conds.add(new Condition(new Column("v", base), relation,
+                                        literal));
+                conds.add(new Condition(new Column("v", base), "<", "8"));
+                List<String> names = new ArrayList<>();
+                names.add("k");
+                results[t] = tables[t].select(names, conds);
+            }
+            assertEquals(results[0].size(), results[1].size());
+            for (int r = 0; r < results[0].size(); r += 1) {
+                assertEquals(true, results[1].find(
+                    new String[]{results[0].get(r, 0)}) >= 0);
+            }
+        }
+        assertEquals(true, t2.crackers()[1].pieces() > 100);
+        assertEquals(null, t2.crackers()[0]);
+    }
 
     /** Run the JUnit tests in this package. Add xxxTest.class entries to
      *  the arguments of runClasses to run other JUnit tests. */
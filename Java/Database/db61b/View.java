@@ -0,0 +1,293 @@
+package db61b;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+/** A materialized view: a Table holding the result of a select over one
+ *  or two base tables, kept current as rows are added to or deleted from
+ *  the bases.  Each changed base row is pushed through the view's delta
+ *  plan: for a single table, the row is tested against the view's
+ *  conditions; for a join, it is matched against the rows of the other
+ *  base that share its values in the common columns, found through a
+ *  hash index on those values that the view maintains for each base.
+ *  Since several base rows may yield the same view row, the view counts
+ *  the derivations of each of its rows, and removes a row only when its
+ *  count drops to zero.  The view is never recomputed from scratch.
+ *  @author Wenqu Wang */
+class View {
+
+    /** A view of the columns named COLUMNNAMES from the rows of TABLE1
+     *  (and rows of TABLE2 that match them on their common columns, if
+     *  TABLE2 is not null) that satisfy CONDITIONS. */
+    View(List<String> columnNames, Table table1, Table table2,
+         List<Condition> conditions) {
+        this(new Table(columnNames), table1, table2, conditions);
+    }
+
+    /** A view as for View(COLUMNNAMES, TABLE1, TABLE2, CONDITIONS) whose
+     *  rows are kept in RESULT, whose titles are the COLUMNNAMES.  RESULT
+     *  may already hold my rows, as when a view is restored from a
+     *  Checkpoint, in which case rows are only counted, not added. */
+    View(Table result, Table table1, Table table2,
+         List<Condition> conditions) {
+        List<String> columnNames = new ArrayList<>();
+        for (int c = 0; c < result.columns(); c += 1) {
+            columnNames.add(result.getTitle(c));
+        }
+        _table1 = table1;
+        _table2 = table2;
+        _conditions = conditions;
+        Table[] bases = table2 == null ? new Table[] { table1 }
+            : new Table[] { table1, table2 };
+        _columns = new ArrayList<>();
+        for (String name : columnNames) {
+            _columns.add(new Column(name, bases));
+        }
+        _keys1 = new ArrayList<>();
+        _keys2 = new ArrayList<>();
+        _result = result;
+        if (table2 == null) {
+            for (int row = table1.nextRow(null, 0); row >= 0;
+                 row = table1.nextRow(null, row + 1)) {
+                if (Condition.test(conditions, _cursor.at(row))) {
+                    derive(1, _cursor);
+                }
+            }
+        } else {
+            for (int i = 0; i < table1.columns(); i += 1) {
+                String title = table1.getTitle(i);
+                if (table2.findColumn(title) != -1) {
+                    _keys1.add(new Column(title, table1));
+                    _keys2.add(new Column(title, table2));
+                }
+            }
+            reindex(null, 0);
+            for (int row2 = table2.nextRow(null, 0); row2 >= 0;
+                 row2 = table2.nextRow(null, row2 + 1)) {
+                for (int row1 : matches(_index1, _table1, _keys2, row2)) {
+                    join(1, row1, row2);
+                }
+            }
+        }
+        table1.addView(this);
+        if (table2 != null && table2 != table1) {
+            table2.addView(this);
+        }
+    }
+
+    /** Return the table holding my rows. */
+    Table table() {
+        return _result;
+    }
+
+    /** Return my first base table. */
+    Table base1() {
+        return _table1;
+    }
+
+    /** Return my second base table, or null if I am not a join. */
+    Table base2() {
+        return _table2;
+    }
+
+    /** Return the conditions my rows satisfy. */
+    List<Condition> conditions() {
+        return _conditions;
+    }
+
+    /** Bring me up to date after row number ROW was added to BASE, one
+     *  of my base tables. */
+    void inserted(Table base, int row) {
+        int before = _result.liveRows();
+        if (_table2 == null) {
+            if (Condition.test(_conditions, _cursor.at(row))) {
+                derive(1, _cursor);
+            }
+        } else {
+            reindex(base, row);
+            if (base == _table1) {
+                index(_index1, _keys1, row);
+                for (int row2 : matches(_index2, _table2, _keys1, row)) {
+                    join(1, row, row2);
+                }
+            }
+            if (base == _table2) {
+                index(_index2, _keys2, row);
+                for (int row1 : matches(_index1, _table1, _keys2, row)) {
+                    join(1, row1, row);
+                }
+            }
+        }
+        Stats.count("view.deltas", 1);
+        Stats.count("view.rows", _result.liveRows() - before);
+    }
+
+    /** Bring me up to date as row number ROW, which is still live, is
+     *  deleted from BASE, one of my base tables. */
+    void deleted(Table base, int row) {
+        if (_table2 == null) {
+            if (Condition.test(_conditions, _cursor.at(row))) {
+                derive(-1, _cursor);
+            }
+        } else {
+            reindex(null, 0);
+            if (base == _table1) {
+                for (int row2 : matches(_index2, _table2, _keys1, row)) {
+                    join(-1, row, row2);
+                }
+            }
+            if (base == _table2) {
+                for (int row1 : matches(_index1, _table1, _keys2, row)) {
+                    if (base != _table1 || row1 != row) {
+                        join(-1, row1, row);
+                    }
+                }
+            }
+        }
+        Stats.count("view.deltas", 1);
+    }
+
+    /** Add DELTA (1 or -1) to the derivations of the row formed from ROW1
+     *  of my first base and ROW2 of my second, if it satisfies my
+     *  conditions. */
+    private void join(int delta, int row1, int row2) {
+        if (Condition.test(_conditions, _cursor.at(row1, row2))) {
+            derive(delta, _cursor);
+        }
+    }
+
+    /** Add DELTA (1 or -1) to the number of derivations of the row formed
+     *  from the rows of my bases at which ROWS stands, adding it to my
+     *  table or deleting it when that number becomes positive or zero. */
+    private void derive(int delta, Cursor rows) {
+        String[] values = new String[_columns.size()];
+        for (int i = 0; i < values.length; i += 1) {
+            values[i] = _columns.get(i).get(rows);
+        }
+        List<String> key = Arrays.asList(values);
+        if (_result.compactions() != _resultCompactions) {
+            _resultRows.clear();
+            for (int r = _result.nextRow(null, 0); r >= 0;
+                 r = _result.nextRow(null, r + 1)) {
+                _resultRows.put(row(_result, r), r);
+            }
+            _resultCompactions = _result.compactions();
+        }
+        Integer count = _derivations.get(key);
+        int n = (count == null ? 0 : count) + delta;
+        if (n > 0) {
+            _derivations.put(key, n);
+            if (count == null && _result.add(values)) {
+                _resultRows.put(key, _result.size() - 1);
+            }
+        } else {
+            _derivations.remove(key);
+            Integer r = _resultRows.remove(key);
+            if (r != null) {
+                _result.delete(r);
+            }
+        }
+    }
+
+    /** Rebuild the index of each of my bases that has been compacted
+     *  since the index was built, omitting rows of BASE numbered LIMIT or
+     *  more (which are yet to be indexed). */
+    private void reindex(Table base, int limit) {
+        if (_table1.compactions() != _compactions1) {
+            int n = _table1 == base ? limit : _table1.size();
+            _index1.clear();
+            for (int row = 0; row < n; row += 1) {
+                index(_index1, _keys1, row);
+            }
+            _compactions1 = _table1.compactions();
+        }
+        if (_table2.compactions() != _compactions2) {
+            int n = _table2 == base ? limit : _table2.size();
+            _index2.clear();
+            for (int row = 0; row < n; row += 1) {
+                index(_index2, _keys2, row);
+            }
+            _compactions2 = _table2.compactions();
+        }
+    }
+
+    /** Record in INDEX that ROW has the values it has in the columns
+     *  KEYS. */
+    private static void index(HashMap<List<String>, List<Integer>> index,
+                              List<Column> keys, int row) {
+        List<String> key = key(keys, row);
+        List<Integer> rows = index.get(key);
+        if (rows == null) {
+            rows = new ArrayList<>(1);
+            index.put(key, rows);
+        }
+        rows.add(row);
+    }
+
+    /** Return the live rows of BASE recorded in INDEX that have the
+     *  values that ROW has in the columns KEYS. */
+    private static List<Integer> matches(
+        HashMap<List<String>, List<Integer>> index, Table base,
+        List<Column> keys, int row) {
+        List<Integer> result = new ArrayList<>();
+        List<Integer> rows = index.get(key(keys, row));
+        if (rows != null) {
+            for (int r : rows) {
+                if (!base.isDeleted(r)) {
+                    result.add(r);
+                }
+            }
+        }
+        return result;
+    }
+
+    /** Return the values of the columns KEYS in ROW. */
+    private static List<String> key(List<Column> keys, int row) {
+        String[] values = new String[keys.size()];
+        for (int k = 0; k < values.length; k += 1) {
+            values[k] = keys.get(k).get(row);
+        }
+        return Arrays.asList(values);
+    }
+
+    /** Return the values of row number ROW of TABLE. */
+    private static List<String> row(Table table, int row) {
+        String[] values = new String[table.columns()];
+        for (int c = 0; c < values.length; c += 1) {
+            values[c] = table.get(row, c);
+        }
+        return Arrays.asList(values);
+    }
+
+    /** My base tables (_table2 is null unless I am a join). */
+    private final Table _table1, _table2;
+    /** The conditions my rows satisfy. */
+    private final List<Condition> _conditions;
+    /** Stands at the rows of my bases being examined. */
+    private final Cursor _cursor = new Cursor(2);
+    /** The columns of my rows, drawn from my bases. */
+    private final List<Column> _columns;
+    /** The common columns of a join, in my first and second bases. */
+    private final List<Column> _keys1, _keys2;
+    /** The rows of my first and second bases (in a join), by their
+     *  values in the common columns, including deleted rows. */
+    private final HashMap<List<String>, List<Integer>>
+        _index1 = new HashMap<>(),
+        _index2 = new HashMap<>();
+    /** Values of _table1.compactions() and _table2.compactions() when
+     *  _index1 and _index2 were built (-1 initially). */
+    private int _compactions1 = -1, _compactions2 = -1;
+    /** My rows. */
+    private final Table _result;
+    /** The number of derivations of each of my rows. */
+    private final HashMap<List<String>, Integer> _derivations =
+        new HashMap<>();
+    /** The row number of each of my rows in _result, valid as long as
+     *  _result.compactions() is _resultCompactions (-1 initially, so
+     *  that rows already in _result are found). */
+    private final HashMap<List<String>, Integer> _resultRows =
+        new HashMap<>();
+    private int _resultCompactions = -1;
+}
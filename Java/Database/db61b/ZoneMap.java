@@ -0,0 +1,193 @@
+package db61b;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/** Zone maps for the columns of a Table: for each block of BLOCK
+ *  consecutive rows, the least and greatest value of each column in the
+ *  block.  A condition comparing a column with a literal can then pass
+ *  over every block whose range of values cannot satisfy it, without
+ *  examining its rows.  This pays off when a table is naturally
+ *  clustered, as when rows are appended in order of some key, and costs
+ *  little otherwise.  Deleted rows stay in their blocks until the table
+ *  is compacted, so the ranges may be wider than necessary, but are never
+ *  too narrow.  The zone maps of a column are computed from the table's
+ *  rows the first time a condition on it is looked up, and maintained as
+ *  rows are added from then on, so that columns no query constrains,
+ *  which may not even have been read from their file, are never
+ *  examined.
+ *  @author Wenqu Wang */
+class ZoneMap {
+
+    /** Number of rows in each block. */
+    static final int BLOCK = Integer.getInteger("db61b.zoneBlock", 1024);
+
+    /** Zone maps for the current rows of TABLE, each column of which is
+     *  summarized only when first needed. */
+    ZoneMap(Table table) {
+        this(table.columns());
+        _table = table;
+        _rows = table.size();
+    }
+
+    /** Zone maps for an empty table with COLUMNS columns. */
+    private ZoneMap(int columns) {
+        _min = new String[columns][];
+        _max = new String[columns][];
+    }
+
+    /** Record the addition of a row with VALUES after all rows so far. */
+    synchronized void add(String[] values) {
+        for (int c = 0; c < _min.length; c += 1) {
+            if (_min[c] != null) {
+                add(c, _rows, values[c]);
+            }
+        }
+        _rows += 1;
+    }
+
+    /** Widen the range of column number C in the block of row number
+     *  ROW, the next row of that block, to include VALUE. */
+    private void add(int c, int row, String value) {
+        int block = row / BLOCK;
+        if (block == _min[c].length) {
+            _min[c] = Arrays.copyOf(_min[c], 2 * block);
+            _max[c] = Arrays.copyOf(_max[c], 2 * block);
+        }
+        if (row % BLOCK == 0) {
+            _min[c][block] = _max[c][block] = value;
+        } else if (value.compareTo(_min[c][block]) < 0) {
+            _min[c][block] = value;
+        } else if (value.compareTo(_max[c][block]) > 0) {
+            _max[c][block] = value;
+        }
+    }
+
+    /** Compute the zone maps of column number C from my table's rows, if
+     *  they have yet to be. */
+    private synchronized void summarize(int c) {
+        if (_min[c] != null) {
+            return;
+        }
+        _min[c] = new String[1];
+        _max[c] = new String[1];
+        for (int row = 0; row < _rows; row += 1) {
+            add(c, row, _table.get(row, c));
+        }
+        Stats.count("zonemap.columns", 1);
+    }
+
+    /** Return the rows in the blocks whose values in column number
+     *  COLUMN might satisfy V RELATION LITERAL, where RELATION is one of
+     *  "=", "!=", "<", ">", "<=", ">=", or "like".  Return null if that
+     *  is every block.  Several lookups may run at once. */
+    Bitmap lookup(int column, String relation, String literal) {
+        int rows;
+        String[] min, max;
+        synchronized (this) {
+            summarize(column);
+            rows = _rows;
+            min = _min[column];
+            max = _max[column];
+        }
+        int blocks = (rows + BLOCK - 1) / BLOCK;
+        boolean[] keep = new boolean[blocks];
+        int skipped = 0;
+        for (int b = 0; b < blocks; b += 1) {
+            keep[b] = mayMatch(min[b], max[b], relation, literal);
+            if (!keep[b]) {
+                skipped += 1;
+            }
+        }
+        Stats.count("zonemap.blocks", blocks);
+        Stats.count("zonemap.skipped", skipped);
+        if (skipped == 0) {
+            return null;
+        }
+        Bitmap result = new Bitmap();
+        for (int b = 0; b < blocks; b += 1) {
+            if (keep[b]) {
+                int hi = Math.min(rows, (b + 1) * BLOCK);
+                for (int row = b * BLOCK; row < hi; row += 1) {
+                    result.add(row);
+                }
+            }
+        }
+        return result;
+    }
+
+    /** Return true iff some value V with MIN <= V <= MAX might satisfy
+     *  V RELATION LITERAL. */
+    private static boolean mayMatch(String min, String max,
+                                    String relation, String literal) {
+        switch (relation) {
+        case "=":
+            return min.compareTo(literal) <= 0 && max.compareTo(literal) >= 0;
+        case "!=":
+            return !min.equals(literal) || !max.equals(literal);
+        case "<":
+            return min.compareTo(literal) < 0;
+        case "<=":
+            return min.compareTo(literal) <= 0;
+        case ">":
+            return max.compareTo(literal) > 0;
+        case ">=":
+            return max.compareTo(literal) >= 0;
+        case "like":
+            String prefix = Condition.prefix(literal);
+            String end = Condition.successor(prefix);
+            return max.compareTo(prefix) >= 0
+                && (end == null || min.compareTo(end) < 0);
+        default:
+            throw new Error("Unknown relation");
+        }
+    }
+
+    /** Write me to OUT in a form that read can restore. */
+    void write(DataOutputStream out) throws IOException {
+        for (int c = 0; c < _min.length; c += 1) {
+            summarize(c);
+        }
+        int blocks = (_rows + BLOCK - 1) / BLOCK;
+        out.writeInt(_min.length);
+        out.writeInt(BLOCK);
+        out.writeInt(_rows);
+        for (int c = 0; c < _min.length; c += 1) {
+            for (int b = 0; b < blocks; b += 1) {
+                Checkpoint.writeString(out, _min[c][b]);
+                Checkpoint.writeString(out, _max[c][b]);
+            }
+        }
+    }
+
+    /** Return the zone maps written by write at the position of IN,
+     *  leaving IN positioned just after them, or null if they were
+     *  written with a block size other than BLOCK. */
+    static ZoneMap read(ByteBuffer in) {
+        ZoneMap result = new ZoneMap(in.getInt());
+        int block = in.getInt();
+        int rows = in.getInt();
+        int blocks = (rows + block - 1) / block;
+        for (int c = 0; c < result._min.length; c += 1) {
+            result._min[c] = new String[Math.max(1, blocks)];
+            result._max[c] = new String[Math.max(1, blocks)];
+            for (int b = 0; b < blocks; b += 1) {
+                result._min[c][b] = Checkpoint.readString(in);
+                result._max[c][b] = Checkpoint.readString(in);
+            }
+        }
+        result._rows = rows;
+        return block == BLOCK ? result : null;
+    }
+
+    /** The least and greatest values of column c in block b are
+     *  _min[c][b] and _max[c][b]. */
+    private String[][] _min, _max;
+    /** Number of rows covered. */
+    private int _rows;
+    /** The table whose columns I summarize on demand (null if I was
+     *  restored by read, which leaves every column summarized). */
+    private Table _table;
+}